@@ -0,0 +1,321 @@
+package expressionEvaluator;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * CompiledFunction class that holds a parsed function together with the forms it is evaluated in, so they can be
+ * reused whenever the same function is entered again. A compiled function never changes once created, apart from
+ * forms that are created the first time they are used, so it can be shared freely between threads. Parameters are
+ * changed by binding new values, which creates a new compiled function sharing the parsed and compiled forms.
+ */
+
+public final class CompiledFunction implements DoubleUnaryOperator {
+
+    public static final int MAX_DERIVATIVE = 3; // Highest derivative that can be found
+
+    private final String function; // Normalized function text
+    private final Expression expression; // Parsed and optimized function
+    private final RPNProgram program; // Function as a reverse polish notation program
+    private final char[] parameterNames; // Names of parameters used by function
+    private final double[] parameters; // Parameter values bound to function
+    private final TieredFunction tieredFunction; // Function that is compiled once it is hot
+    private final Expression[] derivatives; // Derivatives, created when used and shared with other bindings
+    private final TieredFunction[] derivativeFunctions =
+            new TieredFunction[MAX_DERIVATIVE + 1]; // Compiled derivatives, created when used
+    private final ThreadLocal<double[]> derivativeStacks; // Stack for evaluating derivatives on each thread
+    private JavaScriptFunction scriptFunction; // Function defined in its own JS engine, created when first used
+    private boolean scriptFailed; // Whether the JS engine is missing or could not define the function
+
+    /**
+     * Main constructor.
+     *
+     * @param function normalized function text
+     * @param expression parsed and optimized function
+     */
+    CompiledFunction(String function, Expression expression) {
+        this(function, expression, new RPNProgram(expression), findParameterNames(expression),
+                new double[Expression.PARAMETER_COUNT], new TieredFunction(expression),
+                new Expression[MAX_DERIVATIVE + 1]);
+        this.derivatives[0] = expression;
+    }
+
+    /**
+     * Creates a compiled function from its parts.
+     *
+     * @param function normalized function text
+     * @param expression parsed and optimized function
+     * @param program function as a reverse polish notation program
+     * @param parameterNames names of parameters used by function
+     * @param parameters parameter values
+     * @param tieredFunction function bound to the parameter values
+     * @param derivatives derivatives shared with other bindings
+     */
+    private CompiledFunction(String function, Expression expression, final RPNProgram program,
+                             char[] parameterNames, final double[] parameters, TieredFunction tieredFunction,
+                             Expression[] derivatives) {
+        this.function = function;
+        this.expression = expression;
+        this.program = program;
+        this.parameterNames = parameterNames;
+        this.parameters = parameters;
+        this.tieredFunction = tieredFunction;
+        this.derivatives = derivatives;
+        this.derivativeStacks = new ThreadLocal<double[]>() {
+            @Override
+            protected double[] initialValue() {
+                double[] stack = program.createDerivativeStack(); // Evaluation stack
+
+                program.bind(stack, parameters);
+                return stack;
+            }
+        };
+    }
+
+    /**
+     * Creates a copy of the function bound to new parameter values. Nothing is parsed or compiled again.
+     *
+     * @param values parameter values, indexed as in Expression.PARAMETER_NAMES
+     * @return function bound to the values, or this function if it has no parameters
+     */
+    public CompiledFunction bind(double[] values) {
+        if (parameterNames.length == 0) {
+            return this;
+        }
+        return new CompiledFunction(function, expression, program, parameterNames, values.clone(),
+                tieredFunction.bind(values), derivatives);
+    }
+
+    /**
+     * Evaluates the function at x.
+     *
+     * @param x x value
+     * @return y value at x of function
+     */
+    @Override
+    public double applyAsDouble(double x) {
+        return tieredFunction.applyAsDouble(x);
+    }
+
+    /**
+     * Evaluates the function for an array of x values.
+     *
+     * @param xs x values
+     * @param ys array to store y values in
+     * @param from index of first value to evaluate
+     * @param to index after last value to evaluate
+     */
+    public void evaluate(double[] xs, double[] ys, int from, int to) {
+        tieredFunction.evaluate(xs, ys, from, to);
+    }
+
+    /**
+     * Creates a stack for evaluating the program on one thread, bound to the parameter values.
+     *
+     * @return evaluation stack for getProgram
+     */
+    public double[] createStack() {
+        double[] stack = program.createStack(); // Evaluation stack
+
+        program.bind(stack, parameters);
+        return stack;
+    }
+
+    /**
+     * Evaluates the function and its first and second derivatives at x in a single pass.
+     *
+     * @param x x value
+     * @param result array to store f(x), f'(x) and, if it has room, f''(x) in
+     */
+    public void evalDerivatives(double x, double[] result) {
+        program.evalDerivatives(x, derivativeStacks.get(), result);
+    }
+
+    /**
+     * Finds bounds on the function over a range of x values.
+     *
+     * @param minX minimum x value
+     * @param maxX maximum x value
+     * @return interval guaranteed to contain every y value of the function in the range
+     */
+    public Interval evalInterval(double minX, double maxX) {
+        return IntervalEvaluator.eval(expression, new Interval(minX, maxX), parameters);
+    }
+
+    /**
+     * Evaluates the function at x in double-double precision, for x values closer together than doubles can resolve.
+     *
+     * @param x x value
+     * @return y value at x of function
+     */
+    public DoubleDouble evalExtended(DoubleDouble x) {
+        return DoubleDoubleEvaluator.eval(expression, x, parameters);
+    }
+
+    /**
+     * Returns the normalized function text.
+     *
+     * @return function text
+     */
+    public String getFunction() {
+        return function;
+    }
+
+    /**
+     * Returns the parsed function.
+     *
+     * @return expression of function
+     */
+    public Expression getExpression() {
+        return expression;
+    }
+
+    /**
+     * Returns the function as a reverse polish notation program.
+     *
+     * @return program of function
+     */
+    public RPNProgram getProgram() {
+        return program;
+    }
+
+    /**
+     * Returns the names of the parameters used by the function, in alphabetical order.
+     *
+     * @return parameter names
+     */
+    public char[] getParameterNames() {
+        return parameterNames.clone();
+    }
+
+    /**
+     * Returns the parameter values bound to the function.
+     *
+     * @return parameter values, indexed as in Expression.PARAMETER_NAMES
+     */
+    public double[] getParameters() {
+        return parameters.clone();
+    }
+
+    /**
+     * Returns the function that is compiled once it is hot.
+     *
+     * @return tiered function
+     */
+    public TieredFunction getTieredFunction() {
+        return tieredFunction;
+    }
+
+    /**
+     * Returns the function compiled to bytecode, compiling it the first time.
+     *
+     * @return compiled function
+     */
+    public DoubleUnaryOperator getCompiledFunction() {
+        return tieredFunction.getCompiledFunction();
+    }
+
+    /**
+     * Returns the function defined in a script engine of its own, defining it the first time. The engine is not safe
+     * to use from several threads at once, so callers synchronize on the returned function.
+     *
+     * @return function defined in JS engine, or null if no JS engine is installed or it failed
+     */
+    public synchronized JavaScriptFunction getScriptFunction() {
+        if (scriptFunction == null && !scriptFailed) {
+            ScriptEngine engine = new ScriptEngineManager().getEngineByName("JavaScript"); // Engine for function
+
+            try {
+                if (engine != null) {
+                    scriptFunction = new JavaScriptFunction(engine, expression, parameters);
+                }
+            } catch (ScriptException e) {
+                scriptFunction = null;
+            }
+            scriptFailed = scriptFunction == null;
+        }
+        return scriptFunction;
+    }
+
+    /**
+     * Returns a derivative of the function. Derivatives are found symbolically the first time they are used, then
+     * compiled.
+     *
+     * @param order order of derivative, from 1 to MAX_DERIVATIVE
+     * @return derivative
+     */
+    public synchronized TieredFunction getDerivative(int order) {
+        if (derivativeFunctions[order] == null) {
+            synchronized (derivatives) {
+                for (int i = 1; i <= order; i++) {
+                    if (derivatives[i] == null) {
+                        derivatives[i] = ExpressionDifferentiator.differentiate(derivatives[i - 1]);
+                    }
+                }
+            }
+            derivativeFunctions[order] = new TieredFunction(derivatives[order]).bind(parameters);
+            derivativeFunctions[order].promote();
+        }
+        return derivativeFunctions[order];
+    }
+
+    /**
+     * Finds the parameters used by an expression.
+     *
+     * @param expression expression to search
+     * @return parameter names in alphabetical order
+     */
+    private static char[] findParameterNames(Expression expression) {
+        boolean[] used = new boolean[Expression.PARAMETER_COUNT]; // Whether each parameter is used
+        int count = markParameters(expression, used, Collections.newSetFromMap(
+                new IdentityHashMap<Expression, Boolean>())); // Number of parameters used
+        char[] names = new char[count]; // Parameter names
+
+        for (int i = 0, n = 0; i < used.length; i++) {
+            if (used[i]) {
+                names[n++] = Expression.PARAMETER_NAMES.charAt(i);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Marks the parameters used by an expression.
+     *
+     * @param expression expression to search
+     * @param used whether each parameter is used
+     * @param visited nodes already searched, so shared nodes are searched once
+     * @return number of parameters newly marked
+     */
+    private static int markParameters(Expression expression, boolean[] used, Set<Expression> visited) {
+        if (!visited.add(expression)) {
+            return 0;
+        } else if (expression.getType() == Expression.PARAMETER) {
+            int index = (int) expression.getValue(); // Index of parameter
+
+            if (used[index]) {
+                return 0;
+            }
+            used[index] = true;
+            return 1;
+        }
+
+        int count = 0; // Number of parameters newly marked
+
+        if (expression.getLeft() != null) {
+            count += markParameters(expression.getLeft(), used, visited);
+        }
+        if (expression.getRight() != null) {
+            count += markParameters(expression.getRight(), used, visited);
+        }
+        if (expression.getThird() != null) {
+            count += markParameters(expression.getThird(), used, visited);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,474 @@
+package expressionEvaluator;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * DoubleDouble class that holds a number as the unevaluated sum of two doubles, giving about 32 significant digits.
+ * The high part is the number rounded to a double and the low part is the rounding error, so x values that differ by
+ * far less than the spacing of doubles can still be told apart when the graph is zoomed in deeply. Arithmetic uses
+ * the error free transformations of Dekker and Knuth, and the elementary functions are found by series or by a
+ * Newton step from the double result.
+ */
+
+public final class DoubleDouble {
+
+    public static final DoubleDouble ZERO = new DoubleDouble(0, 0); // Zero
+    public static final DoubleDouble ONE = new DoubleDouble(1, 0); // One
+    public static final DoubleDouble NaN = new DoubleDouble(Double.NaN, 0); // Undefined value
+
+    static final DoubleDouble PI = new DoubleDouble(3.141592653589793116e+00, 1.224646799147353207e-16); // Pi
+    static final DoubleDouble HALF_PI = new DoubleDouble(1.570796326794896558e+00, 6.123233995736766036e-17); // Pi/2
+    static final DoubleDouble LN2 = new DoubleDouble(6.931471805599452862e-01, 2.319046813846299558e-17); // ln(2)
+    static final DoubleDouble LN10 = new DoubleDouble(2.302585092994045901e+00, -2.170756223382249351e-16); // ln(10)
+
+    private static final double EPSILON = 4.93038065763132e-32; // Relative precision, 2^-104
+    private static final double MAX_EXP = 709.78; // Largest argument of exp that does not overflow
+    private static final double MIN_EXP = -745.2; // Smallest argument of exp that does not underflow to zero
+    private static final double MAX_REDUCIBLE = 1e15; // Largest argument of sin and cos reduced accurately
+    private static final int EXP_HALVINGS = 10; // Number of times the argument of exp is halved before its series
+
+    private final double hi; // Number rounded to a double
+    private final double lo; // Rounding error of high part
+
+    /**
+     * Main constructor. The low part is dropped when the high part is infinite or NaN.
+     *
+     * @param hi high part, which must be the sum rounded to a double
+     * @param lo low part
+     */
+    private DoubleDouble(double hi, double lo) {
+        this.hi = hi;
+        this.lo = Double.isInfinite(hi) || Double.isNaN(hi) || Double.isNaN(lo) ? 0 : lo;
+    }
+
+    /**
+     * Creates a number equal to a double.
+     *
+     * @param value value
+     * @return number of value
+     */
+    public static DoubleDouble valueOf(double value) {
+        return new DoubleDouble(value, 0);
+    }
+
+    /**
+     * Creates the exact sum of two doubles.
+     *
+     * @param a first double
+     * @param b second double
+     * @return a + b without rounding
+     */
+    public static DoubleDouble sum(double a, double b) {
+        double s = a + b; // Rounded sum
+        double v = s - a; // Part of b in the sum
+
+        return new DoubleDouble(s, (a - (s - v)) + (b - v));
+    }
+
+    /**
+     * Creates the exact product of two doubles.
+     *
+     * @param a first double
+     * @param b second double
+     * @return a * b without rounding
+     */
+    public static DoubleDouble product(double a, double b) {
+        double p = a * b; // Rounded product
+
+        return new DoubleDouble(p, Math.fma(a, b, -p));
+    }
+
+    /**
+     * Creates a number from a high part and a low part no larger than half an ulp of the high part's sum.
+     *
+     * @param a high part
+     * @param b low part
+     * @return normalized sum
+     */
+    private static DoubleDouble fastSum(double a, double b) {
+        double s = a + b; // Rounded sum
+
+        return new DoubleDouble(s, b - (s - a));
+    }
+
+    /**
+     * Adds a number.
+     *
+     * @param b number to add
+     * @return sum
+     */
+    public DoubleDouble add(DoubleDouble b) {
+        DoubleDouble s = sum(hi, b.hi); // Sum of high parts
+        DoubleDouble t = sum(lo, b.lo); // Sum of low parts
+
+        if (!isFinite(s.hi)) {
+            return valueOf(s.hi);
+        }
+
+        DoubleDouble u = fastSum(s.hi, s.lo + t.hi); // Partly normalized sum
+        return fastSum(u.hi, u.lo + t.lo);
+    }
+
+    /**
+     * Subtracts a number.
+     *
+     * @param b number to subtract
+     * @return difference
+     */
+    public DoubleDouble subtract(DoubleDouble b) {
+        return add(b.negate());
+    }
+
+    /**
+     * Multiplies by a number.
+     *
+     * @param b number to multiply by
+     * @return product
+     */
+    public DoubleDouble multiply(DoubleDouble b) {
+        DoubleDouble p = product(hi, b.hi); // Product of high parts
+
+        if (!isFinite(p.hi)) {
+            return valueOf(p.hi);
+        }
+        return fastSum(p.hi, p.lo + (hi * b.lo + lo * b.hi));
+    }
+
+    /**
+     * Multiplies by a double.
+     *
+     * @param b double to multiply by
+     * @return product
+     */
+    public DoubleDouble multiply(double b) {
+        DoubleDouble p = product(hi, b); // Product of high part
+
+        if (!isFinite(p.hi)) {
+            return valueOf(p.hi);
+        }
+        return fastSum(p.hi, p.lo + lo * b);
+    }
+
+    /**
+     * Divides by a number, correcting the quotient of the high parts twice.
+     *
+     * @param b divisor
+     * @return quotient
+     */
+    public DoubleDouble divide(DoubleDouble b) {
+        double q1 = hi / b.hi; // First digits of quotient
+
+        if (!isFinite(q1) || q1 == 0) {
+            return valueOf(q1);
+        }
+
+        DoubleDouble r = subtract(b.multiply(q1)); // Remainder
+        double q2 = r.hi / b.hi; // Next digits of quotient
+        r = r.subtract(b.multiply(q2));
+        double q3 = r.hi / b.hi; // Last digits of quotient
+
+        DoubleDouble q = fastSum(q1, q2); // Quotient so far
+        return q.add(valueOf(q3));
+    }
+
+    /**
+     * Negates the number.
+     *
+     * @return negated number
+     */
+    public DoubleDouble negate() {
+        return new DoubleDouble(-hi, -lo);
+    }
+
+    /**
+     * Multiplies by a power of two, which is exact.
+     *
+     * @param exponent power of two
+     * @return scaled number
+     */
+    private DoubleDouble scalb(int exponent) {
+        return new DoubleDouble(Math.scalb(hi, exponent), Math.scalb(lo, exponent));
+    }
+
+    /**
+     * Finds the square root by a Newton step from the double square root.
+     *
+     * @return square root, or NaN if the number is negative
+     */
+    public DoubleDouble sqrt() {
+        double s = Math.sqrt(hi); // Double square root
+
+        if (!isFinite(s) || s == 0) {
+            return valueOf(s);
+        }
+        return fastSum(s, subtract(product(s, s)).hi / (2 * s));
+    }
+
+    /**
+     * Raises e to the number. The argument is reduced by multiples of ln(2) and halved, then the series of
+     * exp(r) - 1 is squared back up so the digits near 1 are not lost.
+     *
+     * @return e to the number
+     */
+    public DoubleDouble exp() {
+        if (Double.isNaN(hi) || hi > MAX_EXP) {
+            return valueOf(Math.exp(hi));
+        } else if (hi < MIN_EXP) {
+            return ZERO;
+        }
+
+        double k = Math.rint(hi / LN2.hi); // Power of two in result
+        DoubleDouble r = subtract(LN2.multiply(k)).scalb(-EXP_HALVINGS); // Reduced argument
+        DoubleDouble term = r; // Current term of series
+        DoubleDouble s = r; // exp(r) - 1
+
+        for (int i = 2; Math.abs(term.hi) > EPSILON * Math.abs(s.hi); i++) {
+            term = term.multiply(r).divide(valueOf(i));
+            s = s.add(term);
+        }
+        for (int i = 0; i < EXP_HALVINGS; i++) {
+            s = s.scalb(1).add(s.multiply(s)); // (1 + s)^2 - 1 = 2s + s^2
+        }
+        return s.add(ONE).scalb((int) k);
+    }
+
+    /**
+     * Finds the natural log by a Newton step from the double log.
+     *
+     * @return natural log, or NaN if the number is negative
+     */
+    public DoubleDouble log() {
+        double x = Math.log(hi); // Double log
+
+        if (!isFinite(x)) {
+            return valueOf(x);
+        }
+
+        DoubleDouble y = valueOf(x); // Log so far
+        return y.add(multiply(y.negate().exp())).subtract(ONE); // y + a*exp(-y) - 1
+    }
+
+    /**
+     * Finds the sine.
+     *
+     * @return sine
+     */
+    public DoubleDouble sin() {
+        return trigonometric(0);
+    }
+
+    /**
+     * Finds the cosine.
+     *
+     * @return cosine
+     */
+    public DoubleDouble cos() {
+        return trigonometric(1);
+    }
+
+    /**
+     * Finds the tangent.
+     *
+     * @return tangent
+     */
+    public DoubleDouble tan() {
+        return sin().divide(cos());
+    }
+
+    /**
+     * Finds the arc tangent by a Newton step from the double arc tangent.
+     *
+     * @return arc tangent
+     */
+    public DoubleDouble atan() {
+        double y = Math.atan(hi); // Double arc tangent
+
+        if (!isFinite(hi)) {
+            return valueOf(y);
+        }
+
+        DoubleDouble angle = valueOf(y); // Arc tangent so far
+        DoubleDouble sin = angle.sin(); // Sine of angle
+        DoubleDouble cos = angle.cos(); // Cosine of angle
+
+        // tan(y + d) = a gives d = (a cos(y) - sin(y)) / (cos(y) + a sin(y)) to first order
+        return angle.add(multiply(cos).subtract(sin).divide(cos.add(multiply(sin))));
+    }
+
+    /**
+     * Finds the sine or cosine. The argument is reduced by multiples of pi/2 to at most pi/4 either side of zero,
+     * where the series converge quickly.
+     *
+     * @param phase 0 for sine or 1 for cosine, the number of quarter turns the cosine is ahead
+     * @return sine or cosine
+     */
+    private DoubleDouble trigonometric(int phase) {
+        if (!isFinite(hi)) {
+            return NaN;
+        } else if (Math.abs(hi) > MAX_REDUCIBLE) {
+            return valueOf(phase == 0 ? Math.sin(hi) : Math.cos(hi)); // Too large to reduce more accurately
+        }
+
+        double k = Math.rint(hi / HALF_PI.hi); // Number of quarter turns
+        DoubleDouble r = subtract(HALF_PI.multiply(k)); // Reduced argument
+        int quadrant = (int) (((long) k + phase) & 3); // Quarter turn of result
+
+        switch (quadrant) {
+            case 0:
+                return r.sinSeries();
+            case 1:
+                return r.cosSeries();
+            case 2:
+                return r.sinSeries().negate();
+            default:
+                return r.cosSeries().negate();
+        }
+    }
+
+    /**
+     * Sums the series of sine for a reduced argument.
+     *
+     * @return sine
+     */
+    private DoubleDouble sinSeries() {
+        DoubleDouble square = multiply(this); // Square of argument
+        DoubleDouble term = this; // Current term of series
+        DoubleDouble s = this; // Sum so far
+
+        for (int i = 3; Math.abs(term.hi) > EPSILON * Math.abs(s.hi); i += 2) {
+            term = term.multiply(square).divide(valueOf(-(double) (i - 1) * i));
+            s = s.add(term);
+        }
+        return s;
+    }
+
+    /**
+     * Sums the series of cosine for a reduced argument.
+     *
+     * @return cosine
+     */
+    private DoubleDouble cosSeries() {
+        DoubleDouble square = multiply(this); // Square of argument
+        DoubleDouble term = ONE; // Current term of series
+        DoubleDouble s = ONE; // Sum so far
+
+        for (int i = 2; Math.abs(term.hi) > EPSILON; i += 2) {
+            term = term.multiply(square).divide(valueOf(-(double) (i - 1) * i));
+            s = s.add(term);
+        }
+        return s;
+    }
+
+    /**
+     * Raises the number to a power. Integer powers are found by repeated squaring, so negative bases work as they
+     * do for Math.pow.
+     *
+     * @param b exponent
+     * @return power
+     */
+    public DoubleDouble pow(DoubleDouble b) {
+        if (!isFinite(hi) || !isFinite(b.hi)) {
+            return valueOf(Math.pow(hi, b.hi));
+        } else if (b.lo == 0 && b.hi == Math.rint(b.hi) && Math.abs(b.hi) < 1L << 53) {
+            long n = (long) Math.abs(b.hi); // Magnitude of integer exponent
+            DoubleDouble result = ONE; // Power so far
+            DoubleDouble square = this; // This raised to the current bit of n
+
+            for (; n > 0; n >>= 1) {
+                if ((n & 1) == 1) {
+                    result = result.multiply(square);
+                }
+                if (n > 1) {
+                    square = square.multiply(square);
+                }
+            }
+            return b.hi < 0 ? ONE.divide(result) : result;
+        } else if (hi <= 0) {
+            return valueOf(Math.pow(hi, b.hi));
+        }
+        return b.multiply(log()).exp();
+    }
+
+    /**
+     * Rounds down to an integer.
+     *
+     * @return largest integer not greater than the number
+     */
+    public DoubleDouble floor() {
+        double f = Math.floor(hi); // Floor of high part
+
+        return f == hi ? fastSum(f, Math.floor(lo)) : valueOf(f);
+    }
+
+    /**
+     * Rounds up to an integer.
+     *
+     * @return smallest integer not less than the number
+     */
+    public DoubleDouble ceil() {
+        double c = Math.ceil(hi); // Ceiling of high part
+
+        return c == hi ? fastSum(c, Math.ceil(lo)) : valueOf(c);
+    }
+
+    /**
+     * Returns the absolute value.
+     *
+     * @return absolute value
+     */
+    public DoubleDouble abs() {
+        return hi < 0 ? negate() : this;
+    }
+
+    /**
+     * Compares with another number. NaN is neither less than, equal to nor greater than any number.
+     *
+     * @param b number to compare with
+     * @return negative if less, 0 if equal, positive if greater, or NaN if either is NaN
+     */
+    public double compare(DoubleDouble b) {
+        if (Double.isNaN(hi) || Double.isNaN(b.hi)) {
+            return Double.NaN;
+        } else if (hi != b.hi) {
+            return hi < b.hi ? -1 : 1;
+        }
+        return lo < b.lo ? -1 : lo > b.lo ? 1 : 0;
+    }
+
+    /**
+     * Returns the number rounded to a double.
+     *
+     * @return high part
+     */
+    public double doubleValue() {
+        return hi;
+    }
+
+    /**
+     * Returns the rounding error of the high part.
+     *
+     * @return low part
+     */
+    public double getLow() {
+        return lo;
+    }
+
+    /**
+     * Returns whether a double is neither infinite nor NaN.
+     *
+     * @param value value to check
+     * @return whether the value is finite
+     */
+    private static boolean isFinite(double value) {
+        return Math.abs(value) <= Double.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        if (!isFinite(hi)) {
+            return Double.toString(hi);
+        }
+        return new BigDecimal(hi).add(new BigDecimal(lo)).round(new MathContext(32)).toString();
+    }
+}
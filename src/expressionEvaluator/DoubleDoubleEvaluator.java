@@ -0,0 +1,177 @@
+package expressionEvaluator;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * DoubleDoubleEvaluator class that evaluates an expression in double-double precision, for x values that are closer
+ * together than doubles can tell apart. Every operator built into the parser is evaluated to about 32 digits, while
+ * registered functions without a double-double form are evaluated in double precision on the rounded arguments.
+ */
+
+public class DoubleDoubleEvaluator {
+
+    /**
+     * Evaluates an expression at a x value with values for its parameters.
+     *
+     * @param expression expression to evaluate
+     * @param x x value
+     * @param parameters parameter values, indexed as in Expression.PARAMETER_NAMES
+     * @return y value of the expression
+     */
+    public static DoubleDouble eval(Expression expression, DoubleDouble x, double[] parameters) {
+        return eval(expression, x, parameters, new DoubleDouble[expression.getIndexCount()],
+                new IdentityHashMap<Expression, DoubleDouble>());
+    }
+
+    /**
+     * Evaluates an expression at a x value, reusing the results of shared subexpressions.
+     *
+     * @param e expression to evaluate
+     * @param x x value
+     * @param parameters parameter values
+     * @param indices indices of enclosing loops, by level
+     * @param results results of subexpressions already evaluated
+     * @return y value of the expression
+     */
+    private static DoubleDouble eval(Expression e, DoubleDouble x, double[] parameters, DoubleDouble[] indices,
+                                     Map<Expression, DoubleDouble> results) {
+        if (e.getType() == Expression.CONSTANT) {
+            return DoubleDouble.valueOf(e.getValue());
+        } else if (e.getType() == Expression.VARIABLE) {
+            return x;
+        } else if (e.getType() == Expression.PARAMETER) {
+            return DoubleDouble.valueOf(parameters[(int) e.getValue()]);
+        } else if (e.getType() == Expression.INDEX) {
+            return indices[(int) e.getValue()];
+        }
+
+        DoubleDouble result = results.get(e); // Result of shared subexpression
+
+        if (result != null) {
+            return result;
+        }
+
+        DoubleDouble a = eval(e.getLeft(), x, parameters, indices, results); // Left operand
+
+        if (e.isConditional()) {
+            result = Expression.isTrue(a.doubleValue()) ? eval(e.getRight(), x, parameters, indices, results)
+                    : eval(e.getThird(), x, parameters, indices, results);
+            results.put(e, result);
+            return result;
+        } else if (e.isLoop()) {
+            result = loop(e, a, eval(e.getRight(), x, parameters, indices, results), x, parameters, indices);
+            results.put(e, result);
+            return result;
+        }
+
+        DoubleDouble b = e.isBinary() ? eval(e.getRight(), x, parameters, indices, results) : null; // Right operand
+
+        if (e.isComparison()) {
+            result = compare(e.getType(), a.compare(b)) ? DoubleDouble.ONE : DoubleDouble.ZERO;
+        } else {
+            switch (e.getType()) {
+                case Expression.ADD:
+                    result = a.add(b);
+                    break;
+                case Expression.SUBTRACT:
+                    result = a.subtract(b);
+                    break;
+                case Expression.MULTIPLY:
+                    result = a.multiply(b);
+                    break;
+                case Expression.DIVIDE:
+                    result = a.divide(b);
+                    break;
+                case Expression.POWER:
+                    result = a.pow(b);
+                    break;
+                case Expression.NEGATE:
+                    result = a.negate();
+                    break;
+                case Expression.SIN:
+                    result = a.sin();
+                    break;
+                case Expression.COS:
+                    result = a.cos();
+                    break;
+                case Expression.TAN:
+                    result = a.tan();
+                    break;
+                case Expression.SQRT:
+                    result = a.sqrt();
+                    break;
+                case Expression.LOG:
+                    result = a.log().divide(DoubleDouble.LN10);
+                    break;
+                case Expression.LN:
+                    result = a.log();
+                    break;
+                case Expression.FUNCTION:
+                    result = e.getFunction().apply(a, b);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown expression type " + e.getType());
+            }
+        }
+
+        results.put(e, result);
+        return result;
+    }
+
+    /**
+     * Evaluates a sum or product term by term, with the same bounds as Expression.
+     *
+     * @param e loop expression
+     * @param from lower bound
+     * @param to upper bound
+     * @param x x value
+     * @param parameters parameter values
+     * @param indices indices of enclosing loops
+     * @return sum or product, or NaN if the bounds are undefined, too far apart or too large
+     */
+    private static DoubleDouble loop(Expression e, DoubleDouble from, DoubleDouble to, DoubleDouble x,
+                                     double[] parameters, DoubleDouble[] indices) {
+        double first = from.ceil().doubleValue(); // First index, which is exact since indices are small
+        double last = to.floor().doubleValue(); // Last index
+
+        if (!Expression.isValidLoop(first, last)) {
+            return DoubleDouble.NaN;
+        }
+
+        DoubleDouble[] scope = indices.clone(); // Indices with this loop's index
+        DoubleDouble result = e.getType() == Expression.SUM ? DoubleDouble.ZERO : DoubleDouble.ONE; // So far
+
+        for (double k = first; k <= last; k++) {
+            scope[(int) e.getValue()] = DoubleDouble.valueOf(k);
+            DoubleDouble term = eval(e.getThird(), x, parameters, scope,
+                    new IdentityHashMap<Expression, DoubleDouble>()); // Term, which depends on the index
+            result = e.getType() == Expression.SUM ? result.add(term) : result.multiply(term);
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether a comparison holds. Comparisons with undefined values are false, as in Java.
+     *
+     * @param type type of comparison
+     * @param order order of left operand relative to right operand, or NaN if either is undefined
+     * @return whether the comparison holds
+     */
+    private static boolean compare(int type, double order) {
+        switch (type) {
+            case Expression.LESS:
+                return order < 0;
+            case Expression.LESS_EQUAL:
+                return order <= 0;
+            case Expression.GREATER:
+                return order > 0;
+            case Expression.GREATER_EQUAL:
+                return order >= 0;
+            case Expression.EQUAL:
+                return order == 0;
+            default:
+                return !(order == 0);
+        }
+    }
+}
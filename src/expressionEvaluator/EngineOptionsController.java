@@ -35,10 +35,14 @@ public class EngineOptionsController implements ActionListener {
     public void actionPerformed(ActionEvent e) {
         JRadioButton button = (JRadioButton) e.getSource(); // Radio button changed
 
-        if (button.getText().equals("RPN")) {
-            model.setUseJSEval(false);
+        if (button.getText().equals("Automatic")) {
+            model.setEngine(GraphModel.ENGINE_TIERED);
+        } else if (button.getText().equals("RPN")) {
+            model.setEngine(GraphModel.ENGINE_RPN);
         } else if (button.getText().equals("JavaScript")) {
-            model.setUseJSEval(true);
+            model.setEngine(GraphModel.ENGINE_JS);
+        } else if (button.getText().equals("Compiled")) {
+            model.setEngine(GraphModel.ENGINE_COMPILED);
         }
     }
 }
@@ -0,0 +1,288 @@
+package expressionEvaluator;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * EquationLexer class that splits an equation into tokens in a single pass. Scientific notation, hidden
+ * multiplication (e.g. 4x or 2sin(x)) and unary negatives are handled while scanning. Names of functions in the
+ * FunctionRegistry are read as functions, and commas separate their arguments.
+ */
+
+public class EquationLexer {
+
+    private final String input; // Equation being scanned
+    private final Collection<String> definitions; // Names of user defined functions
+    private final List<Token> tokens = new ArrayList<Token>(); // Tokens found so far
+    private int position; // Position of scanner in equation
+
+    /**
+     * Main constructor.
+     *
+     * @param input equation to scan
+     * @param definitions names of user defined functions
+     */
+    private EquationLexer(String input, Collection<String> definitions) {
+        this.input = input;
+        this.definitions = definitions;
+    }
+
+    /**
+     * Converts the equation into tokens.
+     *
+     * @param input equation to scan
+     * @return tokenized equation
+     * @throws ParseException if the equation contains an invalid character or name
+     */
+    static List<Token> tokenize(String input) throws ParseException {
+        return tokenize(input, Collections.<String>emptySet());
+    }
+
+    /**
+     * Converts the equation into tokens, reading the names of user defined functions as calls.
+     *
+     * @param input equation to scan
+     * @param definitions names of user defined functions
+     * @return tokenized equation
+     * @throws ParseException if the equation contains an invalid character or name
+     */
+    static List<Token> tokenize(String input, Collection<String> definitions) throws ParseException {
+        EquationLexer lexer = new EquationLexer(input, definitions);
+        lexer.scan();
+        return lexer.tokens;
+    }
+
+    /**
+     * Scans the whole equation.
+     *
+     * @throws ParseException if the equation contains an invalid character or name
+     */
+    private void scan() throws ParseException {
+        while (position < input.length()) {
+            char c = input.charAt(position);
+
+            if (Character.isWhitespace(c)) {
+                position++;
+            } else if (isDigit(c) || c == '.') {
+                addOperand(scanNumber());
+            } else if (Character.isLetter(c)) {
+                scanIdentifier();
+            } else if (c == '(') {
+                implicitMultiply();
+                tokens.add(new Token(Token.LEFT_PAREN, "(", 0, position++));
+            } else if (c == ')') {
+                tokens.add(new Token(Token.RIGHT_PAREN, ")", 0, position++));
+            } else if (c == ',') {
+                tokens.add(new Token(Token.SEPARATOR, ",", 0, position++));
+            } else if (c == '-' && expectsOperand()) {
+                tokens.add(new Token(Token.OPERATOR, String.valueOf(EquationParser.NEGATIVE), 0, position++));
+            } else if (c == '+' && expectsOperand()) {
+                position++; // Unary plus does nothing
+            } else if (c == '+' || c == '-' || c == '*' || c == '/' || c == '^') {
+                tokens.add(new Token(Token.OPERATOR, String.valueOf(c), 0, position++));
+            } else if (c == '<' || c == '>' || c == '=' || c == '!') {
+                scanComparison();
+            } else {
+                throw new ParseException("Unexpected character '" + c + "'", position);
+            }
+        }
+    }
+
+    /**
+     * Scans a comparison operator (<, <=, >, >=, == or !=).
+     *
+     * @throws ParseException if the characters are not a comparison
+     */
+    private void scanComparison() throws ParseException {
+        boolean equals = position + 1 < input.length() && input.charAt(position + 1) == '='; // Followed by =
+        char c = input.charAt(position);
+
+        if (!equals && (c == '=' || c == '!')) {
+            throw new ParseException(c == '=' ? "Use '==' to compare" : "Unexpected character '!'", position);
+        }
+
+        String text = equals ? input.substring(position, position + 2) : String.valueOf(c); // Operator
+        tokens.add(new Token(Token.OPERATOR, text, 0, position));
+        position += text.length();
+    }
+
+    /**
+     * Scans a number, including decimals and scientific notation (e.g. 1.5E-3).
+     *
+     * @return number token
+     * @throws ParseException if the number is malformed
+     */
+    private Token scanNumber() throws ParseException {
+        int start = position; // Start of number
+
+        while (position < input.length() && isDigit(input.charAt(position))) {
+            position++;
+        }
+        if (position < input.length() && input.charAt(position) == '.') {
+            position++;
+            while (position < input.length() && isDigit(input.charAt(position))) {
+                position++;
+            }
+        }
+
+        // Exponent, only if followed by digits so it is not read as a name
+        if (position < input.length() && (input.charAt(position) == 'E' || input.charAt(position) == 'e')) {
+            int exponent = position + 1; // Start of exponent digits
+
+            if (exponent < input.length() && (input.charAt(exponent) == '+' || input.charAt(exponent) == '-')) {
+                exponent++;
+            }
+            if (exponent < input.length() && isDigit(input.charAt(exponent))) {
+                position = exponent;
+                while (position < input.length() && isDigit(input.charAt(position))) {
+                    position++;
+                }
+            }
+        }
+
+        String text = input.substring(start, position); // Text of number
+
+        try {
+            return new Token(Token.NUMBER, text, Double.parseDouble(text), start);
+        } catch (NumberFormatException e) {
+            throw new ParseException("Invalid number '" + text + "'", start);
+        }
+    }
+
+    /**
+     * Scans a run of letters, splitting it into functions, constants and x (e.g. xsin -> x * sin). A letter that is
+     * not part of a name is a parameter only when it stands alone, so a misspelt or unsupported function such as cot
+     * is reported instead of being read as c * o * t.
+     *
+     * @throws ParseException if the letters are not a known name
+     */
+    private void scanIdentifier() throws ParseException {
+        int end = position; // End of run of letters
+
+        while (end < input.length() && Character.isLetter(input.charAt(end))) {
+            end++;
+        }
+        boolean alone = end - position == 1; // Whether the run is a single letter
+
+        while (position < end) {
+            String function = matchName(EquationParser.FUNCTIONS); // Function name at position
+
+            String registered = matchName(FunctionRegistry.getNames()); // Registered function name at position
+            if (registered != null && (function == null || registered.length() > function.length())) {
+                function = registered;
+            }
+
+            String constant = matchName(EquationParser.CONSTANTS.keySet()); // Constant name at position
+
+            String call = matchName(definitions); // User defined function name at position
+
+            if (call != null && (function == null || call.length() > function.length())) {
+                implicitMultiply();
+                tokens.add(new Token(Token.CALL, call, 0, position));
+                position += call.length();
+            } else if (function != null) {
+                implicitMultiply();
+                tokens.add(new Token(Token.IDENTIFIER, function, 0, position));
+                position += function.length();
+            } else if (constant != null) {
+                addOperand(new Token(Token.NUMBER, constant, EquationParser.CONSTANTS.get(constant), position));
+                position += constant.length();
+            } else if (input.charAt(position) == 'x') {
+                addOperand(new Token(Token.IDENTIFIER, "x", 0, position));
+                position++;
+            } else if (alone && Expression.PARAMETER_NAMES.indexOf(input.charAt(position)) >= 0) {
+                addOperand(new Token(Token.IDENTIFIER, String.valueOf(input.charAt(position)), 0, position));
+                position++;
+            } else {
+                throw new ParseException("Unknown name at '" + input.substring(position) + "'", position);
+            }
+        }
+    }
+
+    /**
+     * Finds the longest name starting at the scanner position.
+     *
+     * @param names names to look for
+     * @return name, or null if there is none
+     */
+    private String matchName(Collection<String> names) {
+        String match = null; // Longest matching name
+
+        for (String name : names) {
+            if (input.startsWith(name, position) && (match == null || name.length() > match.length())) {
+                match = name;
+            }
+        }
+        return match;
+    }
+
+    /**
+     * Adds an operand token, inserting a hidden multiplication if needed. A constant multiplies a number on either
+     * side of it (e.g. 2pi or pi2), as x does.
+     *
+     * @param token operand token
+     * @throws ParseException if the operand is a number directly after another number
+     */
+    private void addOperand(Token token) throws ParseException {
+        if (isLiteral(token) && !tokens.isEmpty() && isLiteral(tokens.get(tokens.size() - 1))) {
+            throw new ParseException("Unexpected number '" + token.text + "'", token.position);
+        }
+        implicitMultiply();
+        tokens.add(token);
+    }
+
+    /**
+     * Returns whether a token is a number written in digits, rather than a named constant.
+     *
+     * @param token token
+     * @return whether the token is a literal number
+     */
+    private static boolean isLiteral(Token token) {
+        return token.type == Token.NUMBER && !EquationParser.CONSTANTS.containsKey(token.text);
+    }
+
+    /**
+     * Inserts a multiplication if the previous token ends an operand (e.g. 4x -> 4*x or (x)(4) -> (x)*(4)).
+     */
+    private void implicitMultiply() {
+        if (tokens.isEmpty()) {
+            return;
+        }
+
+        Token previous = tokens.get(tokens.size() - 1); // Previous token
+
+        if (previous.type == Token.NUMBER || previous.type == Token.RIGHT_PAREN
+                || (previous.type == Token.IDENTIFIER && !EquationParser.isFunction(previous))) {
+            tokens.add(new Token(Token.OPERATOR, "*", 0, position));
+        }
+    }
+
+    /**
+     * Returns whether the next token should be an operand, so a minus sign is a negative.
+     *
+     * @return whether an operand is expected
+     */
+    private boolean expectsOperand() {
+        if (tokens.isEmpty()) {
+            return true;
+        }
+
+        Token previous = tokens.get(tokens.size() - 1); // Previous token
+
+        return previous.type == Token.OPERATOR || previous.type == Token.LEFT_PAREN
+                || previous.type == Token.SEPARATOR || EquationParser.isFunction(previous);
+    }
+
+    /**
+     * Returns whether a character is a decimal digit.
+     *
+     * @param c character
+     * @return whether the character is a digit
+     */
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
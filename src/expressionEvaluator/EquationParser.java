@@ -1,9 +1,10 @@
 package expressionEvaluator;
 
+import java.text.ParseException;
 import java.util.*;
 
 /**
- * EquationParser class that evaluates an equation using the PRN algorithm.
+ * EquationParser class that parses an equation using the PRN algorithm.
  *
  * @author Kevin Zhou
  * @since 12/11/13
@@ -19,6 +20,12 @@ public class EquationParser {
     protected static final Map<String, int[]> OPERATORS = new HashMap<String, int[]>(); // Operators and functions key
 
     static {
+        OPERATORS.put("<", new int[]{-5, LEFT_ASSOC});
+        OPERATORS.put("<=", new int[]{-5, LEFT_ASSOC});
+        OPERATORS.put(">", new int[]{-5, LEFT_ASSOC});
+        OPERATORS.put(">=", new int[]{-5, LEFT_ASSOC});
+        OPERATORS.put("==", new int[]{-5, LEFT_ASSOC});
+        OPERATORS.put("!=", new int[]{-5, LEFT_ASSOC});
         OPERATORS.put("+", new int[]{0, LEFT_ASSOC});
         OPERATORS.put("-", new int[]{0, LEFT_ASSOC});
         OPERATORS.put("*", new int[]{5, LEFT_ASSOC});
@@ -30,9 +37,16 @@ public class EquationParser {
         OPERATORS.put("sqrt", new int[]{5, RIGHT_ASSOC});
         OPERATORS.put("log", new int[]{5, RIGHT_ASSOC});
         OPERATORS.put("ln", new int[]{5, RIGHT_ASSOC});
+        OPERATORS.put("if", new int[]{5, RIGHT_ASSOC});
+        OPERATORS.put("piecewise", new int[]{5, RIGHT_ASSOC});
+        OPERATORS.put("sum", new int[]{5, RIGHT_ASSOC});
+        OPERATORS.put("prod", new int[]{5, RIGHT_ASSOC});
         OPERATORS.put("^", new int[]{10, RIGHT_ASSOC});
     }
 
+    private static final int[] CALL_OPERATOR =
+            new int[]{5, RIGHT_ASSOC}; // User defined and registered functions bind like sin
+
     protected static final List<String> FUNCTIONS = new ArrayList<String>(); // Functions key
 
     static {
@@ -42,161 +56,375 @@ public class EquationParser {
         FUNCTIONS.add("sqrt");
         FUNCTIONS.add("log");
         FUNCTIONS.add("ln");
+        FUNCTIONS.add("if");
+        FUNCTIONS.add("piecewise");
+        FUNCTIONS.add("sum");
+        FUNCTIONS.add("prod");
+    }
+
+    protected static final Map<String, Double> CONSTANTS = new HashMap<String, Double>(); // Named constants key
+
+    static {
+        CONSTANTS.put("pi", Math.PI);
+    }
+
+    /**
+     * Parses an equation into an expression tree that can be evaluated for any x value.
+     *
+     * @param expression function to parse
+     * @return parsed expression
+     * @throws ParseException if the function is invalid, with the position of the error
+     */
+    static Expression parse(String expression) throws ParseException {
+        return parse(expression, Collections.<String, Expression>emptyMap());
     }
 
     /**
-     * Evaluates an equation at a x value.
+     * Parses an equation that may call user defined functions. Each call is replaced by the body of the function
+     * with x replaced by the argument, so the result can be optimized and evaluated like any other expression.
      *
-     * @param expression function to solve
-     * @param x x value
-     * @return solution to evaluation
+     * @param expression function to parse
+     * @param definitions bodies of user defined functions by name
+     * @return parsed expression
+     * @throws ParseException if the function is invalid, with the position of the error
      */
-    static Double evalExpression(String expression, double x) {
-        String finalExpression = expression.replaceAll("x", "(" + String.valueOf(x) + ")"); // Equation after x has been substituted
-        Queue<String> postfix = infixToRPN(finalExpression); // Converted postfix notation
-
-        Stack<Double> eval = new Stack<Double>(); // Evaluation stack
-
-        for (String token : postfix) {
-            if (token.matches("((-|\\+)?[0-9]+(\\.[0-9]+)?)+") || token.equals("Infinity")) {
-                eval.push(Double.parseDouble(token));
-            } else if (token.equals(String.valueOf(NEGATIVE))) {
-                if (eval.size() > 0) {
-                    eval.push(eval.pop() * -1);
+    static Expression parse(String expression, Map<String, Expression> definitions) throws ParseException {
+        List<Token> tokens = EquationLexer.tokenize(expression, definitions.keySet()); // Tokenized equation
+        Queue<Token> postfix = infixToRPN(tokens); // Converted postfix notation
+
+        Stack<Expression> operands = new Stack<Expression>(); // Stack of parsed operands
+
+        for (Token token : postfix) {
+            if (token.type == Token.CALL) {
+                if (operands.size() < 1) {
+                    throw new ParseException("Missing argument for " + token.text, token.position);
                 }
-            } else if (FUNCTIONS.contains(token)) {
-                if (eval.size() > 0) {
-                    eval.push(evalFunction(eval.pop(), token));
+                Expression argument = operands.pop(); // Argument of call
+                operands.push(replace(definitions.get(token.text), Expression.VARIABLE, 0, argument,
+                        argument.getIndexCount(), new IdentityHashMap<Expression, Expression>()));
+            } else if (token.type == Token.NUMBER) {
+                operands.push(Expression.constant(token.value));
+            } else if (token.type == Token.IDENTIFIER && token.text.equals("x")) {
+                operands.push(Expression.variable());
+            } else if (token.text.equals("if") || token.text.equals("piecewise")) {
+                operands.push(parseConditional(token, operands));
+            } else if (token.text.equals("sum") || token.text.equals("prod")) {
+                operands.push(parseLoop(token, operands));
+            } else if (token.type == Token.IDENTIFIER && FunctionRegistry.get(token.text) != null) {
+                MathFunction function = FunctionRegistry.get(token.text); // Registered function
+                if (operands.size() < function.getArity()) {
+                    throw new ParseException("Missing argument for " + token.text, token.position);
+                } else if (token.value > function.getArity()) {
+                    throw new ParseException(token.text + " takes " + function.getArity() + " argument"
+                            + (function.getArity() == 1 ? "" : "s"), token.position);
                 }
+                Expression right = function.getArity() == 2 ? operands.pop() : null; // Second argument
+                operands.push(Expression.function(function, operands.pop(), right));
+            } else if (token.type == Token.IDENTIFIER && !FUNCTIONS.contains(token.text)) {
+                operands.push(Expression.parameter(Expression.PARAMETER_NAMES.indexOf(token.text)));
+            } else if (token.text.equals(String.valueOf(NEGATIVE))) {
+                if (operands.size() < 1) {
+                    throw new ParseException("Missing operand for '-'", token.position);
+                }
+                operands.push(Expression.unary(Expression.NEGATE, operands.pop()));
+            } else if (FUNCTIONS.contains(token.text)) {
+                if (operands.size() < 1) {
+                    throw new ParseException("Missing argument for " + token.text, token.position);
+                }
+                operands.push(Expression.unary(getFunctionType(token.text), operands.pop()));
             } else {
-                if (eval.size() >= 2) {
-                    double x1 = eval.pop();
-                    double x2 = eval.pop();
-                    eval.push(evalOperation(x1, x2, token.charAt(0)));
-                } else {
-                    return null; // Invalid function
+                if (operands.size() < 2) {
+                    throw new ParseException("Missing operand for '" + token.text + "'", token.position);
                 }
+                Expression right = operands.pop();
+                Expression left = operands.pop();
+                operands.push(Expression.binary(getOperationType(token.text), left, right));
             }
         }
 
-        if (eval.size() > 0) {
-            return eval.pop();
+        if (operands.size() == 1) {
+            return operands.pop();
+        } else if (operands.isEmpty()) {
+            throw new ParseException("Empty function", 0);
         } else {
-            return null; // Invalid function
+            throw new ParseException("Missing operator", expression.length());
         }
     }
 
     /**
-     * Solves one function in an equation.
+     * Parses if(condition, then, otherwise) or piecewise(condition, value, condition, value, ..., otherwise) from
+     * its arguments on the operand stack. Without the last argument the result is undefined where every condition
+     * is false, so the graph has a gap there.
      *
-     * @param x x value to solve for
-     * @param function function type
-     * @return solution
+     * @param token if or piecewise token, whose value is its number of arguments
+     * @param operands stack of parsed operands
+     * @return nested conditional expressions
+     * @throws ParseException if the number of arguments is wrong
      */
-    private static Double evalFunction(double x, String function) {
+    private static Expression parseConditional(Token token, Stack<Expression> operands) throws ParseException {
+        int count = (int) token.value; // Number of arguments
+
+        if (count < 2 || (token.text.equals("if") && count > 3) || operands.size() < count) {
+            throw new ParseException(token.text.equals("if") ? "Use if(condition, then, otherwise)"
+                    : "Use piecewise(condition, value, ..., otherwise)", token.position);
+        }
+
+        Expression[] arguments = new Expression[count]; // Arguments in order
+        for (int i = count - 1; i >= 0; i--) {
+            arguments[i] = operands.pop();
+        }
+
+        Expression result = count % 2 == 1 ? arguments[count - 1] : Expression.constant(Double.NaN); // Otherwise
+        for (int i = count / 2 - 1; i >= 0; i--) {
+            result = Expression.conditional(arguments[2 * i], arguments[2 * i + 1], result);
+        }
+        return result;
+    }
+
+    /**
+     * Parses sum(k, from, to, expression) or prod(k, from, to, expression) from its arguments on the operand stack.
+     * The parameter k in the expression becomes the index of the loop, so the loop is evaluated directly instead of
+     * being expanded into a term for each index.
+     *
+     * @param token sum or prod token, whose value is its number of arguments
+     * @param operands stack of parsed operands
+     * @return loop expression
+     * @throws ParseException if the arguments are wrong or the index is not a parameter letter
+     */
+    private static Expression parseLoop(Token token, Stack<Expression> operands) throws ParseException {
+        if (token.value != 4 || operands.size() < 4) {
+            throw new ParseException("Use " + token.text + "(k, from, to, expression)", token.position);
+        }
+
+        Expression body = operands.pop(); // Expression for each index
+        Expression to = operands.pop(); // Upper bound
+        Expression from = operands.pop(); // Lower bound
+        Expression index = operands.pop(); // Name of index
+
+        if (index.getType() != Expression.PARAMETER) {
+            throw new ParseException("The index of " + token.text + " must be a letter such as k", token.position);
+        }
+
+        int level = body.getIndexCount(); // Level above every loop in the body
+        return Expression.loop(token.text.equals("sum") ? Expression.SUM : Expression.PRODUCT, level, from, to,
+                replace(body, Expression.PARAMETER, (int) index.getValue(), Expression.index(level), 0,
+                        new IdentityHashMap<Expression, Expression>()));
+    }
+
+    /**
+     * Finds the user defined functions called by an equation.
+     *
+     * @param expression function to scan
+     * @param names names of user defined functions
+     * @return names of functions called
+     * @throws ParseException if the equation contains an invalid character or name
+     */
+    static Set<String> findCalls(String expression, Collection<String> names) throws ParseException {
+        Set<String> calls = new HashSet<String>(); // Functions called
+
+        for (Token token : EquationLexer.tokenize(expression, names)) {
+            if (token.type == Token.CALL) {
+                calls.add(token.text);
+            }
+        }
+        return calls;
+    }
+
+    /**
+     * Replaces x, a parameter or an index in an expression, such as x in the body of a user defined function with the
+     * argument of a call, or the index letter in the body of a loop with the index. The levels of loops in the
+     * expression are raised past the loops in the replacement so an index is never reused by a loop nested inside it.
+     *
+     * @param body expression to replace in
+     * @param type VARIABLE, PARAMETER or INDEX
+     * @param value index of parameter to replace
+     * @param replacement expression replacing each matching node
+     * @param shift amount to raise the level of each loop and index
+     * @param done copies of nodes already replaced, so shared nodes stay shared
+     * @return expression with the nodes replaced
+     */
+    static Expression replace(Expression body, int type, int value, Expression replacement, int shift,
+                              Map<Expression, Expression> done) {
+        Expression result = done.get(body); // Node already replaced
+
+        if (result != null) {
+            return result;
+        }
+
+        if (body.getType() == type && (int) body.getValue() == value) {
+            result = replacement;
+        } else if (body.getType() == Expression.INDEX) {
+            result = Expression.index((int) body.getValue() + shift);
+        } else if (body.isLoop()) {
+            result = Expression.loop(body.getType(), (int) body.getValue() + shift,
+                    replace(body.getLeft(), type, value, replacement, shift, done),
+                    replace(body.getRight(), type, value, replacement, shift, done),
+                    replace(body.getThird(), type, value, replacement, shift, done));
+        } else if (body.isConditional()) {
+            result = Expression.conditional(replace(body.getLeft(), type, value, replacement, shift, done),
+                    replace(body.getRight(), type, value, replacement, shift, done),
+                    replace(body.getThird(), type, value, replacement, shift, done));
+        } else if (body.isBinary()) {
+            result = body.withOperands(replace(body.getLeft(), type, value, replacement, shift, done),
+                    replace(body.getRight(), type, value, replacement, shift, done));
+        } else if (body.isUnary()) {
+            result = body.withOperands(replace(body.getLeft(), type, value, replacement, shift, done), null);
+        } else {
+            result = body;
+        }
+
+        done.put(body, result);
+        return result;
+    }
+
+    /**
+     * Returns whether a token is a function applied to the operand after it.
+     *
+     * @param token token to check
+     * @return whether the token is a built in, registered or user defined function
+     */
+    static boolean isFunction(Token token) {
+        return token.type == Token.CALL || (token.type == Token.IDENTIFIER
+                && (FUNCTIONS.contains(token.text) || FunctionRegistry.get(token.text) != null));
+    }
+
+    /**
+     * Returns the precedence and associativity of an operator or function.
+     *
+     * @param token operator or function token
+     * @return precedence and associativity
+     */
+    private static int[] getOperator(Token token) {
+        if (token.type == Token.CALL || FunctionRegistry.get(token.text) != null) {
+            return CALL_OPERATOR;
+        }
+        return OPERATORS.get(token.text);
+    }
+
+    /**
+     * Finds the expression type of a function.
+     *
+     * @param function function name
+     * @return expression type
+     */
+    private static int getFunctionType(String function) {
         if (function.equals("sin")) {
-            return Math.sin(x);
+            return Expression.SIN;
         } else if (function.equals("cos")) {
-            return Math.cos(x);
+            return Expression.COS;
         } else if (function.equals("tan")) {
-            return Math.tan(x);
+            return Expression.TAN;
         } else if (function.equals("log")) {
-            return Math.log10(x);
+            return Expression.LOG;
         } else if (function.equals("ln")) {
-            return Math.log(x);
-        } else if (function.equals("sqrt")) {
-            return Math.sqrt(x);
+            return Expression.LN;
         } else {
-            return null; // Invalid function
+            return Expression.SQRT;
         }
     }
 
     /**
-     * Evaluates an operation between two numbers.
-     * @param x1 first number
-     * @param x2 second number
+     * Finds the expression type of an operation.
+     *
      * @param operator operation
-     * @return solution
+     * @return expression type
      */
-    private static Double evalOperation(double x1, double x2, char operator) {
+    private static int getOperationType(String operator) {
         switch (operator) {
-            case '+':
-                return x2 + x1;
-            case '-':
-                return x2 - x1;
-            case '*':
-                return x2 * x1;
-            case '/':
-                return x2 / x1;
-            case '^':
-                return Math.pow(x2, x1);
+            case "+":
+                return Expression.ADD;
+            case "-":
+                return Expression.SUBTRACT;
+            case "*":
+                return Expression.MULTIPLY;
+            case "/":
+                return Expression.DIVIDE;
+            case "<":
+                return Expression.LESS;
+            case "<=":
+                return Expression.LESS_EQUAL;
+            case ">":
+                return Expression.GREATER;
+            case ">=":
+                return Expression.GREATER_EQUAL;
+            case "==":
+                return Expression.EQUAL;
+            case "!=":
+                return Expression.NOT_EQUAL;
             default:
-                return null; // Invalid function
+                return Expression.POWER;
         }
     }
 
     /**
-     * Converts equation from infix notation to reverse polish notation (postfix)
+     * Converts equation from infix notation to reverse polish notation (postfix). A function followed by
+     * parentheses applies to the whole parenthesized argument, so sin(x)^2 is (sin(x))^2. Commas separate the
+     * arguments of a function, so max(x, 2) becomes x 2 max, and the token of a function called with parentheses
+     * carries its number of arguments as its value.
      *
-     * @param infix equation in infix notation
+     * @param tokens equation in infix notation
      * @return equation in postfix notation
+     * @throws ParseException if the parentheses are unbalanced
      */
-    static Queue<String> infixToRPN(String infix) {
-        Stack<String> stack = new Stack<String>(); // Stack used to convert to reverse polish notation
-        Queue<String> postfix = new LinkedList<String>(); // Queue used to store converted equation
-
-        boolean isPrevOperator = true; // If the previous token was an operator
+    static Queue<Token> infixToRPN(List<Token> tokens) throws ParseException {
+        Stack<Token> stack = new Stack<Token>(); // Stack used to convert to reverse polish notation
+        Queue<Token> postfix = new ArrayDeque<Token>(); // Queue used to store converted equation
+        Stack<Boolean> calls = new Stack<Boolean>(); // Whether each open parenthesis holds a function argument
+        Stack<Integer> counts = new Stack<Integer>(); // Number of arguments in each open parenthesis
 
-        String[] tokens = tokenize(infix); // Tokenized equation
+        Token previous = null; // Previous token
 
-        for (String token : tokens) {
-
-            if (token.matches("((-|\\+)?[0-9]+(\\.[0-9]+)?)+")) {
+        for (Token token : tokens) {
+            if (token.type == Token.NUMBER || (token.type == Token.IDENTIFIER && !isFunction(token))) {
                 postfix.add(token);
-                isPrevOperator = false;
-            } else if (OPERATORS.containsKey(token)) {
-                if (token.equals("-") && isPrevOperator) {
-                    token = String.valueOf(NEGATIVE);
-                }
-                isPrevOperator = true;
-                while (
-                        (!stack.isEmpty() && OPERATORS.containsKey(stack.peek()))
-                                && (
-                                (OPERATORS.get(token)[1] == LEFT_ASSOC
-                                        && OPERATORS.get(token)[0] <= OPERATORS.get(stack.peek())[0])
-                        )
-                        ) {
+            } else if (token.type == Token.LEFT_PAREN) {
+                stack.push(token);
+                calls.push(previous != null && isFunction(previous));
+                counts.push(1);
+            } else if (token.type == Token.SEPARATOR) {
+                while (!stack.isEmpty() && stack.peek().type != Token.LEFT_PAREN) {
                     postfix.add(stack.pop());
                 }
-                stack.push(token);
-            } else if (token.equals("(")) {
-                stack.push(token);
-            } else if (token.equals(")")) {
-                while (!stack.isEmpty() && !stack.peek().equals("(")) {
+                if (stack.isEmpty() || !calls.peek()) {
+                    throw new ParseException("Unexpected ','", token.position);
+                }
+                counts.push(counts.pop() + 1);
+            } else if (token.type == Token.RIGHT_PAREN) {
+                while (!stack.isEmpty() && stack.peek().type != Token.LEFT_PAREN) {
                     postfix.add(stack.pop());
                 }
+                if (stack.isEmpty()) {
+                    throw new ParseException("Unmatched ')'", token.position);
+                }
                 stack.pop();
-            } else if (token.length() > 0) {
-                return null; // Invalid function
-            }
 
+                // Function call directly before the parentheses
+                int count = counts.pop(); // Number of arguments
+                if (calls.pop()) {
+                    Token function = stack.pop(); // Function token
+                    postfix.add(new Token(function.type, function.text, count, function.position));
+                }
+            } else {
+                int[] operator = getOperator(token); // Precedence and associativity of operator
+
+                while (!stack.isEmpty() && stack.peek().type != Token.LEFT_PAREN
+                        && operator[1] == LEFT_ASSOC && operator[0] <= getOperator(stack.peek())[0]) {
+                    postfix.add(stack.pop());
+                }
+                stack.push(token);
+            }
+            previous = token;
         }
 
         while (!stack.isEmpty()) {
-            postfix.add(stack.pop());
+            Token token = stack.pop();
+
+            if (token.type == Token.LEFT_PAREN) {
+                throw new ParseException("Unmatched '('", token.position);
+            }
+            postfix.add(token);
         }
 
         return postfix;
     }
-
-    /**
-     * Converts the equation into tokens.
-     *
-     * @param infix equation in String format
-     * @return tokenized equation
-     */
-    static private String[] tokenize(String infix) {
-        infix = infix.replaceAll("E", "*10^"); // Converts scientific notation form
-        return infix.replaceAll("\\s+\\d\\d(?=\\s+)", "").split("(?<=[-+*/()^])|(?=[-+*/()^])"); // Remove whitespace and tokenize
-    }
-}
\ No newline at end of file
+}
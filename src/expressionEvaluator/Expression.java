@@ -0,0 +1,897 @@
+package expressionEvaluator;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Expression class that holds a parsed function as an immutable expression tree. The tree is built once when the
+ * function is set and is then evaluated directly for every x value.
+ */
+
+public final class Expression {
+
+    public static final int CONSTANT = 0; // Constant number
+    public static final int VARIABLE = 1; // Variable x
+
+    public static final int ADD = 2; // Addition
+    public static final int SUBTRACT = 3; // Subtraction
+    public static final int MULTIPLY = 4; // Multiplication
+    public static final int DIVIDE = 5; // Division
+    public static final int POWER = 6; // Exponent
+
+    public static final int NEGATE = 7; // Unary negative
+    public static final int SIN = 8; // Sine function
+    public static final int COS = 9; // Cosine function
+    public static final int TAN = 10; // Tangent function
+    public static final int SQRT = 11; // Square root function
+    public static final int LOG = 12; // Base 10 logarithm function
+    public static final int LN = 13; // Natural logarithm function
+
+    public static final int PARAMETER = 14; // Free parameter, whose value is bound when evaluated
+    public static final int FUNCTION = 15; // Function from the FunctionRegistry, with one or two operands
+
+    public static final int LESS = 16; // Less than comparison, 1 if true and 0 if false
+    public static final int LESS_EQUAL = 17; // Less than or equal comparison
+    public static final int GREATER = 18; // Greater than comparison
+    public static final int GREATER_EQUAL = 19; // Greater than or equal comparison
+    public static final int EQUAL = 20; // Equality comparison
+    public static final int NOT_EQUAL = 21; // Inequality comparison
+
+    public static final int IF = 22; // Conditional, which evaluates only the chosen branch unless both are leaves
+
+    public static final int SUM = 23; // Sum of body over an index running between two bounds
+    public static final int PRODUCT = 24; // Product of body over an index running between two bounds
+    public static final int INDEX = 25; // Index of enclosing sum or product with the same level
+
+    public static final String PARAMETER_NAMES = "abcdefghijklmnopqrstuvwyz"; // Letters that name parameters
+    public static final int PARAMETER_COUNT = PARAMETER_NAMES.length(); // Number of parameter values
+
+    public static final int MAX_TERMS = 1000000; // Most terms in a sum or product, so a typo cannot hang the graph
+    public static final double MAX_INDEX = 9007199254740991.0; // Largest index whose successor is exact, 2^53 - 1
+
+    public static final int BLOCK_SIZE = 256; // Number of x values evaluated together in batch evaluation
+
+    private static final double[] NO_PARAMETERS = new double[PARAMETER_COUNT]; // Parameters all 0, never written to
+
+    private final int type; // Type of node
+    private final double value; // Value of constant node, index of parameter node, or level of index or loop
+    private final Expression left; // Left operand, or only operand of unary node
+    private final Expression right; // Right operand of binary node
+    private final MathFunction function; // Function of function node
+    private final Expression third; // False branch of conditional node, or body of sum or product node
+
+    /**
+     * Main constructor.
+     *
+     * @param type type of node
+     * @param value value of constant node
+     * @param left left operand, condition of conditional node, or lower bound of loop
+     * @param right right operand, branch of conditional node used when the condition is true, or upper bound of loop
+     * @param function function of function node
+     * @param third branch of conditional node used when the condition is false, or body of loop
+     */
+    private Expression(int type, double value, Expression left, Expression right, MathFunction function,
+                       Expression third) {
+        this.type = type;
+        this.value = value;
+        this.left = left;
+        this.right = right;
+        this.function = function;
+        this.third = third;
+    }
+
+    /**
+     * Creates a constant node.
+     *
+     * @param value value of constant
+     * @return constant node
+     */
+    public static Expression constant(double value) {
+        return new Expression(CONSTANT, value, null, null, null, null);
+    }
+
+    /**
+     * Creates a variable node.
+     *
+     * @return variable node
+     */
+    public static Expression variable() {
+        return new Expression(VARIABLE, 0, null, null, null, null);
+    }
+
+    /**
+     * Creates a parameter node.
+     *
+     * @param index index of parameter in PARAMETER_NAMES
+     * @return parameter node
+     */
+    public static Expression parameter(int index) {
+        return new Expression(PARAMETER, index, null, null, null, null);
+    }
+
+    /**
+     * Creates a unary node such as a function or negative.
+     *
+     * @param type type of node
+     * @param operand operand of node
+     * @return unary node
+     */
+    public static Expression unary(int type, Expression operand) {
+        return new Expression(type, 0, operand, null, null, null);
+    }
+
+    /**
+     * Creates a binary operation node.
+     *
+     * @param type type of node
+     * @param left left operand
+     * @param right right operand
+     * @return binary node
+     */
+    public static Expression binary(int type, Expression left, Expression right) {
+        return new Expression(type, 0, left, right, null, null);
+    }
+
+    /**
+     * Creates a node that applies a registered function.
+     *
+     * @param function function to apply
+     * @param left first argument
+     * @param right second argument, or null for a function of one argument
+     * @return function node
+     */
+    public static Expression function(MathFunction function, Expression left, Expression right) {
+        if ((right != null) != (function.getArity() == 2)) {
+            throw new IllegalArgumentException(function.getName() + " takes " + function.getArity() + " arguments");
+        }
+        return new Expression(FUNCTION, 0, left, right, function, null);
+    }
+
+    /**
+     * Creates a conditional node. The condition is true when it is neither 0 nor NaN.
+     *
+     * @param condition condition
+     * @param then value when the condition is true
+     * @param otherwise value when the condition is false
+     * @return conditional node
+     */
+    public static Expression conditional(Expression condition, Expression then, Expression otherwise) {
+        return new Expression(IF, 0, condition, then, null, otherwise);
+    }
+
+    /**
+     * Creates a sum or product node. The index runs over the integers from the lower bound rounded up to the upper
+     * bound rounded down; an empty range gives 0 for a sum and 1 for a product.
+     *
+     * @param type SUM or PRODUCT
+     * @param level level of the loop, which is higher than the level of every loop in its body
+     * @param from lower bound
+     * @param to upper bound
+     * @param body expression added or multiplied for each index, whose index nodes have the same level
+     * @return loop node
+     */
+    public static Expression loop(int type, int level, Expression from, Expression to, Expression body) {
+        return new Expression(type, level, from, to, null, body);
+    }
+
+    /**
+     * Creates the index node of the enclosing sum or product with a level.
+     *
+     * @param level level of loop
+     * @return index node
+     */
+    public static Expression index(int level) {
+        return new Expression(INDEX, level, null, null, null, null);
+    }
+
+    /**
+     * Returns whether a value is true as a condition, which it is unless it is 0 or NaN.
+     *
+     * @param condition value of condition
+     * @return whether the condition is true
+     */
+    public static boolean isTrue(double condition) {
+        return condition > 0 || condition < 0;
+    }
+
+    /**
+     * Returns whether a sum or product can be evaluated between two rounded bounds. The bounds must be defined, at
+     * most MAX_TERMS apart and no larger than MAX_INDEX, since past 2^53 adding 1 no longer changes the index and the
+     * loop would never end.
+     *
+     * @param first first index
+     * @param last last index
+     * @return whether the loop can be evaluated
+     */
+    public static boolean isValidLoop(double first, double last) {
+        return last - first < MAX_TERMS && Math.abs(first) <= MAX_INDEX && Math.abs(last) <= MAX_INDEX;
+    }
+
+    /**
+     * Creates a copy of this unary or binary operation node with different operands.
+     *
+     * @param left new left operand
+     * @param right new right operand, or null for a unary node
+     * @return node of the same type applied to the new operands
+     */
+    public Expression withOperands(Expression left, Expression right) {
+        return new Expression(type, value, left, right, function, null);
+    }
+
+    /**
+     * Creates a copy of this node with different operands.
+     *
+     * @param left new left operand
+     * @param right new right operand
+     * @param third new third operand
+     * @return node of the same type and level applied to the new operands
+     */
+    public Expression withOperands(Expression left, Expression right, Expression third) {
+        return new Expression(type, value, left, right, function, third);
+    }
+
+    /**
+     * Evaluates the expression at a x value, with every parameter 0.
+     *
+     * @param x x value
+     * @return solution to evaluation
+     */
+    public double eval(double x) {
+        return eval(x, NO_PARAMETERS);
+    }
+
+    /**
+     * Evaluates the expression at a x value with values for its parameters.
+     *
+     * @param x x value
+     * @param parameters parameter values, indexed as in PARAMETER_NAMES
+     * @return solution to evaluation
+     */
+    public double eval(double x, double[] parameters) {
+        switch (type) {
+            case CONSTANT:
+                return value;
+            case VARIABLE:
+                return x;
+            case PARAMETER:
+                return parameters[(int) value];
+            case ADD:
+                return left.eval(x, parameters) + right.eval(x, parameters);
+            case SUBTRACT:
+                return left.eval(x, parameters) - right.eval(x, parameters);
+            case MULTIPLY:
+                return left.eval(x, parameters) * right.eval(x, parameters);
+            case DIVIDE:
+                return left.eval(x, parameters) / right.eval(x, parameters);
+            case POWER:
+                return Math.pow(left.eval(x, parameters), right.eval(x, parameters));
+            case NEGATE:
+                return -left.eval(x, parameters);
+            case SIN:
+                return Math.sin(left.eval(x, parameters));
+            case COS:
+                return Math.cos(left.eval(x, parameters));
+            case TAN:
+                return Math.tan(left.eval(x, parameters));
+            case SQRT:
+                return Math.sqrt(left.eval(x, parameters));
+            case LOG:
+                return Math.log10(left.eval(x, parameters));
+            case LN:
+                return Math.log(left.eval(x, parameters));
+            case FUNCTION:
+                return function.apply(left.eval(x, parameters), right != null ? right.eval(x, parameters) : 0);
+            case LESS:
+                return left.eval(x, parameters) < right.eval(x, parameters) ? 1 : 0;
+            case LESS_EQUAL:
+                return left.eval(x, parameters) <= right.eval(x, parameters) ? 1 : 0;
+            case GREATER:
+                return left.eval(x, parameters) > right.eval(x, parameters) ? 1 : 0;
+            case GREATER_EQUAL:
+                return left.eval(x, parameters) >= right.eval(x, parameters) ? 1 : 0;
+            case EQUAL:
+                return left.eval(x, parameters) == right.eval(x, parameters) ? 1 : 0;
+            case NOT_EQUAL:
+                return left.eval(x, parameters) != right.eval(x, parameters) ? 1 : 0;
+            case IF:
+                return isTrue(left.eval(x, parameters)) ? right.eval(x, parameters) : third.eval(x, parameters);
+            case SUM:
+            case PRODUCT:
+                return evalLoop(x, parameters);
+            case INDEX:
+                return parameters[PARAMETER_COUNT + (int) value];
+            default:
+                throw new IllegalStateException("Unknown expression type " + type);
+        }
+    }
+
+    /**
+     * Evaluates a sum or product at a x value. The index is stored after the parameters, in a copy of the parameter
+     * array unless an enclosing loop has already made room for it.
+     *
+     * @param x x value
+     * @param parameters parameter values, followed by the indices of enclosing loops
+     * @return sum or product, or NaN if the bounds are undefined, too far apart or too large
+     */
+    private double evalLoop(double x, double[] parameters) {
+        double from = Math.ceil(left.eval(x, parameters)); // First index
+        double to = Math.floor(right.eval(x, parameters)); // Last index
+
+        if (!isValidLoop(from, to)) {
+            return Double.NaN;
+        }
+
+        int index = PARAMETER_COUNT + (int) value; // Position of index after parameters
+        double[] scope = parameters.length > index ? parameters : Arrays.copyOf(parameters, index + 1);
+        double result = type == SUM ? 0 : 1; // Sum or product so far
+
+        for (double k = from; k <= to; k++) {
+            scope[index] = k;
+            result = type == SUM ? result + third.eval(x, scope) : result * third.eval(x, scope);
+        }
+        return result;
+    }
+
+    /**
+     * Evaluates the expression for an array of x values. Each node is applied to a block of values at a time, so
+     * the interpreter overhead is paid once per block instead of once per value. Shared subexpressions are evaluated
+     * once per block.
+     *
+     * @param xs x values
+     * @param ys array to store y values in
+     * @param from index of first value to evaluate
+     * @param to index after last value to evaluate
+     */
+    public void eval(double[] xs, double[] ys, int from, int to) {
+        eval(xs, ys, from, to, NO_PARAMETERS);
+    }
+
+    /**
+     * Evaluates the expression for an array of x values with values for its parameters.
+     *
+     * @param xs x values
+     * @param ys array to store y values in
+     * @param from index of first value to evaluate
+     * @param to index after last value to evaluate
+     * @param parameters parameter values, indexed as in PARAMETER_NAMES
+     */
+    public void eval(double[] xs, double[] ys, int from, int to, double[] parameters) {
+        BlockState state = new BlockState(this, parameters); // Buffers for intermediate results
+
+        if (xs == ys) {
+            xs = Arrays.copyOfRange(xs, 0, to); // Results would overwrite x values still to be read
+        }
+
+        for (int start = from; start < to; start += BLOCK_SIZE) {
+            Arrays.fill(state.computed, false);
+            evalBlock(xs, start, Math.min(BLOCK_SIZE, to - start), ys, start, state, 0);
+        }
+    }
+
+    /**
+     * Evaluates the expression for a block of x values.
+     *
+     * @param xs x values
+     * @param xOffset index of first x value
+     * @param length number of values to evaluate
+     * @param out array to store results in
+     * @param outOffset index of first result
+     * @param state buffers for intermediate results
+     * @param depth first scratch buffer free to use
+     */
+    private void evalBlock(double[] xs, int xOffset, int length, double[] out, int outOffset, BlockState state,
+                           int depth) {
+        Integer slot = state.slots.get(this); // Slot of shared subexpression
+
+        if (slot != null && state.computed[slot]) {
+            System.arraycopy(state.slotValues[slot], 0, out, outOffset, length);
+            return;
+        }
+
+        if (type == CONSTANT) {
+            Arrays.fill(out, outOffset, outOffset + length, value);
+            return;
+        } else if (type == VARIABLE) {
+            System.arraycopy(xs, xOffset, out, outOffset, length);
+            return;
+        } else if (type == PARAMETER) {
+            Arrays.fill(out, outOffset, outOffset + length, state.parameters[(int) value]);
+            return;
+        } else if (type == INDEX) {
+            Arrays.fill(out, outOffset, outOffset + length, state.parameters[PARAMETER_COUNT + (int) value]);
+            return;
+        }
+
+        left.evalBlock(xs, xOffset, length, out, outOffset, state, depth);
+
+        if (type == IF) {
+            evalIfBlock(xs, xOffset, length, out, outOffset, state, depth);
+        } else if (isLoop()) {
+            evalLoopBlock(xs, xOffset, length, out, outOffset, state, depth);
+        } else if (isBinary()) {
+            double[] r = state.scratch[depth]; // Values of right operand
+            right.evalBlock(xs, xOffset, length, r, 0, state, depth + 1);
+
+            switch (type) {
+                case ADD:
+                    for (int i = 0; i < length; i++) {
+                        out[outOffset + i] += r[i];
+                    }
+                    break;
+                case SUBTRACT:
+                    for (int i = 0; i < length; i++) {
+                        out[outOffset + i] -= r[i];
+                    }
+                    break;
+                case MULTIPLY:
+                    for (int i = 0; i < length; i++) {
+                        out[outOffset + i] *= r[i];
+                    }
+                    break;
+                case DIVIDE:
+                    for (int i = 0; i < length; i++) {
+                        out[outOffset + i] /= r[i];
+                    }
+                    break;
+                case POWER:
+                    for (int i = 0; i < length; i++) {
+                        out[outOffset + i] = Math.pow(out[outOffset + i], r[i]);
+                    }
+                    break;
+                case LESS:
+                    for (int i = 0; i < length; i++) {
+                        out[outOffset + i] = out[outOffset + i] < r[i] ? 1 : 0;
+                    }
+                    break;
+                case LESS_EQUAL:
+                    for (int i = 0; i < length; i++) {
+                        out[outOffset + i] = out[outOffset + i] <= r[i] ? 1 : 0;
+                    }
+                    break;
+                case GREATER:
+                    for (int i = 0; i < length; i++) {
+                        out[outOffset + i] = out[outOffset + i] > r[i] ? 1 : 0;
+                    }
+                    break;
+                case GREATER_EQUAL:
+                    for (int i = 0; i < length; i++) {
+                        out[outOffset + i] = out[outOffset + i] >= r[i] ? 1 : 0;
+                    }
+                    break;
+                case EQUAL:
+                    for (int i = 0; i < length; i++) {
+                        out[outOffset + i] = out[outOffset + i] == r[i] ? 1 : 0;
+                    }
+                    break;
+                case NOT_EQUAL:
+                    for (int i = 0; i < length; i++) {
+                        out[outOffset + i] = out[outOffset + i] != r[i] ? 1 : 0;
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < length; i++) {
+                        out[outOffset + i] = function.apply(out[outOffset + i], r[i]);
+                    }
+                    break;
+            }
+        } else {
+            switch (type) {
+                case NEGATE:
+                    for (int i = outOffset; i < outOffset + length; i++) {
+                        out[i] = -out[i];
+                    }
+                    break;
+                case SIN:
+                    for (int i = outOffset; i < outOffset + length; i++) {
+                        out[i] = Math.sin(out[i]);
+                    }
+                    break;
+                case COS:
+                    for (int i = outOffset; i < outOffset + length; i++) {
+                        out[i] = Math.cos(out[i]);
+                    }
+                    break;
+                case TAN:
+                    for (int i = outOffset; i < outOffset + length; i++) {
+                        out[i] = Math.tan(out[i]);
+                    }
+                    break;
+                case SQRT:
+                    for (int i = outOffset; i < outOffset + length; i++) {
+                        out[i] = Math.sqrt(out[i]);
+                    }
+                    break;
+                case LOG:
+                    for (int i = outOffset; i < outOffset + length; i++) {
+                        out[i] = Math.log10(out[i]);
+                    }
+                    break;
+                case LN:
+                    for (int i = outOffset; i < outOffset + length; i++) {
+                        out[i] = Math.log(out[i]);
+                    }
+                    break;
+                case FUNCTION:
+                    for (int i = outOffset; i < outOffset + length; i++) {
+                        out[i] = function.apply(out[i], 0);
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown expression type " + type);
+            }
+        }
+
+        if (slot != null) {
+            System.arraycopy(out, outOffset, state.slotValues[slot], 0, length);
+            state.computed[slot] = true;
+        }
+    }
+
+    /**
+     * Evaluates a conditional for a block of x values whose conditions are already in the output. A block whose
+     * values all take the same branch evaluates only that branch. In a block split by its condition, values are
+     * picked from both branches when they are leaves, and otherwise each value evaluates only its own branch, so a
+     * costly branch is never evaluated where it is not taken.
+     *
+     * @param xs x values
+     * @param xOffset index of first x value
+     * @param length number of values to evaluate
+     * @param out array holding conditions, to store results in
+     * @param outOffset index of first result
+     * @param state buffers for intermediate results
+     * @param depth first scratch buffer free to use
+     */
+    private void evalIfBlock(double[] xs, int xOffset, int length, double[] out, int outOffset, BlockState state,
+                             int depth) {
+        int taken = 0; // Number of values whose condition is true
+
+        for (int i = outOffset; i < outOffset + length; i++) {
+            if (isTrue(out[i])) {
+                taken++;
+            }
+        }
+
+        if (taken == length) {
+            right.evalBlock(xs, xOffset, length, out, outOffset, state, depth);
+        } else if (taken == 0) {
+            third.evalBlock(xs, xOffset, length, out, outOffset, state, depth);
+        } else if (right.isLeaf() && third.isLeaf()) {
+            double[] t = state.scratch[depth]; // Values when true
+            double[] f = state.scratch[depth + 1]; // Values when false
+            right.evalBlock(xs, xOffset, length, t, 0, state, depth + 1);
+            third.evalBlock(xs, xOffset, length, f, 0, state, depth + 2);
+
+            for (int i = 0; i < length; i++) {
+                out[outOffset + i] = isTrue(out[outOffset + i]) ? t[i] : f[i];
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                double x = xs[xOffset + i]; // X value
+
+                out[outOffset + i] = isTrue(out[outOffset + i]) ? right.eval(x, state.parameters)
+                        : third.eval(x, state.parameters);
+            }
+        }
+    }
+
+    /**
+     * Evaluates a sum or product for a block of x values whose lower bounds are already in the output. The index runs
+     * over the bounds of the whole block, and each value only takes the terms within its own bounds. Values whose
+     * bounds are far apart, so most of the shared loop would be wasted, are evaluated one at a time instead. The
+     * results are NaN if the thread is interrupted before the loop finishes.
+     *
+     * @param xs x values
+     * @param xOffset index of first x value
+     * @param length number of values to evaluate
+     * @param out array holding lower bounds, to store results in
+     * @param outOffset index of first result
+     * @param state buffers for intermediate results
+     * @param depth first scratch buffer free to use
+     */
+    private void evalLoopBlock(double[] xs, int xOffset, int length, double[] out, int outOffset, BlockState state,
+                               int depth) {
+        double[] from = state.scratch[depth]; // First index of each value
+        double[] to = state.scratch[depth + 1]; // Last index of each value
+        double[] terms = state.scratch[depth + 2]; // Terms for current index
+        double first = Double.POSITIVE_INFINITY; // First index of block
+        double last = Double.NEGATIVE_INFINITY; // Last index of block
+        double count = 0; // Number of terms of every value together
+
+        right.evalBlock(xs, xOffset, length, to, 0, state, depth + 2);
+
+        for (int i = 0; i < length; i++) {
+            from[i] = Math.ceil(out[outOffset + i]);
+            to[i] = Math.floor(to[i]);
+
+            if (isValidLoop(from[i], to[i])) {
+                out[outOffset + i] = type == SUM ? 0 : 1;
+                first = Math.min(first, from[i]);
+                last = Math.max(last, to[i]);
+                count += Math.max(to[i] - from[i] + 1, 0);
+            } else {
+                out[outOffset + i] = Double.NaN;
+                from[i] = Double.POSITIVE_INFINITY; // Never takes a term
+            }
+        }
+
+        if (first <= last && (!isValidLoop(first, last) || (last - first + 1) * length > 2 * count)) {
+            evalLoopEach(xs, xOffset, length, out, outOffset, from, to, state);
+            return;
+        }
+
+        int index = PARAMETER_COUNT + (int) value; // Position of index after parameters
+        boolean[] computed = state.computed.clone(); // Shared values that do not depend on the index
+
+        for (double k = first; k <= last; k++) {
+            if (Thread.currentThread().isInterrupted()) {
+                Arrays.fill(out, outOffset, outOffset + length, Double.NaN);
+                break;
+            }
+            state.parameters[index] = k;
+            System.arraycopy(computed, 0, state.computed, 0, computed.length);
+            third.evalBlock(xs, xOffset, length, terms, 0, state, depth + 3);
+
+            for (int i = 0; i < length; i++) {
+                if (k >= from[i] && k <= to[i]) {
+                    out[outOffset + i] = type == SUM ? out[outOffset + i] + terms[i] : out[outOffset + i] * terms[i];
+                }
+            }
+        }
+        System.arraycopy(computed, 0, state.computed, 0, computed.length);
+    }
+
+    /**
+     * Evaluates a sum or product for each x value of a block on its own, over only that value's indices. The body is
+     * evaluated with separate buffers, since the shared values in the block's buffers are laid out for the whole
+     * block. The results are NaN if the thread is interrupted before the loop finishes.
+     *
+     * @param xs x values
+     * @param xOffset index of first x value
+     * @param length number of values to evaluate
+     * @param out array holding the starting result of each value, to store results in
+     * @param outOffset index of first result
+     * @param from first index of each value
+     * @param to last index of each value
+     * @param state buffers for intermediate results, holding the indices of enclosing loops
+     */
+    private void evalLoopEach(double[] xs, int xOffset, int length, double[] out, int outOffset, double[] from,
+                              double[] to, BlockState state) {
+        BlockState single = new BlockState(this, state.parameters); // Buffers for one value at a time
+        double[] term = single.scratch[0]; // Term for current index
+        int index = PARAMETER_COUNT + (int) value; // Position of index after parameters
+
+        for (int i = 0; i < length; i++) {
+            if (Thread.currentThread().isInterrupted()) {
+                Arrays.fill(out, outOffset, outOffset + length, Double.NaN);
+                return;
+            }
+            for (double k = from[i]; k <= to[i]; k++) {
+                single.parameters[index] = k;
+                Arrays.fill(single.computed, false);
+                third.evalBlock(xs, xOffset + i, 1, term, 0, single, 1);
+                out[outOffset + i] = type == SUM ? out[outOffset + i] + term[0] : out[outOffset + i] * term[0];
+            }
+        }
+    }
+
+    /**
+     * Returns the height of the expression tree.
+     *
+     * @return height of tree
+     */
+    public int getHeight() {
+        return getHeight(new IdentityHashMap<Expression, Integer>());
+    }
+
+    /**
+     * Returns the height of the expression tree, finding the height of each shared node once.
+     *
+     * @param heights heights of nodes already found
+     * @return height of tree
+     */
+    private int getHeight(Map<Expression, Integer> heights) {
+        Integer known = heights.get(this); // Height already found
+        int height; // Height of tree
+
+        if (known != null) {
+            return known;
+        }
+
+        if (type == IF) {
+            // Both branches are kept in scratch buffers while the false branch is evaluated
+            height = 2 + Math.max(left.getHeight(heights), Math.max(right.getHeight(heights),
+                    third.getHeight(heights)));
+        } else if (isLoop()) {
+            // Both bounds and the terms are kept in scratch buffers while the body is evaluated
+            height = 3 + Math.max(left.getHeight(heights), Math.max(right.getHeight(heights),
+                    third.getHeight(heights)));
+        } else if (isBinary()) {
+            height = 1 + Math.max(left.getHeight(heights), right.getHeight(heights));
+        } else if (isUnary()) {
+            height = 1 + left.getHeight(heights);
+        } else {
+            height = 1;
+        }
+
+        heights.put(this, height);
+        return height;
+    }
+
+    /**
+     * Returns whether the node has no operands: a constant, x, a parameter or an index.
+     *
+     * @return whether the node is a leaf
+     */
+    public boolean isLeaf() {
+        return left == null;
+    }
+
+    /**
+     * Returns whether the node takes one operand.
+     *
+     * @return whether the node is unary
+     */
+    public boolean isUnary() {
+        return (type >= NEGATE && type <= LN) || (type == FUNCTION && right == null);
+    }
+
+    /**
+     * Returns whether the node takes two operands.
+     *
+     * @return whether the node is binary
+     */
+    public boolean isBinary() {
+        return (type >= ADD && type <= POWER) || (type >= LESS && type <= NOT_EQUAL)
+                || (type == FUNCTION && right != null);
+    }
+
+    /**
+     * Returns type of node.
+     *
+     * @return type of node
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Returns value of constant node, index of parameter node, or level of index or loop node.
+     *
+     * @return value of constant node
+     */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * Returns function of function node.
+     *
+     * @return function, or null if the node is not a function node
+     */
+    public MathFunction getFunction() {
+        return function;
+    }
+
+    /**
+     * Returns whether the node is a conditional with three operands.
+     *
+     * @return whether the node is conditional
+     */
+    public boolean isConditional() {
+        return type == IF;
+    }
+
+    /**
+     * Returns whether the node is a sum or product, whose body is evaluated for each index between its bounds.
+     *
+     * @return whether the node is a loop
+     */
+    public boolean isLoop() {
+        return type == SUM || type == PRODUCT;
+    }
+
+    /**
+     * Returns the number of loop levels in the expression, which is the number of indices stored while it is
+     * evaluated.
+     *
+     * @return one more than the highest level of an index or loop, or 0 if there are none
+     */
+    public int getIndexCount() {
+        return getIndexCount(new IdentityHashMap<Expression, Integer>());
+    }
+
+    /**
+     * Returns the number of loop levels in the expression, finding the count of each shared node once.
+     *
+     * @param counts counts of nodes already found
+     * @return one more than the highest level of an index or loop, or 0 if there are none
+     */
+    private int getIndexCount(Map<Expression, Integer> counts) {
+        if (type == INDEX) {
+            return (int) value + 1;
+        }
+
+        Integer known = counts.get(this); // Count already found
+        if (known != null) {
+            return known;
+        }
+
+        int count = isLoop() ? (int) value + 1 : 0; // Indices used by this node
+        if (left != null) {
+            count = Math.max(count, left.getIndexCount(counts));
+        }
+        if (right != null) {
+            count = Math.max(count, right.getIndexCount(counts));
+        }
+        if (third != null) {
+            count = Math.max(count, third.getIndexCount(counts));
+        }
+
+        counts.put(this, count);
+        return count;
+    }
+
+    /**
+     * Returns whether the node is a comparison, whose value is 1 if true and 0 if false.
+     *
+     * @return whether the node is a comparison
+     */
+    public boolean isComparison() {
+        return type >= LESS && type <= NOT_EQUAL;
+    }
+
+    /**
+     * Returns left operand, or only operand of unary node.
+     *
+     * @return left operand
+     */
+    public Expression getLeft() {
+        return left;
+    }
+
+    /**
+     * Returns right operand of binary node, the branch of conditional node used when the condition is true, or upper
+     * bound of loop node.
+     *
+     * @return right operand
+     */
+    public Expression getRight() {
+        return right;
+    }
+
+    /**
+     * Returns the branch of conditional node used when the condition is false, or the body of loop node.
+     *
+     * @return third operand, or null if the node is not conditional or a loop
+     */
+    public Expression getThird() {
+        return third;
+    }
+
+    /**
+     * BlockState class that holds the buffers used while evaluating blocks of x values.
+     */
+    private static final class BlockState {
+
+        private final double[][] scratch; // Buffers for right operands
+        private final Map<Expression, Integer> slots; // Slots of shared subexpressions
+        private final double[][] slotValues; // Values of shared subexpressions for current block
+        private final boolean[] computed; // Whether each shared subexpression is computed for current block
+        private final double[] parameters; // Parameter values, followed by the indices of loops
+
+        /**
+         * Main constructor.
+         *
+         * @param expression expression being evaluated
+         * @param parameters parameter values
+         */
+        private BlockState(Expression expression, double[] parameters) {
+            this.parameters = Arrays.copyOf(parameters, PARAMETER_COUNT + expression.getIndexCount());
+            scratch = new double[expression.getHeight()][BLOCK_SIZE];
+            slots = ExpressionDag.findSlots(expression);
+            slotValues = new double[slots.size()][BLOCK_SIZE];
+            computed = new boolean[slots.size()];
+        }
+    }
+}
@@ -0,0 +1,853 @@
+package expressionEvaluator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Function;
+
+/**
+ * ExpressionCompiler class that compiles an expression tree into a hidden class implementing DoubleUnaryOperator,
+ * so the function can be inlined by the JIT like regular Java code. Shared subexpressions are computed once and kept
+ * in local variables. Registered functions are called through an array of MathFunction objects passed to the
+ * constructor along with the parameter values. Conditionals jump over the branch not taken, and a comparison used
+ * as a condition becomes a single compare and branch. Sums and products become loops whose index, last index and
+ * result are kept in local variables after the shared subexpressions.
+ */
+
+public class ExpressionCompiler {
+
+    private static final int CLASS_VERSION = 49; // Class file version, old enough not to need stack map frames
+    private static final String CLASS_NAME = "expressionEvaluator/CompiledExpression"; // Name of generated class
+    private static final int MAX_CODE_LENGTH = 65535; // Maximum length of method bytecode
+    private static final String FUNCTIONS_TYPE = "[LexpressionEvaluator/MathFunction;"; // Type of function array
+
+    // Opcodes used by the compiler
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ALOAD_2 = 0x2c;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int DALOAD = 0x31;
+    private static final int AALOAD = 0x32;
+    private static final int GETFIELD = 0xb4;
+    private static final int PUTFIELD = 0xb5;
+    private static final int DLOAD = 0x18;
+    private static final int DLOAD_1 = 0x27;
+    private static final int DSTORE = 0x39;
+    private static final int DUP2 = 0x5c;
+    private static final int WIDE = 0xc4;
+    private static final int DCONST_0 = 0x0e;
+    private static final int DCONST_1 = 0x0f;
+    private static final int LDC2_W = 0x14;
+    private static final int DADD = 0x63;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6b;
+    private static final int DDIV = 0x6f;
+    private static final int DNEG = 0x77;
+    private static final int DCMPL = 0x97;
+    private static final int DCMPG = 0x98;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9a;
+    private static final int IFLT = 0x9b;
+    private static final int IFGE = 0x9c;
+    private static final int IFGT = 0x9d;
+    private static final int IFLE = 0x9e;
+    private static final int GOTO = 0xa7;
+    private static final int DRETURN = 0xaf;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+
+    // Constant pool tags
+    private static final int TAG_UTF8 = 1;
+    private static final int TAG_DOUBLE = 6;
+    private static final int TAG_CLASS = 7;
+    private static final int TAG_FIELDREF = 9;
+    private static final int TAG_METHODREF = 10;
+    private static final int TAG_NAME_AND_TYPE = 12;
+
+    private ByteArrayOutputStream pool = new ByteArrayOutputStream(); // Constant pool entries
+    private DataOutputStream poolOut = new DataOutputStream(pool); // Writer for constant pool
+    private Map<String, Integer> poolIndex = new HashMap<String, Integer>(); // Index of constant pool entries
+    private int poolSize = 1; // Next constant pool index
+
+    private Map<Expression, Integer> slots; // Slots of shared subexpressions
+    private Set<Expression> stored = Collections.newSetFromMap(
+            new IdentityHashMap<Expression, Boolean>()); // Shared subexpressions already in a local variable
+    private List<MathFunction> functions = new ArrayList<MathFunction>(); // Registered functions called
+
+    private ByteArrayOutputStream code = new ByteArrayOutputStream(); // Method bytecode
+    private int stackDepth; // Current operand stack depth
+    private int maxStackDepth; // Maximum operand stack depth
+
+    /**
+     * Private constructor; use compile.
+     */
+    private ExpressionCompiler() {
+    }
+
+    /**
+     * Compiles an expression into a function object. Falls back to interpreting the expression tree if the
+     * expression is too large to compile.
+     *
+     * @param expression expression to compile
+     * @return compiled function
+     */
+    public static DoubleUnaryOperator compile(Expression expression) {
+        return compileFactory(expression).apply(new double[Expression.PARAMETER_COUNT]);
+    }
+
+    /**
+     * Compiles an expression into a class once, returning a factory that creates function objects bound to
+     * parameter values. The function objects read the array they are bound to, so binding new values does not
+     * compile the expression again. Falls back to interpreting the expression tree if the expression is too large to
+     * compile or the class cannot be looked up. Errors such as a VerifyError are thrown, so a fault in the generated
+     * class is not hidden by the fallback.
+     *
+     * @param expression expression to compile
+     * @return factory that binds parameter values to the compiled function
+     */
+    public static Function<double[], DoubleUnaryOperator> compileFactory(final Expression expression) {
+        if (expression == null) {
+            throw new NullPointerException("Invalid function");
+        }
+
+        try {
+            ExpressionCompiler compiler = new ExpressionCompiler();
+            byte[] bytes = compiler.createClass(expression); // Generated class file
+            final MathFunction[] functions =
+                    compiler.functions.toArray(new MathFunction[0]); // Registered functions called by the class
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            final MethodHandle constructor = lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(
+                    void.class, double[].class, MathFunction[].class)); // Constructor taking parameters and functions
+
+            return new Function<double[], DoubleUnaryOperator>() {
+                @Override
+                public DoubleUnaryOperator apply(double[] parameters) {
+                    try {
+                        return (DoubleUnaryOperator) constructor.invoke(parameters, functions);
+                    } catch (Error e) {
+                        throw e;
+                    } catch (Throwable e) {
+                        throw new IllegalStateException("Compiled function could not be created", e);
+                    }
+                }
+            };
+        } catch (IOException | ReflectiveOperationException e) {
+            // Too large to compile or the class could not be looked up, so interpret the expression instead
+            return new Function<double[], DoubleUnaryOperator>() {
+                @Override
+                public DoubleUnaryOperator apply(final double[] parameters) {
+                    return new DoubleUnaryOperator() {
+                        @Override
+                        public double applyAsDouble(double x) {
+                            return expression.eval(x, parameters);
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    /**
+     * Creates the class file for an expression.
+     *
+     * @param expression expression to compile
+     * @return class file bytes
+     * @throws IOException if the class could not be written
+     */
+    private byte[] createClass(Expression expression) throws IOException {
+        int thisClass = classEntry(CLASS_NAME);
+        int superClass = classEntry("java/lang/Object");
+        int interfaceClass = classEntry("java/util/function/DoubleUnaryOperator");
+        int objectInit = methodEntry("java/lang/Object", "<init>", "()V");
+        int parametersField = fieldEntry(CLASS_NAME, "p", "[D");
+        int functionsField = fieldEntry(CLASS_NAME, "f", FUNCTIONS_TYPE);
+        int codeName = utf8Entry("Code");
+
+        // Method body
+        slots = ExpressionDag.findSlots(expression);
+        emitExpression(expression);
+        code.write(DRETURN);
+
+        if (code.size() > MAX_CODE_LENGTH) {
+            throw new IOException("Function too large to compile");
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(); // Class file
+        DataOutputStream out = new DataOutputStream(bytes); // Writer for class file
+
+        int initName = utf8Entry("<init>");
+        int initType = utf8Entry("([D" + FUNCTIONS_TYPE + ")V");
+        int fieldName = utf8Entry("p");
+        int fieldType = utf8Entry("[D");
+        int functionsName = utf8Entry("f");
+        int functionsType = utf8Entry(FUNCTIONS_TYPE);
+        int applyName = utf8Entry("applyAsDouble");
+        int applyType = utf8Entry("(D)D");
+
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(CLASS_VERSION);
+        out.writeShort(poolSize);
+        out.write(pool.toByteArray());
+
+        out.writeShort(0x0031); // Public, final, super
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(interfaceClass);
+        out.writeShort(2); // Parameter values and functions
+        out.writeShort(0x0012); // Private, final
+        out.writeShort(fieldName);
+        out.writeShort(fieldType);
+        out.writeShort(0);
+        out.writeShort(0x0012);
+        out.writeShort(functionsName);
+        out.writeShort(functionsType);
+        out.writeShort(0);
+
+        out.writeShort(2); // Methods
+
+        // Constructor
+        out.writeShort(0x0001);
+        out.writeShort(initName);
+        out.writeShort(initType);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + 15);
+        out.writeShort(2);
+        out.writeShort(3);
+        out.writeInt(15);
+        out.writeByte(ALOAD_0);
+        out.writeByte(INVOKESPECIAL);
+        out.writeShort(objectInit);
+        out.writeByte(ALOAD_0);
+        out.writeByte(ALOAD_1);
+        out.writeByte(PUTFIELD);
+        out.writeShort(parametersField);
+        out.writeByte(ALOAD_0);
+        out.writeByte(ALOAD_2);
+        out.writeByte(PUTFIELD);
+        out.writeShort(functionsField);
+        out.writeByte(RETURN);
+        out.writeShort(0);
+        out.writeShort(0);
+
+        // Function
+        out.writeShort(0x0011); // Public, final
+        out.writeShort(applyName);
+        out.writeShort(applyType);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + code.size());
+        out.writeShort(maxStackDepth);
+        out.writeShort(3 + 2 * slots.size() + 6 * expression.getIndexCount()); // this, x, shared values and loops
+        out.writeInt(code.size());
+        out.write(code.toByteArray());
+        out.writeShort(0);
+        out.writeShort(0);
+
+        out.writeShort(0); // No class attributes
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Emits bytecode that leaves the value of an expression on the operand stack.
+     *
+     * @param expression expression to emit
+     * @throws IOException if the bytecode could not be written
+     */
+    private void emitExpression(Expression expression) throws IOException {
+        Integer slot = slots.get(expression); // Slot of shared subexpression
+
+        if (slot != null && stored.contains(expression)) {
+            emitLocal(DLOAD, slot);
+            push();
+            return;
+        }
+
+        switch (expression.getType()) {
+            case Expression.CONSTANT:
+                emitConstant(expression.getValue());
+                break;
+            case Expression.VARIABLE:
+                code.write(DLOAD_1);
+                push();
+                break;
+            case Expression.PARAMETER:
+                code.write(ALOAD_0);
+                code.write(GETFIELD);
+                writeShort(code, fieldEntry(CLASS_NAME, "p", "[D"));
+                emitIndex((int) expression.getValue());
+                code.write(DALOAD);
+                push(); // Array and index take the same stack space as the double loaded from them
+                break;
+            case Expression.ADD:
+                emitBinary(expression, DADD);
+                break;
+            case Expression.SUBTRACT:
+                emitBinary(expression, DSUB);
+                break;
+            case Expression.MULTIPLY:
+                emitBinary(expression, DMUL);
+                break;
+            case Expression.DIVIDE:
+                emitBinary(expression, DDIV);
+                break;
+            case Expression.POWER:
+                emitExpression(expression.getLeft());
+                emitExpression(expression.getRight());
+                emitMathCall("pow", "(DD)D");
+                pop();
+                break;
+            case Expression.NEGATE:
+                emitExpression(expression.getLeft());
+                code.write(DNEG);
+                break;
+            case Expression.SIN:
+                emitUnaryCall(expression, "sin");
+                break;
+            case Expression.COS:
+                emitUnaryCall(expression, "cos");
+                break;
+            case Expression.TAN:
+                emitUnaryCall(expression, "tan");
+                break;
+            case Expression.SQRT:
+                emitUnaryCall(expression, "sqrt");
+                break;
+            case Expression.LOG:
+                emitUnaryCall(expression, "log10");
+                break;
+            case Expression.LN:
+                emitUnaryCall(expression, "log");
+                break;
+            case Expression.FUNCTION:
+                emitFunctionCall(expression);
+                break;
+            case Expression.LESS:
+            case Expression.LESS_EQUAL:
+            case Expression.GREATER:
+            case Expression.GREATER_EQUAL:
+            case Expression.EQUAL:
+            case Expression.NOT_EQUAL:
+                code.write(emitCondition(expression));
+                writeShort(code, 7); // To DCONST_0
+                code.write(DCONST_1);
+                code.write(GOTO);
+                writeShort(code, 4); // Past DCONST_0
+                code.write(DCONST_0);
+                push();
+                break;
+            case Expression.IF:
+                emitConditional(expression);
+                break;
+            case Expression.SUM:
+            case Expression.PRODUCT:
+                emitLoop(expression);
+                break;
+            case Expression.INDEX:
+                emitVariable(DLOAD, loopLocal((int) expression.getValue()));
+                push();
+                break;
+            default:
+                throw new IOException("Unknown expression type " + expression.getType());
+        }
+
+        if (slot != null) {
+            code.write(DUP2);
+            push();
+            emitLocal(DSTORE, slot);
+            pop();
+            stored.add(expression);
+        }
+    }
+
+    /**
+     * Emits a load or store of the local variable holding a shared subexpression.
+     *
+     * @param opcode DLOAD or DSTORE
+     * @param slot slot of shared subexpression
+     */
+    private void emitLocal(int opcode, int slot) {
+        emitVariable(opcode, 3 + 2 * slot); // After this and x
+    }
+
+    /**
+     * Emits a load or store of a double local variable.
+     *
+     * @param opcode DLOAD or DSTORE
+     * @param local local variable index
+     */
+    private void emitVariable(int opcode, int local) {
+        if (local <= 255) {
+            code.write(opcode);
+            code.write(local);
+        } else {
+            code.write(WIDE);
+            code.write(opcode);
+            writeShort(code, local);
+        }
+    }
+
+    /**
+     * Emits an int index.
+     *
+     * @param index index to push
+     */
+    private void emitIndex(int index) {
+        if (index <= Byte.MAX_VALUE) {
+            code.write(BIPUSH);
+            code.write(index);
+        } else {
+            code.write(SIPUSH);
+            writeShort(code, index);
+        }
+    }
+
+    /**
+     * Emits a constant value.
+     *
+     * @param value constant value
+     * @throws IOException if the bytecode could not be written
+     */
+    private void emitConstant(double value) throws IOException {
+        if (Double.doubleToRawLongBits(value) == 0L) {
+            code.write(DCONST_0);
+        } else if (value == 1.0) {
+            code.write(DCONST_1);
+        } else {
+            code.write(LDC2_W);
+            writeShort(code, doubleEntry(value));
+        }
+        push();
+    }
+
+    /**
+     * Emits a binary arithmetic operation.
+     *
+     * @param expression binary expression
+     * @param opcode opcode of operation
+     * @throws IOException if the bytecode could not be written
+     */
+    private void emitBinary(Expression expression, int opcode) throws IOException {
+        emitExpression(expression.getLeft());
+        emitExpression(expression.getRight());
+        code.write(opcode);
+        pop();
+    }
+
+    /**
+     * Emits a call to a one argument function of java.lang.Math.
+     *
+     * @param expression unary expression
+     * @param name name of method in java.lang.Math
+     * @throws IOException if the bytecode could not be written
+     */
+    private void emitUnaryCall(Expression expression, String name) throws IOException {
+        emitExpression(expression.getLeft());
+        emitMathCall(name, "(D)D");
+    }
+
+    /**
+     * Emits a conditional that evaluates only the branch chosen by its condition.
+     *
+     * @param expression conditional expression
+     * @throws IOException if the bytecode could not be written or a branch is too long to jump over
+     */
+    private void emitConditional(Expression expression) throws IOException {
+        int ifFalse = emitCondition(expression.getLeft()); // Branch taken when the condition is false
+        ByteArrayOutputStream then = emitBranch(expression.getRight()); // Code when true
+        pop();
+        ByteArrayOutputStream otherwise = emitBranch(expression.getThird()); // Code when false
+
+        emitJump(ifFalse, 3 + then.size() + 3);
+        then.writeTo(code);
+        emitJump(GOTO, 3 + otherwise.size());
+        otherwise.writeTo(code);
+    }
+
+    /**
+     * Emits the comparison of a condition, leaving an int for a branch instruction on the operand stack. A
+     * comparison is compared directly instead of being turned into 1 or 0 first.
+     *
+     * @param condition condition expression
+     * @return branch opcode that jumps when the condition is false
+     * @throws IOException if the bytecode could not be written
+     */
+    private int emitCondition(Expression condition) throws IOException {
+        if (!condition.isComparison()) {
+            // True unless 0 or NaN, where abs(c) is not greater than 0
+            emitExpression(condition);
+            emitMathCall("abs", "(D)D");
+            emitConstant(0);
+            code.write(DCMPL);
+            pop();
+            pop();
+            return IFLE;
+        }
+
+        emitExpression(condition.getLeft());
+        emitExpression(condition.getRight());
+        pop();
+        pop();
+
+        // NaN makes DCMPG give 1 and DCMPL give -1, chosen so that comparisons with NaN are false
+        switch (condition.getType()) {
+            case Expression.LESS:
+                code.write(DCMPG);
+                return IFGE;
+            case Expression.LESS_EQUAL:
+                code.write(DCMPG);
+                return IFGT;
+            case Expression.GREATER:
+                code.write(DCMPL);
+                return IFLE;
+            case Expression.GREATER_EQUAL:
+                code.write(DCMPL);
+                return IFLT;
+            case Expression.EQUAL:
+                code.write(DCMPL);
+                return IFNE;
+            default:
+                code.write(DCMPL);
+                return IFEQ;
+        }
+    }
+
+    /**
+     * Emits a branch of a conditional into its own buffer, so its length is known before the jump over it is
+     * written. Shared subexpressions first stored in the branch are stored again where they are next used, since
+     * the other branch may have been taken.
+     *
+     * @param branch branch expression
+     * @return bytecode of branch
+     * @throws IOException if the bytecode could not be written
+     */
+    private ByteArrayOutputStream emitBranch(Expression branch) throws IOException {
+        ByteArrayOutputStream main = code; // Bytecode before the branch
+        Set<Expression> before = Collections.newSetFromMap(
+                new IdentityHashMap<Expression, Boolean>()); // Subexpressions stored before the branch
+        before.addAll(stored);
+
+        code = new ByteArrayOutputStream();
+        emitExpression(branch);
+        stored.retainAll(before);
+
+        ByteArrayOutputStream result = code;
+        code = main;
+        return result;
+    }
+
+    /**
+     * Emits a sum or product as a loop. The index and last index are rounded from the bounds once, then the body is
+     * added or multiplied into the result until the index passes the last index. The result is NaN if the bounds
+     * are not valid for Expression.isValidLoop.
+     *
+     * @param expression loop expression
+     * @throws IOException if the bytecode could not be written or the body is too long to jump over
+     */
+    private void emitLoop(Expression expression) throws IOException {
+        int index = loopLocal((int) expression.getValue()); // Local variable holding the index
+        int last = index + 2; // Local variable holding the last index
+        int result = index + 4; // Local variable holding the result so far
+
+        emitExpression(expression.getLeft());
+        emitMathCall("ceil", "(D)D");
+        emitVariable(DSTORE, index);
+        pop();
+        emitExpression(expression.getRight());
+        emitMathCall("floor", "(D)D");
+        emitVariable(DSTORE, last);
+        pop();
+        emitConstant(expression.getType() == Expression.SUM ? 0 : 1);
+        emitVariable(DSTORE, result);
+        pop();
+
+        ByteArrayOutputStream main = code; // Bytecode before the loop
+
+        // Body, followed by the step to the next index
+        code = new ByteArrayOutputStream();
+        emitVariable(DLOAD, result);
+        push();
+        emitBranch(expression.getThird()).writeTo(code);
+        code.write(expression.getType() == Expression.SUM ? DADD : DMUL);
+        pop();
+        emitVariable(DSTORE, result);
+        pop();
+        emitVariable(DLOAD, index);
+        code.write(DCONST_1);
+        code.write(DADD);
+        emitVariable(DSTORE, index);
+        ByteArrayOutputStream body = code;
+
+        // Test of whether the index is past the last index
+        code = new ByteArrayOutputStream();
+        emitVariable(DLOAD, index);
+        emitVariable(DLOAD, last);
+        code.write(DCMPG);
+        ByteArrayOutputStream test = code;
+
+        // Result when the bounds are invalid
+        code = new ByteArrayOutputStream();
+        emitConstant(Double.NaN);
+        emitVariable(DSTORE, result);
+        pop();
+        ByteArrayOutputStream invalid = code;
+        code = main;
+
+        // Expression.isValidLoop(index, last), which is false for undefined bounds
+        emitVariable(DLOAD, index);
+        push();
+        emitVariable(DLOAD, last);
+        push();
+        code.write(INVOKESTATIC);
+        writeShort(code, methodEntry("expressionEvaluator/Expression", "isValidLoop", "(DD)Z"));
+        pop();
+        pop();
+        emitJump(IFNE, 3 + invalid.size() + 3);
+        invalid.writeTo(code);
+        emitJump(GOTO, 3 + test.size() + 3 + body.size() + 3);
+
+        test.writeTo(code);
+        emitJump(IFGT, 3 + body.size() + 3);
+        body.writeTo(code);
+        emitJump(GOTO, -(body.size() + 3 + test.size()));
+
+        emitVariable(DLOAD, result);
+        push();
+    }
+
+    /**
+     * Returns the local variable holding the index of a loop, which is followed by its last index and result.
+     *
+     * @param level level of loop
+     * @return local variable index
+     */
+    private int loopLocal(int level) {
+        return 3 + 2 * slots.size() + 6 * level; // After this, x and shared subexpressions
+    }
+
+    /**
+     * Emits a jump instruction.
+     *
+     * @param opcode branch or goto opcode
+     * @param offset offset of target from the instruction
+     * @throws IOException if the offset does not fit in a jump instruction
+     */
+    private void emitJump(int opcode, int offset) throws IOException {
+        if (offset > Short.MAX_VALUE || offset < Short.MIN_VALUE) {
+            throw new IOException("Branch too large to compile");
+        }
+        code.write(opcode);
+        writeShort(code, offset);
+    }
+
+    /**
+     * Emits a call to a registered function, loaded from the function array of the generated class.
+     *
+     * @param expression function expression
+     * @throws IOException if the bytecode could not be written
+     */
+    private void emitFunctionCall(Expression expression) throws IOException {
+        int index = functions.indexOf(expression.getFunction()); // Index of function in array
+
+        if (index < 0) {
+            index = functions.size();
+            functions.add(expression.getFunction());
+        }
+
+        code.write(ALOAD_0);
+        code.write(GETFIELD);
+        writeShort(code, fieldEntry(CLASS_NAME, "f", FUNCTIONS_TYPE));
+        emitIndex(index);
+        code.write(AALOAD);
+        push(); // Function takes no more stack space than a double
+
+        emitExpression(expression.getLeft());
+        if (expression.getRight() != null) {
+            emitExpression(expression.getRight());
+        } else {
+            emitConstant(0);
+        }
+        code.write(INVOKEVIRTUAL);
+        writeShort(code, methodEntry("expressionEvaluator/MathFunction", "apply", "(DD)D"));
+        pop();
+        pop();
+    }
+
+    /**
+     * Emits a static call to java.lang.Math.
+     *
+     * @param name name of method
+     * @param descriptor method descriptor
+     * @throws IOException if the bytecode could not be written
+     */
+    private void emitMathCall(String name, String descriptor) throws IOException {
+        code.write(INVOKESTATIC);
+        writeShort(code, methodEntry("java/lang/Math", name, descriptor));
+    }
+
+    /**
+     * Records a double pushed onto the operand stack.
+     */
+    private void push() {
+        stackDepth += 2;
+        maxStackDepth = Math.max(maxStackDepth, stackDepth);
+    }
+
+    /**
+     * Records a double popped from the operand stack.
+     */
+    private void pop() {
+        stackDepth -= 2;
+    }
+
+    /**
+     * Writes a two byte value.
+     *
+     * @param out stream to write to
+     * @param value value to write
+     */
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    /**
+     * Adds a UTF8 constant pool entry.
+     *
+     * @param value string value
+     * @return index of entry
+     * @throws IOException if the entry could not be written
+     */
+    private int utf8Entry(String value) throws IOException {
+        String key = "U" + value;
+        Integer index = poolIndex.get(key);
+
+        if (index == null) {
+            poolOut.writeByte(TAG_UTF8);
+            poolOut.writeUTF(value);
+            index = poolSize++;
+            poolIndex.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * Adds a class constant pool entry.
+     *
+     * @param name internal class name
+     * @return index of entry
+     * @throws IOException if the entry could not be written
+     */
+    private int classEntry(String name) throws IOException {
+        String key = "C" + name;
+        Integer index = poolIndex.get(key);
+
+        if (index == null) {
+            int nameIndex = utf8Entry(name);
+            poolOut.writeByte(TAG_CLASS);
+            poolOut.writeShort(nameIndex);
+            index = poolSize++;
+            poolIndex.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * Adds a field reference constant pool entry.
+     *
+     * @param owner internal name of class owning the field
+     * @param name field name
+     * @param descriptor field descriptor
+     * @return index of entry
+     * @throws IOException if the entry could not be written
+     */
+    private int fieldEntry(String owner, String name, String descriptor) throws IOException {
+        return memberEntry(TAG_FIELDREF, "F", owner, name, descriptor);
+    }
+
+    /**
+     * Adds a method reference constant pool entry.
+     *
+     * @param owner internal name of class owning the method
+     * @param name method name
+     * @param descriptor method descriptor
+     * @return index of entry
+     * @throws IOException if the entry could not be written
+     */
+    private int methodEntry(String owner, String name, String descriptor) throws IOException {
+        return memberEntry(TAG_METHODREF, "M", owner, name, descriptor);
+    }
+
+    /**
+     * Adds a field or method reference constant pool entry.
+     *
+     * @param tag constant pool tag of entry
+     * @param prefix prefix of key the entry is indexed by
+     * @param owner internal name of class owning the member
+     * @param name member name
+     * @param descriptor member descriptor
+     * @return index of entry
+     * @throws IOException if the entry could not be written
+     */
+    private int memberEntry(int tag, String prefix, String owner, String name, String descriptor)
+            throws IOException {
+        String key = prefix + owner + "." + name + descriptor;
+        Integer index = poolIndex.get(key);
+
+        if (index == null) {
+            int ownerIndex = classEntry(owner);
+            int nameIndex = utf8Entry(name);
+            int typeIndex = utf8Entry(descriptor);
+
+            poolOut.writeByte(TAG_NAME_AND_TYPE);
+            poolOut.writeShort(nameIndex);
+            poolOut.writeShort(typeIndex);
+            int nameAndType = poolSize++;
+
+            poolOut.writeByte(tag);
+            poolOut.writeShort(ownerIndex);
+            poolOut.writeShort(nameAndType);
+            index = poolSize++;
+            poolIndex.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * Adds a double constant pool entry.
+     *
+     * @param value double value
+     * @return index of entry
+     * @throws IOException if the entry could not be written
+     */
+    private int doubleEntry(double value) throws IOException {
+        String key = "D" + Double.doubleToRawLongBits(value);
+        Integer index = poolIndex.get(key);
+
+        if (index == null) {
+            poolOut.writeByte(TAG_DOUBLE);
+            poolOut.writeDouble(value);
+            index = poolSize;
+            poolSize += 2; // Doubles take two entries
+            poolIndex.put(key, index);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,185 @@
+package expressionEvaluator;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * ExpressionDag class that merges repeated subexpressions so each distinct subexpression is one shared node, and
+ * finds the shared nodes whose values should be kept in slots and reused during evaluation.
+ */
+
+public class ExpressionDag {
+
+    /**
+     * Merges identical subexpressions into shared nodes (e.g. both sin(x) in sin(x)^2+3*sin(x) become one node).
+     *
+     * @param expression expression to merge
+     * @return expression where identical subexpressions are the same object
+     */
+    public static Expression share(Expression expression) {
+        return share(expression, new HashMap<Key, Expression>(), new IdentityHashMap<Expression, Expression>());
+    }
+
+    /**
+     * Merges identical subexpressions, reusing nodes already seen.
+     *
+     * @param expression expression to merge
+     * @param nodes shared nodes by structure
+     * @param done shared node for each node already merged
+     * @return shared expression
+     */
+    private static Expression share(Expression expression, Map<Key, Expression> nodes,
+                                    Map<Expression, Expression> done) {
+        Expression shared = done.get(expression); // Node already merged
+
+        if (shared != null) {
+            return shared;
+        }
+
+        Expression left = expression.getLeft() != null ? share(expression.getLeft(), nodes, done) : null;
+        Expression right = expression.getRight() != null ? share(expression.getRight(), nodes, done) : null;
+        Expression third = expression.getThird() != null ? share(expression.getThird(), nodes, done) : null;
+
+        Key key = new Key(expression.getType(), expression.getValue(), left, right, expression.getFunction(),
+                third);
+        shared = nodes.get(key);
+
+        if (shared == null) {
+            if (expression.isConditional() || expression.isLoop()) {
+                shared = expression.withOperands(left, right, third);
+            } else if (expression.isBinary() || expression.isUnary()) {
+                shared = expression.withOperands(left, right);
+            } else {
+                shared = expression;
+            }
+            nodes.put(key, shared);
+        }
+
+        done.put(expression, shared);
+        return shared;
+    }
+
+    /**
+     * Finds the operation nodes used more than once and numbers them in evaluation order. Constants and x are
+     * never given a slot since they are as cheap to load as a slot.
+     *
+     * @param expression shared expression
+     * @return slot number of each shared operation node
+     */
+    public static Map<Expression, Integer> findSlots(Expression expression) {
+        Map<Expression, Integer> uses = new IdentityHashMap<Expression, Integer>(); // Number of uses of each node
+        countUses(expression, uses);
+
+        Map<Expression, Integer> slots = new IdentityHashMap<Expression, Integer>(); // Slot of each shared node
+        numberSlots(expression, uses, slots, new IdentityHashMap<Expression, Boolean>());
+        return slots;
+    }
+
+    /**
+     * Counts how many times each node is used.
+     *
+     * @param expression expression to count
+     * @param uses number of uses of each node
+     */
+    private static void countUses(Expression expression, Map<Expression, Integer> uses) {
+        Integer count = uses.get(expression); // Uses so far
+
+        uses.put(expression, count == null ? 1 : count + 1);
+
+        if (count == null) {
+            if (expression.getLeft() != null) {
+                countUses(expression.getLeft(), uses);
+            }
+            if (expression.getRight() != null) {
+                countUses(expression.getRight(), uses);
+            }
+            if (expression.getThird() != null) {
+                countUses(expression.getThird(), uses);
+            }
+        }
+    }
+
+    /**
+     * Numbers shared nodes in the order they are first evaluated.
+     *
+     * @param expression expression to number
+     * @param uses number of uses of each node
+     * @param slots slot of each shared node
+     * @param visited nodes already numbered
+     */
+    private static void numberSlots(Expression expression, Map<Expression, Integer> uses,
+                                    Map<Expression, Integer> slots, Map<Expression, Boolean> visited) {
+        if (visited.containsKey(expression)) {
+            return;
+        }
+        visited.put(expression, Boolean.TRUE);
+
+        if (expression.getLeft() != null) {
+            numberSlots(expression.getLeft(), uses, slots, visited);
+        }
+        if (expression.getRight() != null) {
+            numberSlots(expression.getRight(), uses, slots, visited);
+        }
+        if (expression.getThird() != null) {
+            numberSlots(expression.getThird(), uses, slots, visited);
+        }
+
+        if (uses.get(expression) > 1
+                && (expression.isUnary() || expression.isBinary() || expression.isConditional()
+                || expression.isLoop())) {
+            slots.put(expression, slots.size());
+        }
+    }
+
+    /**
+     * Key class that identifies a node by its type, value and already shared operands.
+     */
+    private static final class Key {
+
+        private final int type; // Type of node
+        private final long value; // Bits of constant value
+        private final Expression left; // Shared left operand
+        private final Expression right; // Shared right operand
+        private final MathFunction function; // Function of function node
+        private final Expression third; // Shared false branch of conditional node, or body of loop
+
+        /**
+         * Main constructor.
+         *
+         * @param type type of node
+         * @param value value of constant node
+         * @param left shared left operand
+         * @param right shared right operand
+         * @param function function of function node
+         * @param third shared false branch of conditional node, or body of loop
+         */
+        private Key(int type, double value, Expression left, Expression right, MathFunction function,
+                    Expression third) {
+            this.type = type;
+            this.value = Double.doubleToLongBits(value);
+            this.left = left;
+            this.right = right;
+            this.function = function;
+            this.third = third;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) o;
+            return type == other.type && value == other.value && left == other.left && right == other.right
+                    && function == other.function && third == other.third;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (31 * (31 * type + (int) (value ^ (value >>> 32))) + System.identityHashCode(left))
+                    + System.identityHashCode(right)) + 31 * System.identityHashCode(function)
+                    + System.identityHashCode(third);
+        }
+    }
+}
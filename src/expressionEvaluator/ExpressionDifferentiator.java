@@ -0,0 +1,238 @@
+package expressionEvaluator;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * ExpressionDifferentiator class that finds the exact derivative of an expression with respect to x using the rules
+ * of differentiation.
+ */
+
+public class ExpressionDifferentiator {
+
+    private static final Expression ZERO = Expression.constant(0); // Derivative of a constant
+    private static final Expression ONE = Expression.constant(1); // Derivative of x
+
+    private final Map<Expression, Expression> derivatives =
+            new IdentityHashMap<Expression, Expression>(); // Derivative of each node already differentiated
+    private int nextLevel; // Level of the next loop added by the product rule, unused by any other loop
+
+    /**
+     * Main constructor.
+     *
+     * @param expression expression to differentiate
+     */
+    private ExpressionDifferentiator(Expression expression) {
+        this.nextLevel = expression.getIndexCount();
+    }
+
+    /**
+     * Differentiates an expression and simplifies the result.
+     *
+     * @param expression expression to differentiate
+     * @return derivative of expression
+     */
+    public static Expression differentiate(Expression expression) {
+        return ExpressionDag.share(ExpressionOptimizer.optimize(
+                new ExpressionDifferentiator(expression).derive(expression)));
+    }
+
+    /**
+     * Differentiates an expression, differentiating each shared node once so the derivative stays shared.
+     *
+     * @param e expression to differentiate
+     * @return derivative of expression, not yet simplified
+     */
+    private Expression derive(Expression e) {
+        Expression derivative = derivatives.get(e); // Node already differentiated
+
+        if (derivative == null) {
+            derivative = applyRules(e);
+            derivatives.put(e, derivative);
+        }
+        return derivative;
+    }
+
+    /**
+     * Applies the rules of differentiation to an expression.
+     *
+     * @param e expression to differentiate
+     * @return derivative of expression, not yet simplified
+     */
+    private Expression applyRules(Expression e) {
+        Expression a = e.getLeft(); // Left operand
+        Expression b = e.getRight(); // Right operand
+
+        switch (e.getType()) {
+            case Expression.CONSTANT:
+            case Expression.PARAMETER:
+            case Expression.INDEX:
+                return ZERO;
+            case Expression.VARIABLE:
+                return ONE;
+            case Expression.ADD:
+                return add(derive(a), derive(b));
+            case Expression.SUBTRACT:
+                return subtract(derive(a), derive(b));
+            case Expression.MULTIPLY:
+                return add(multiply(derive(a), b), multiply(a, derive(b))); // (ab)' = a'b + ab'
+            case Expression.DIVIDE:
+                return divide(subtract(multiply(derive(a), b), multiply(a, derive(b))),
+                        multiply(b, b)); // (a/b)' = (a'b - ab')/b^2
+            case Expression.POWER:
+                if (b.getType() == Expression.CONSTANT) {
+                    return multiply(multiply(Expression.constant(b.getValue()),
+                            Expression.binary(Expression.POWER, a, Expression.constant(b.getValue() - 1))),
+                            derive(a)); // (a^c)' = c*a^(c-1)*a'
+                }
+                return multiply(e, add(multiply(derive(b), Expression.unary(Expression.LN, a)),
+                        divide(multiply(b, derive(a)), a))); // (a^b)' = a^b*(b'ln(a) + ba'/a)
+            case Expression.NEGATE:
+                return negate(derive(a));
+            case Expression.SIN:
+                return multiply(Expression.unary(Expression.COS, a), derive(a));
+            case Expression.COS:
+                return negate(multiply(Expression.unary(Expression.SIN, a), derive(a)));
+            case Expression.TAN:
+                Expression cos = Expression.unary(Expression.COS, a); // Cosine of operand
+                return divide(derive(a), multiply(cos, cos)); // tan(a)' = a'/cos(a)^2
+            case Expression.SQRT:
+                return divide(derive(a), multiply(Expression.constant(2), e)); // sqrt(a)' = a'/(2sqrt(a))
+            case Expression.LOG:
+                return divide(derive(a), multiply(a, Expression.constant(Math.log(10))));
+            case Expression.LN:
+                return divide(derive(a), a);
+            case Expression.LESS:
+            case Expression.LESS_EQUAL:
+            case Expression.GREATER:
+            case Expression.GREATER_EQUAL:
+            case Expression.EQUAL:
+            case Expression.NOT_EQUAL:
+                return ZERO; // Comparisons are constant apart from where they jump
+            case Expression.IF:
+                return Expression.conditional(a, derive(b), derive(e.getThird()));
+            case Expression.SUM:
+                Expression term = derive(e.getThird()); // Derivative of each term
+                return term == ZERO ? ZERO : Expression.loop(Expression.SUM, (int) e.getValue(), a, b, term);
+            case Expression.PRODUCT:
+                Expression factor = derive(e.getThird()); // Derivative of each factor
+                return factor == ZERO ? ZERO : deriveProduct(e, factor);
+            case Expression.FUNCTION:
+                MathFunction function = e.getFunction(); // Function applied
+                Expression derivative = multiply(function.derivative(0, a, b), derive(a)); // Chain rule on a
+                if (b != null) {
+                    derivative = add(derivative, multiply(function.derivative(1, a, b), derive(b)));
+                }
+                return derivative;
+            default:
+                throw new IllegalStateException("Unknown expression type " + e.getType());
+        }
+    }
+
+    /**
+     * Differentiates a product. Where no factor is zero the product is multiplied by the sum of f'/f over its factors,
+     * which takes one pass. Where a factor is zero that would divide by zero, so the product rule is applied
+     * instead: the sum over j of f'(j) times the factors before and after j.
+     *
+     * @param e product expression
+     * @param factor derivative of each factor
+     * @return derivative of product
+     */
+    private Expression deriveProduct(Expression e, Expression factor) {
+        int level = (int) e.getValue(); // Level of product
+        int outer = nextLevel++; // Level of sum over the factor that is differentiated
+        Expression from = e.getLeft(); // Lower bound
+        Expression to = e.getRight(); // Upper bound
+        Expression j = Expression.index(outer); // Index of factor that is differentiated
+
+        Expression logarithmic = multiply(e, Expression.loop(Expression.SUM, level, from, to,
+                divide(factor, e.getThird()))); // (f1*f2*...)' = f1*f2*...*(f1'/f1 + f2'/f2 + ...)
+        Expression before = Expression.loop(Expression.PRODUCT, level, from,
+                Expression.binary(Expression.SUBTRACT, j, ONE), e.getThird()); // Factors before j
+        Expression after = Expression.loop(Expression.PRODUCT, level,
+                Expression.binary(Expression.ADD, j, ONE), to, e.getThird()); // Factors after j
+        Expression rule = Expression.loop(Expression.SUM, outer, from, to, multiply(multiply(
+                EquationParser.replace(factor, Expression.INDEX, level, j, 0,
+                        new IdentityHashMap<Expression, Expression>()), before), after)); // Product rule
+
+        return Expression.conditional(Expression.binary(Expression.NOT_EQUAL, e, ZERO), logarithmic, rule);
+    }
+
+    /**
+     * Adds two derivatives, dropping a term whose derivative is zero.
+     *
+     * @param a left operand
+     * @param b right operand
+     * @return sum
+     */
+    private static Expression add(Expression a, Expression b) {
+        if (a == ZERO) {
+            return b;
+        } else if (b == ZERO) {
+            return a;
+        }
+        return Expression.binary(Expression.ADD, a, b);
+    }
+
+    /**
+     * Subtracts two derivatives, dropping a term whose derivative is zero.
+     *
+     * @param a left operand
+     * @param b right operand
+     * @return difference
+     */
+    private static Expression subtract(Expression a, Expression b) {
+        if (b == ZERO) {
+            return a;
+        } else if (a == ZERO) {
+            return negate(b);
+        }
+        return Expression.binary(Expression.SUBTRACT, a, b);
+    }
+
+    /**
+     * Multiplies by a derivative. A zero derivative makes the whole term zero, since the term only exists because of
+     * the chain or product rule.
+     *
+     * @param a left operand
+     * @param b right operand
+     * @return product
+     */
+    private static Expression multiply(Expression a, Expression b) {
+        if (a == ZERO || b == ZERO) {
+            return ZERO;
+        } else if (a == ONE) {
+            return b;
+        } else if (b == ONE) {
+            return a;
+        }
+        return Expression.binary(Expression.MULTIPLY, a, b);
+    }
+
+    /**
+     * Divides a derivative, keeping a zero derivative zero.
+     *
+     * @param a numerator
+     * @param b denominator
+     * @return quotient
+     */
+    private static Expression divide(Expression a, Expression b) {
+        if (a == ZERO) {
+            return ZERO;
+        }
+        return Expression.binary(Expression.DIVIDE, a, b);
+    }
+
+    /**
+     * Negates a derivative, keeping a zero derivative zero.
+     *
+     * @param a operand
+     * @return negated operand
+     */
+    private static Expression negate(Expression a) {
+        if (a == ZERO) {
+            return ZERO;
+        }
+        return Expression.unary(Expression.NEGATE, a);
+    }
+}
@@ -0,0 +1,186 @@
+package expressionEvaluator;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * ExpressionOptimizer class that simplifies a parsed expression before it is evaluated. Only rewrites that keep the
+ * result the same for every x value, apart from rounding in the last digit, are applied.
+ */
+
+public class ExpressionOptimizer {
+
+    /**
+     * Optimizes an expression by folding constant subexpressions and removing redundant operations.
+     *
+     * @param expression expression to optimize
+     * @return optimized expression
+     */
+    public static Expression optimize(Expression expression) {
+        return optimize(expression, new IdentityHashMap<Expression, Expression>());
+    }
+
+    /**
+     * Optimizes an expression, optimizing each shared node once so the result stays shared.
+     *
+     * @param expression expression to optimize
+     * @param done optimized form of each node already optimized
+     * @return optimized expression
+     */
+    private static Expression optimize(Expression expression, Map<Expression, Expression> done) {
+        Expression optimized = done.get(expression); // Node already optimized
+
+        if (optimized == null) {
+            optimized = simplify(expression, done);
+            done.put(expression, optimized);
+        }
+        return optimized;
+    }
+
+    /**
+     * Optimizes a node by folding it if its operands are constant and otherwise applying identities.
+     *
+     * @param expression expression to optimize
+     * @param done optimized form of each node already optimized
+     * @return optimized expression
+     */
+    private static Expression simplify(Expression expression, Map<Expression, Expression> done) {
+        if (expression.isConditional()) {
+            Expression condition = optimize(expression.getLeft(), done);
+            Expression then = optimize(expression.getRight(), done);
+            Expression otherwise = optimize(expression.getThird(), done);
+
+            if (isConstant(condition)) {
+                return Expression.isTrue(condition.getValue()) ? then : otherwise; // Branch known in advance
+            }
+            return Expression.conditional(condition, then, otherwise);
+        } else if (expression.isLoop()) {
+            Expression from = optimize(expression.getLeft(), done);
+            Expression to = optimize(expression.getRight(), done);
+            Expression body = optimize(expression.getThird(), done);
+
+            if (isConstant(from) && isConstant(to) && isConstant(body)) {
+                return Expression.constant(expression.withOperands(from, to, body).eval(0));
+            }
+            return expression.withOperands(from, to, body);
+        } else if (expression.isBinary()) {
+            Expression left = optimize(expression.getLeft(), done);
+            Expression right = optimize(expression.getRight(), done);
+
+            if (isConstant(left) && isConstant(right)) {
+                return Expression.constant(expression.withOperands(left, right).eval(0));
+            } else if (expression.getType() == Expression.FUNCTION) {
+                return expression.withOperands(left, right);
+            }
+            return simplifyBinary(expression.getType(), left, right);
+        } else if (expression.isUnary()) {
+            Expression operand = optimize(expression.getLeft(), done);
+
+            if (isConstant(operand)) {
+                return Expression.constant(expression.withOperands(operand, null).eval(0));
+            }
+            if (expression.getType() == Expression.NEGATE && operand.getType() == Expression.NEGATE) {
+                return operand.getLeft(); // --a = a
+            }
+            return expression.withOperands(operand, null);
+        } else {
+            return expression;
+        }
+    }
+
+    /**
+     * Applies identities to a binary operation whose operands are already optimized.
+     *
+     * @param type type of operation
+     * @param left left operand
+     * @param right right operand
+     * @return simplified expression
+     */
+    private static Expression simplifyBinary(int type, Expression left, Expression right) {
+        switch (type) {
+            case Expression.ADD:
+                if (isConstant(right, 0)) {
+                    return left; // a+0 = a
+                } else if (isConstant(left, 0)) {
+                    return right; // 0+a = a
+                } else if (right.getType() == Expression.NEGATE) {
+                    return Expression.binary(Expression.SUBTRACT, left, right.getLeft()); // a+-b = a-b
+                }
+                break;
+            case Expression.SUBTRACT:
+                if (isConstant(right, 0)) {
+                    return left; // a-0 = a
+                } else if (right.getType() == Expression.NEGATE) {
+                    return Expression.binary(Expression.ADD, left, right.getLeft()); // a--b = a+b
+                }
+                break;
+            case Expression.MULTIPLY:
+                if (isConstant(right, 1)) {
+                    return left; // a*1 = a
+                } else if (isConstant(left, 1)) {
+                    return right; // 1*a = a
+                } else if (isConstant(right, -1)) {
+                    return Expression.unary(Expression.NEGATE, left); // a*-1 = -a
+                } else if (isConstant(left, -1)) {
+                    return Expression.unary(Expression.NEGATE, right); // -1*a = -a
+                }
+                break;
+            case Expression.DIVIDE:
+                if (isConstant(right, 1)) {
+                    return left; // a/1 = a
+                } else if (isConstant(right) && hasExactReciprocal(right.getValue())) {
+                    return Expression.binary(Expression.MULTIPLY, left,
+                            Expression.constant(1 / right.getValue())); // a/4 = a*0.25
+                }
+                break;
+            case Expression.POWER:
+                if (isConstant(right, 1)) {
+                    return left; // a^1 = a
+                } else if (isConstant(right, 0)) {
+                    return Expression.constant(1); // a^0 = 1, even for NaN
+                } else if (isConstant(right, 2)) {
+                    return Expression.binary(Expression.MULTIPLY, left, left); // a^2 = a*a, a is computed once
+                } else if (isConstant(right, 3)) {
+                    return Expression.binary(Expression.MULTIPLY, Expression.binary(Expression.MULTIPLY, left, left),
+                            left); // a^3 = a*a*a
+                }
+                break;
+        }
+        return Expression.binary(type, left, right);
+    }
+
+    /**
+     * Returns whether dividing by a value gives the same result as multiplying by its reciprocal, which is true
+     * for powers of two whose reciprocal is not subnormal.
+     *
+     * @param value divisor
+     * @return whether the reciprocal is exact
+     */
+    private static boolean hasExactReciprocal(double value) {
+        int exponent = Math.getExponent(value); // Binary exponent of value
+
+        return (Double.doubleToRawLongBits(value) & 0x000fffffffffffffL) == 0
+                && exponent > Double.MIN_EXPONENT && exponent < Double.MAX_EXPONENT;
+    }
+
+    /**
+     * Returns whether an expression is a constant.
+     *
+     * @param expression expression to check
+     * @return whether expression is a constant
+     */
+    private static boolean isConstant(Expression expression) {
+        return expression.getType() == Expression.CONSTANT;
+    }
+
+    /**
+     * Returns whether an expression is a particular constant.
+     *
+     * @param expression expression to check
+     * @param value constant value
+     * @return whether expression is the constant
+     */
+    private static boolean isConstant(Expression expression, double value) {
+        return isConstant(expression) && expression.getValue() == value;
+    }
+}
@@ -0,0 +1,148 @@
+package expressionEvaluator;
+
+import java.text.ParseException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * FunctionCache class that keeps the most recently used compiled functions, so switching back to a recent function
+ * does not parse and compile it again. The least recently used function is dropped once the cache is full.
+ */
+
+public class FunctionCache {
+
+    public static final int DEFAULT_CAPACITY = 32; // Number of functions kept by default
+
+    private final Map<String, CompiledFunction> functions; // Compiled functions by normalized text
+    private long hits; // Number of lookups found in the cache
+    private long misses; // Number of lookups that had to compile the function
+
+    /**
+     * Main constructor.
+     *
+     * @param capacity number of functions to keep
+     */
+    public FunctionCache(final int capacity) {
+        this.functions = new LinkedHashMap<String, CompiledFunction>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledFunction> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the compiled form of a function, parsing and compiling it if it is not in the cache.
+     *
+     * @param function user entered function
+     * @return compiled function
+     * @throws ParseException if the function is invalid
+     */
+    public CompiledFunction get(String function) throws ParseException {
+        String key = normalize(function); // Text the function is cached by
+        CompiledFunction compiled; // Compiled function
+
+        synchronized (this) {
+            compiled = functions.get(key);
+            if (compiled != null) {
+                hits++;
+                return compiled;
+            }
+            misses++;
+        }
+
+        // Parse outside the lock so other threads are not held up
+        compiled = new CompiledFunction(key,
+                ExpressionDag.share(ExpressionOptimizer.optimize(EquationParser.parse(function))));
+
+        synchronized (this) {
+            CompiledFunction existing = functions.get(key); // Function compiled by another thread meanwhile
+
+            if (existing != null) {
+                return existing;
+            }
+            functions.put(key, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * Normalizes function text so the same function typed with different spacing is cached once. The text is rebuilt
+     * from the tokens of the function, so spacing that changes how it is read (e.g. 2 3 or si n(x)) keeps its own
+     * text.
+     *
+     * @param function user entered function
+     * @return tokens of function, separated by a space only where they would otherwise run together
+     * @throws ParseException if the function contains an invalid character or name
+     */
+    static String normalize(String function) throws ParseException {
+        return normalize(function, Collections.<String>emptySet());
+    }
+
+    /**
+     * Normalizes function text that may call user defined functions.
+     *
+     * @param function user entered function
+     * @param definitions names of user defined functions
+     * @return tokens of function, separated by a space only where they would otherwise run together
+     * @throws ParseException if the function contains an invalid character or name
+     */
+    static String normalize(String function, Collection<String> definitions) throws ParseException {
+        StringBuilder normalized = new StringBuilder(function.length()); // Tokens of function
+
+        for (Token token : EquationLexer.tokenize(function, definitions)) {
+            if (normalized.length() > 0 && isNameCharacter(normalized.charAt(normalized.length() - 1))
+                    && isNameCharacter(token.text.charAt(0))) {
+                normalized.append(' ');
+            }
+            normalized.append(token.text);
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Returns whether a character can be part of a name or number, so two tokens joined at it would be read as one.
+     *
+     * @param c character
+     * @return whether the character is a letter, digit or decimal point
+     */
+    private static boolean isNameCharacter(char c) {
+        return Character.isLetterOrDigit(c) || c == '.';
+    }
+
+    /**
+     * Returns the number of lookups found in the cache.
+     *
+     * @return number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups that had to compile the function.
+     *
+     * @return number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of functions in the cache.
+     *
+     * @return number of cached functions
+     */
+    public synchronized int size() {
+        return functions.size();
+    }
+
+    /**
+     * Removes every function from the cache.
+     */
+    public synchronized void clear() {
+        functions.clear();
+    }
+}
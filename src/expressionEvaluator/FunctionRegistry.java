@@ -0,0 +1,74 @@
+package expressionEvaluator;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * FunctionRegistry class that holds the named functions that can be used in equations besides the functions built
+ * into the parser. The standard functions are registered first, followed by any functions found by ServiceLoader.
+ */
+
+public final class FunctionRegistry {
+
+    private static final Map<String, MathFunction> FUNCTIONS =
+            new ConcurrentHashMap<String, MathFunction>(); // Registered functions by name
+
+    static {
+        for (MathFunction function : StandardFunctions.ALL) {
+            register(function);
+        }
+        for (MathFunction function : ServiceLoader.load(MathFunction.class)) {
+            try {
+                register(function);
+            } catch (IllegalArgumentException e) {
+                // Name already taken, so the function found first is kept
+            }
+        }
+    }
+
+    /**
+     * Private constructor; the registry is static.
+     */
+    private FunctionRegistry() {
+    }
+
+    /**
+     * Registers a function so it can be used in equations parsed from now on.
+     *
+     * @param function function to register
+     * @throws IllegalArgumentException if the name is already used by the parser or another function
+     */
+    public static void register(MathFunction function) {
+        String name = function.getName(); // Name used in equations
+
+        if (name.equals("x") || EquationParser.FUNCTIONS.contains(name)
+                || EquationParser.CONSTANTS.containsKey(name)) {
+            throw new IllegalArgumentException("'" + name + "' is built into the parser");
+        }
+        if (FUNCTIONS.putIfAbsent(name, function) != null) {
+            throw new IllegalArgumentException("'" + name + "' is already registered");
+        }
+    }
+
+    /**
+     * Returns a registered function.
+     *
+     * @param name name of function
+     * @return function, or null if no function has the name
+     */
+    public static MathFunction get(String name) {
+        return FUNCTIONS.get(name);
+    }
+
+    /**
+     * Returns the names of the registered functions.
+     *
+     * @return function names
+     */
+    public static Set<String> getNames() {
+        return Collections.unmodifiableSet(FUNCTIONS.keySet());
+    }
+}
@@ -0,0 +1,295 @@
+package expressionEvaluator;
+
+import java.text.ParseException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * FunctionWorkspace class that holds user defined functions such as f(x)=x^2+1 and g(x)=f(x)*sin(x). Calls to other
+ * functions are inlined when a function is compiled, so g is compiled as one expression with its shared
+ * subexpressions merged. The workspace keeps track of which functions call which, so redefining f only recompiles
+ * f and the functions that depend on it.
+ */
+
+public class FunctionWorkspace {
+
+    private static final Pattern DEFINITION =
+            Pattern.compile("\\s*([a-zA-Z]+)\\s*\\(\\s*x\\s*\\)\\s*=(.*)", Pattern.DOTALL); // Form of a definition
+    private static final Pattern ASSIGNMENT =
+            Pattern.compile("(?<![<>=!])=(?!=)"); // Equals sign that is not part of a comparison
+
+    private final Map<String, String> bodies = new LinkedHashMap<String, String>(); // Body of each function
+    private final Map<String, Set<String>> dependencies =
+            new HashMap<String, Set<String>>(); // Functions called by each function
+    private final Map<String, CompiledFunction> functions =
+            new HashMap<String, CompiledFunction>(); // Compiled form of each function
+
+    /**
+     * Returns whether text defines a function rather than being a function to plot, which it does if it has an
+     * equals sign that is not part of a comparison such as x<=1.
+     *
+     * @param text user entered text
+     * @return whether the text is a definition
+     */
+    public static boolean isDefinition(String text) {
+        return ASSIGNMENT.matcher(text).find();
+    }
+
+    /**
+     * Defines or redefines a function, then recompiles it and every function that depends on it. Other functions
+     * keep their compiled forms. The workspace is left unchanged if the definition is invalid.
+     *
+     * @param definition definition such as f(x)=x^2+1
+     * @return names of the recompiled functions, the defined function first and then its dependents
+     * @throws ParseException if the definition is invalid or makes a function call itself
+     */
+    public Set<String> define(String definition) throws ParseException {
+        Matcher matcher = DEFINITION.matcher(definition); // Parts of definition
+
+        if (!matcher.matches()) {
+            throw new ParseException("Definitions must look like f(x)=...", 0);
+        }
+
+        String name = matcher.group(1); // Name of function
+        String body = matcher.group(2); // Body of function
+        int bodyStart = matcher.start(2); // Position of body in definition
+
+        if (name.equals("x") || EquationParser.FUNCTIONS.contains(name) || FunctionRegistry.get(name) != null
+                || EquationParser.CONSTANTS.containsKey(name)) {
+            throw new ParseException("'" + name + "' cannot be redefined", matcher.start(1));
+        }
+
+        Set<String> names = new HashSet<String>(bodies.keySet()); // Names including the new function
+        names.add(name);
+
+        // Find what each affected function calls. A new name may turn letters in an existing body into a call.
+        Map<String, Set<String>> newDependencies = new HashMap<String, Set<String>>(dependencies);
+        try {
+            newDependencies.put(name, EquationParser.findCalls(body, names));
+        } catch (ParseException e) {
+            throw new ParseException(e.getMessage(), e.getErrorOffset() + bodyStart);
+        }
+        if (!bodies.containsKey(name)) {
+            for (Map.Entry<String, String> entry : bodies.entrySet()) {
+                if (entry.getValue().contains(name)) {
+                    newDependencies.put(entry.getKey(), EquationParser.findCalls(entry.getValue(), names));
+                }
+            }
+        }
+
+        if (reaches(newDependencies, name, name, new HashSet<String>())) {
+            throw new ParseException("'" + name + "' cannot call itself", bodyStart);
+        }
+
+        // Check the body parses, so its errors are reported at their position in the definition
+        Map<String, Expression> inlined = new HashMap<String, Expression>(); // Bodies of functions called
+        for (String call : newDependencies.get(name)) {
+            inlined.put(call, functions.get(call).getExpression());
+        }
+        try {
+            EquationParser.parse(body, inlined);
+        } catch (ParseException e) {
+            throw new ParseException(e.getMessage(), e.getErrorOffset() + bodyStart);
+        }
+
+        Map<String, String> newBodies = new LinkedHashMap<String, String>(bodies); // Bodies including the new one
+        newBodies.put(name, body);
+
+        Set<String> changed = new LinkedHashSet<String>(); // Functions recompiled, in order
+        changed.add(name);
+        changed.addAll(findDependents(newDependencies, newBodies.keySet(), name));
+
+        Map<String, CompiledFunction> recompiled = new HashMap<String, CompiledFunction>(); // Recompiled functions
+        for (String function : changed) {
+            try {
+                compile(function, newBodies, newDependencies, changed, recompiled);
+            } catch (ParseException e) {
+                throw new ParseException("Defining '" + name + "' breaks '" + function + "': " + e.getMessage(),
+                        matcher.start(1));
+            }
+        }
+
+        bodies.clear();
+        bodies.putAll(newBodies);
+        dependencies.clear();
+        dependencies.putAll(newDependencies);
+        functions.putAll(recompiled);
+        return changed;
+    }
+
+    /**
+     * Removes a function from the workspace.
+     *
+     * @param name name of function
+     * @throws ParseException if another function still calls it
+     */
+    public void remove(String name) throws ParseException {
+        Set<String> dependents = getDependents(name); // Functions calling this function
+
+        if (!dependents.isEmpty()) {
+            throw new ParseException("'" + name + "' is used by " + dependents, 0);
+        }
+        bodies.remove(name);
+        dependencies.remove(name);
+        functions.remove(name);
+    }
+
+    /**
+     * Compiles a function to plot, which may call functions in the workspace.
+     *
+     * @param function user entered function, or the name of a function in the workspace
+     * @return compiled function
+     * @throws ParseException if the function is invalid
+     */
+    public CompiledFunction compile(String function) throws ParseException {
+        String key = FunctionCache.normalize(function, bodies.keySet()); // Normalized function text
+
+        if (functions.containsKey(key)) {
+            return functions.get(key);
+        } else if (key.endsWith("(x)") && functions.containsKey(key.substring(0, key.length() - 3))) {
+            return functions.get(key.substring(0, key.length() - 3));
+        }
+
+        Map<String, Expression> inlined = new HashMap<String, Expression>(); // Bodies of functions called
+        for (String call : EquationParser.findCalls(function, bodies.keySet())) {
+            inlined.put(call, functions.get(call).getExpression());
+        }
+        return new CompiledFunction(key,
+                ExpressionDag.share(ExpressionOptimizer.optimize(EquationParser.parse(function, inlined))));
+    }
+
+    /**
+     * Returns whether a function to plot calls any function in the workspace.
+     *
+     * @param function user entered function
+     * @return whether the function depends on the workspace
+     */
+    public boolean calls(String function) {
+        if (bodies.isEmpty()) {
+            return false;
+        }
+        try {
+            String key = FunctionCache.normalize(function, bodies.keySet()); // Normalized function text
+
+            return functions.containsKey(key) || !EquationParser.findCalls(function, bodies.keySet()).isEmpty();
+        } catch (ParseException e) {
+            return false; // Reported when the function is parsed
+        }
+    }
+
+    /**
+     * Returns the compiled form of a function in the workspace.
+     *
+     * @param name name of function
+     * @return compiled function, or null if it is not defined
+     */
+    public CompiledFunction get(String name) {
+        return functions.get(name);
+    }
+
+    /**
+     * Returns the body of a function in the workspace.
+     *
+     * @param name name of function
+     * @return body of function, or null if it is not defined
+     */
+    public String getBody(String name) {
+        return bodies.get(name);
+    }
+
+    /**
+     * Returns the names of the functions in the workspace, in the order they were first defined.
+     *
+     * @return function names
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(bodies.keySet());
+    }
+
+    /**
+     * Finds every function that calls a function, directly or through other functions.
+     *
+     * @param name name of function
+     * @return names of dependent functions
+     */
+    public Set<String> getDependents(String name) {
+        return findDependents(dependencies, bodies.keySet(), name);
+    }
+
+    /**
+     * Compiles a function after the functions it calls that also need recompiling.
+     *
+     * @param name name of function
+     * @param bodies body of each function
+     * @param dependencies functions called by each function
+     * @param changed functions that need recompiling
+     * @param recompiled functions already recompiled
+     * @throws ParseException if the function is invalid
+     */
+    private void compile(String name, Map<String, String> bodies, Map<String, Set<String>> dependencies,
+                         Set<String> changed, Map<String, CompiledFunction> recompiled) throws ParseException {
+        if (recompiled.containsKey(name)) {
+            return;
+        }
+
+        Map<String, Expression> inlined = new HashMap<String, Expression>(); // Bodies of functions called
+        for (String call : dependencies.get(name)) {
+            if (changed.contains(call)) {
+                compile(call, bodies, dependencies, changed, recompiled);
+                inlined.put(call, recompiled.get(call).getExpression());
+            } else {
+                inlined.put(call, functions.get(call).getExpression());
+            }
+        }
+
+        Expression expression = EquationParser.parse(bodies.get(name), inlined); // Body with calls inlined
+        String body = FunctionCache.normalize(bodies.get(name), bodies.keySet()); // Normalized body text
+        recompiled.put(name, new CompiledFunction(name + "(x)=" + body,
+                ExpressionDag.share(ExpressionOptimizer.optimize(expression))));
+    }
+
+    /**
+     * Finds every function that calls a function, directly or through other functions.
+     *
+     * @param dependencies functions called by each function
+     * @param names names of all functions
+     * @param name name of function
+     * @return names of dependent functions
+     */
+    private static Set<String> findDependents(Map<String, Set<String>> dependencies, Set<String> names,
+                                              String name) {
+        Set<String> dependents = new LinkedHashSet<String>(); // Dependent functions found
+
+        for (String function : names) {
+            if (!function.equals(name) && reaches(dependencies, function, name, new HashSet<String>())) {
+                dependents.add(function);
+            }
+        }
+        return dependents;
+    }
+
+    /**
+     * Returns whether a function calls a target function, directly or through other functions.
+     *
+     * @param dependencies functions called by each function
+     * @param from function to start from
+     * @param target function to look for
+     * @param visited functions already searched
+     * @return whether the target is reached
+     */
+    private static boolean reaches(Map<String, Set<String>> dependencies, String from, String target,
+                                   Set<String> visited) {
+        Set<String> calls = dependencies.get(from); // Functions called directly
+
+        if (calls == null || !visited.add(from)) {
+            return false;
+        }
+        for (String call : calls) {
+            if (call.equals(target) || reaches(dependencies, call, target, visited)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
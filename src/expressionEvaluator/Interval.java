@@ -0,0 +1,112 @@
+package expressionEvaluator;
+
+/**
+ * Interval class that holds a closed range of real numbers. An interval whose low end is greater than its high end
+ * is empty, meaning the function is undefined everywhere in the range.
+ */
+
+public final class Interval {
+
+    public static final Interval EMPTY = new Interval(Double.POSITIVE_INFINITY,
+            Double.NEGATIVE_INFINITY); // No values
+    public static final Interval ENTIRE = new Interval(Double.NEGATIVE_INFINITY,
+            Double.POSITIVE_INFINITY); // Every value
+
+    private final double low; // Low end of interval
+    private final double high; // High end of interval
+
+    /**
+     * Main constructor.
+     *
+     * @param low low end of interval
+     * @param high high end of interval
+     */
+    public Interval(double low, double high) {
+        this.low = Double.isNaN(low) ? Double.NEGATIVE_INFINITY : low;
+        this.high = Double.isNaN(high) ? Double.POSITIVE_INFINITY : high;
+    }
+
+    /**
+     * Creates an interval containing a single value.
+     *
+     * @param value value
+     * @return interval of value
+     */
+    public static Interval point(double value) {
+        return new Interval(value, value);
+    }
+
+    /**
+     * Creates an interval from values that were rounded to nearest, widening it so it contains the exact results.
+     *
+     * @param low rounded low end
+     * @param high rounded high end
+     * @param ulps number of units in the last place the rounded values may be off by
+     * @return interval containing the exact results
+     */
+    public static Interval outward(double low, double high, int ulps) {
+        for (int i = 0; i < ulps; i++) {
+            low = Math.nextDown(low);
+            high = Math.nextUp(high);
+        }
+        return new Interval(low, high);
+    }
+
+    /**
+     * Returns the low end of the interval.
+     *
+     * @return low end
+     */
+    public double getLow() {
+        return low;
+    }
+
+    /**
+     * Returns the high end of the interval.
+     *
+     * @return high end
+     */
+    public double getHigh() {
+        return high;
+    }
+
+    /**
+     * Returns whether the interval has no values.
+     *
+     * @return whether the interval is empty
+     */
+    public boolean isEmpty() {
+        return low > high;
+    }
+
+    /**
+     * Returns whether the interval contains a value.
+     *
+     * @param value value to check
+     * @return whether value is in interval
+     */
+    public boolean contains(double value) {
+        return low <= value && value <= high;
+    }
+
+    /**
+     * Returns whether the interval has any values in common with a range.
+     *
+     * @param min low end of range
+     * @param max high end of range
+     * @return whether the interval and range overlap
+     */
+    public boolean intersects(double min, double max) {
+        return !isEmpty() && low <= max && high >= min;
+    }
+
+    /**
+     * Returns the interval as text.
+     *
+     * @return interval in the form [low, high]
+     */
+    @Override
+    public String toString() {
+        return isEmpty() ? "[]" : "[" + low + ", " + high + "]";
+    }
+}
@@ -0,0 +1,452 @@
+package expressionEvaluator;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * IntervalEvaluator class that evaluates an expression over a whole range of x values. The result is guaranteed to
+ * contain every value the function takes in the range, since each operation rounds its ends outwards and handles the
+ * turning points and asymptotes of the trigonometric functions and the domains of sqrt, log and ln.
+ */
+
+public class IntervalEvaluator {
+
+    private static final double TWO_PI = 2 * Math.PI; // Period of sine and cosine
+    private static final double MAX_PERIODIC = 1e12; // Largest x value whose period can be found reliably
+    private static final int LIBRARY_ULPS = 2; // Error allowed for Math library functions
+
+    /**
+     * Evaluates an expression over a range of x values.
+     *
+     * @param expression expression to evaluate
+     * @param x range of x values
+     * @return interval containing every value of the expression in the range
+     */
+    public static Interval eval(Expression expression, Interval x) {
+        return eval(expression, x, new double[Expression.PARAMETER_COUNT]);
+    }
+
+    /**
+     * Evaluates an expression over a range of x values with values for its parameters.
+     *
+     * @param expression expression to evaluate
+     * @param x range of x values
+     * @param parameters parameter values, indexed as in Expression.PARAMETER_NAMES
+     * @return interval containing every value of the expression in the range
+     */
+    public static Interval eval(Expression expression, Interval x, double[] parameters) {
+        return eval(expression, x, parameters, new Interval[expression.getIndexCount()],
+                new IdentityHashMap<Expression, Interval>());
+    }
+
+    /**
+     * Evaluates an expression over a range of x values, reusing the results of shared subexpressions.
+     *
+     * @param e expression to evaluate
+     * @param x range of x values
+     * @param parameters parameter values
+     * @param indices ranges of the indices of enclosing loops, by level
+     * @param results results of subexpressions already evaluated
+     * @return interval containing every value of the expression in the range
+     */
+    private static Interval eval(Expression e, Interval x, double[] parameters, Interval[] indices,
+                                 Map<Expression, Interval> results) {
+        if (e.getType() == Expression.CONSTANT) {
+            return Interval.point(e.getValue());
+        } else if (e.getType() == Expression.VARIABLE) {
+            return x;
+        } else if (e.getType() == Expression.PARAMETER) {
+            return Interval.point(parameters[(int) e.getValue()]);
+        } else if (e.getType() == Expression.INDEX) {
+            return indices[(int) e.getValue()];
+        }
+
+        Interval result = results.get(e); // Result of shared subexpression
+
+        if (result != null) {
+            return result;
+        }
+
+        Interval a = eval(e.getLeft(), x, parameters, indices, results); // Left operand
+
+        if (e.isConditional()) {
+            result = conditional(e, a, x, parameters, indices, results);
+            results.put(e, result);
+            return result;
+        } else if (e.isLoop()) {
+            result = loop(e, a, eval(e.getRight(), x, parameters, indices, results), x, parameters, indices);
+            results.put(e, result);
+            return result;
+        }
+
+        Interval b = e.isBinary() ? eval(e.getRight(), x, parameters, indices, results) : null; // Right operand
+
+        if (e.isComparison()) {
+            result = compare(e.getType(), a, b);
+        } else if (a.isEmpty() || (b != null && b.isEmpty())) {
+            result = Interval.EMPTY;
+        } else {
+            switch (e.getType()) {
+                case Expression.ADD:
+                    result = Interval.outward(a.getLow() + b.getLow(), a.getHigh() + b.getHigh(), 1);
+                    break;
+                case Expression.SUBTRACT:
+                    result = Interval.outward(a.getLow() - b.getHigh(), a.getHigh() - b.getLow(), 1);
+                    break;
+                case Expression.MULTIPLY:
+                    result = multiply(a, b);
+                    break;
+                case Expression.DIVIDE:
+                    result = divide(a, b);
+                    break;
+                case Expression.POWER:
+                    result = power(a, b);
+                    break;
+                case Expression.NEGATE:
+                    result = new Interval(-a.getHigh(), -a.getLow());
+                    break;
+                case Expression.SIN:
+                    result = periodic(a, Math.sin(a.getLow()), Math.sin(a.getHigh()), Math.PI / 2, -Math.PI / 2);
+                    break;
+                case Expression.COS:
+                    result = periodic(a, Math.cos(a.getLow()), Math.cos(a.getHigh()), 0, Math.PI);
+                    break;
+                case Expression.TAN:
+                    result = tan(a);
+                    break;
+                case Expression.SQRT:
+                    if (a.getHigh() < 0) {
+                        result = Interval.EMPTY;
+                    } else {
+                        result = Interval.outward(Math.sqrt(Math.max(a.getLow(), 0)), Math.sqrt(a.getHigh()), 1);
+                        result = new Interval(Math.max(result.getLow(), 0), result.getHigh());
+                    }
+                    break;
+                case Expression.LOG:
+                    result = a.getHigh() < 0 ? Interval.EMPTY : Interval.outward(
+                            Math.log10(Math.max(a.getLow(), 0)), Math.log10(a.getHigh()), LIBRARY_ULPS);
+                    break;
+                case Expression.LN:
+                    result = a.getHigh() < 0 ? Interval.EMPTY : Interval.outward(
+                            Math.log(Math.max(a.getLow(), 0)), Math.log(a.getHigh()), LIBRARY_ULPS);
+                    break;
+                case Expression.FUNCTION:
+                    result = e.getFunction().apply(a, b);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown expression type " + e.getType());
+            }
+        }
+
+        results.put(e, result);
+        return result;
+    }
+
+    /**
+     * Evaluates a conditional, evaluating only the branches the condition may choose.
+     *
+     * @param e conditional expression
+     * @param condition range of condition
+     * @param x range of x values
+     * @param parameters parameter values
+     * @param indices ranges of the indices of enclosing loops
+     * @param results results of subexpressions already evaluated
+     * @return interval containing every value of the chosen branches
+     */
+    private static Interval conditional(Expression e, Interval condition, Interval x, double[] parameters,
+                                        Interval[] indices, Map<Expression, Interval> results) {
+        if (condition.getLow() > 0 || condition.getHigh() < 0) {
+            return eval(e.getRight(), x, parameters, indices, results); // Always true
+        } else if (condition.isEmpty() || (condition.getLow() == 0 && condition.getHigh() == 0)) {
+            return eval(e.getThird(), x, parameters, indices, results); // Always false, or NaN
+        }
+
+        Interval then = eval(e.getRight(), x, parameters, indices, results); // Range when true
+        Interval otherwise = eval(e.getThird(), x, parameters, indices, results); // Range when false
+
+        return new Interval(Math.min(then.getLow(), otherwise.getLow()),
+                Math.max(then.getHigh(), otherwise.getHigh())); // Empty branches have no effect
+    }
+
+    /**
+     * Evaluates a sum or product. The body is evaluated once over the whole range of the index, and the result is
+     * that range added or multiplied by itself as many times as there may be terms.
+     *
+     * @param e loop expression
+     * @param from range of lower bound
+     * @param to range of upper bound
+     * @param x range of x values
+     * @param parameters parameter values
+     * @param indices ranges of the indices of enclosing loops
+     * @return interval containing every value of the loop
+     */
+    private static Interval loop(Expression e, Interval from, Interval to, Interval x, double[] parameters,
+                                 Interval[] indices) {
+        if (from.isEmpty() || to.isEmpty()) {
+            return Interval.EMPTY;
+        }
+
+        double first = Math.ceil(from.getLow()); // Lowest index
+        double last = Math.floor(to.getHigh()); // Highest index
+        double minCount = Math.max(Math.floor(to.getLow()) - Math.ceil(from.getHigh()) + 1, 0); // Fewest terms
+        double maxCount = Math.max(last - first + 1, 0); // Most terms
+        double identity = e.getType() == Expression.SUM ? 0 : 1; // Value with no terms
+
+        if (!Expression.isValidLoop(first, last)) {
+            return Interval.ENTIRE; // Some values may be undefined and the rest are unbounded
+        } else if (maxCount == 0) {
+            return Interval.point(identity);
+        }
+
+        Interval[] scope = indices.clone(); // Index ranges with this loop's index
+        scope[(int) e.getValue()] = new Interval(first, last);
+        Interval term = eval(e.getThird(), x, parameters, scope,
+                new IdentityHashMap<Expression, Interval>()); // Range of every term, which depends on the index
+
+        if (term.isEmpty()) {
+            return minCount == 0 ? Interval.point(identity) : Interval.EMPTY;
+        }
+
+        double size = Math.max(Math.abs(term.getLow()), Math.abs(term.getHigh())); // Largest term
+        if (e.getType() == Expression.SUM) {
+            // Each addition rounds by half an ulp of the partial sum, which is at most maxCount * size
+            double error = maxCount * maxCount * Math.ulp(size); // Bound on rounding error of the whole sum
+            return new Interval(Math.min(minCount * term.getLow(), maxCount * term.getLow()) - error,
+                    Math.max(minCount * term.getHigh(), maxCount * term.getHigh()) + error);
+        }
+
+        // Each multiplication rounds by half an ulp, so the error grows with the number of terms
+        double ulps = maxCount + LIBRARY_ULPS; // Bound on relative rounding error of the product, in ulps
+        if (term.getLow() >= 0) {
+            // A power of a value between 0 and 1 shrinks as terms are added, and grows above 1
+            double low = Math.min(Math.pow(term.getLow(), minCount), Math.pow(term.getLow(), maxCount));
+            double high = Math.max(Math.pow(term.getHigh(), minCount), Math.pow(term.getHigh(), maxCount));
+            return new Interval(Math.max(low - ulps * Math.ulp(low), 0), high + ulps * Math.ulp(high));
+        }
+
+        double bound = Math.max(Math.pow(size, minCount), Math.pow(size, maxCount)); // Largest magnitude of product
+        bound += ulps * Math.ulp(bound);
+        return new Interval(-bound, bound);
+    }
+
+    /**
+     * Compares two intervals. The result is 1 or 0 where the comparison is the same for every pair of values, and
+     * [0, 1] where it may be either. Comparisons with undefined values are false, as in Java.
+     *
+     * @param type type of comparison
+     * @param a left operand
+     * @param b right operand
+     * @return range of comparison
+     */
+    private static Interval compare(int type, Interval a, Interval b) {
+        if (a.isEmpty() || b.isEmpty()) {
+            return Interval.point(0);
+        }
+
+        boolean alwaysTrue; // Whether the comparison holds for every pair of values
+        boolean alwaysFalse; // Whether the comparison fails for every pair of values
+
+        switch (type) {
+            case Expression.LESS:
+                alwaysTrue = a.getHigh() < b.getLow();
+                alwaysFalse = a.getLow() >= b.getHigh();
+                break;
+            case Expression.LESS_EQUAL:
+                alwaysTrue = a.getHigh() <= b.getLow();
+                alwaysFalse = a.getLow() > b.getHigh();
+                break;
+            case Expression.GREATER:
+                alwaysTrue = a.getLow() > b.getHigh();
+                alwaysFalse = a.getHigh() <= b.getLow();
+                break;
+            case Expression.GREATER_EQUAL:
+                alwaysTrue = a.getLow() >= b.getHigh();
+                alwaysFalse = a.getHigh() < b.getLow();
+                break;
+            case Expression.EQUAL:
+                alwaysTrue = a.getLow() == a.getHigh() && b.getLow() == b.getHigh() && a.getLow() == b.getLow();
+                alwaysFalse = a.getHigh() < b.getLow() || b.getHigh() < a.getLow();
+                break;
+            default:
+                alwaysTrue = a.getHigh() < b.getLow() || b.getHigh() < a.getLow();
+                alwaysFalse = a.getLow() == a.getHigh() && b.getLow() == b.getHigh() && a.getLow() == b.getLow();
+                break;
+        }
+
+        if (alwaysTrue) {
+            return Interval.point(1);
+        } else if (alwaysFalse) {
+            return Interval.point(0);
+        }
+        return new Interval(0, 1);
+    }
+
+    /**
+     * Multiplies two intervals.
+     *
+     * @param a left operand
+     * @param b right operand
+     * @return product
+     */
+    private static Interval multiply(Interval a, Interval b) {
+        double p1 = multiplyEnds(a.getLow(), b.getLow()); // Products of ends
+        double p2 = multiplyEnds(a.getLow(), b.getHigh());
+        double p3 = multiplyEnds(a.getHigh(), b.getLow());
+        double p4 = multiplyEnds(a.getHigh(), b.getHigh());
+
+        return Interval.outward(Math.min(Math.min(p1, p2), Math.min(p3, p4)),
+                Math.max(Math.max(p1, p2), Math.max(p3, p4)), 1);
+    }
+
+    /**
+     * Multiplies two ends of intervals, where zero times infinity is zero.
+     *
+     * @param a left end
+     * @param b right end
+     * @return product
+     */
+    private static double multiplyEnds(double a, double b) {
+        return (a == 0 || b == 0) ? 0 : a * b;
+    }
+
+    /**
+     * Divides two intervals. Values where the divisor is zero are undefined and left out.
+     *
+     * @param a numerator
+     * @param b denominator
+     * @return quotient
+     */
+    private static Interval divide(Interval a, Interval b) {
+        Interval reciprocal; // Reciprocal of denominator
+
+        if (b.getLow() == 0 && b.getHigh() == 0) {
+            return Interval.EMPTY;
+        } else if (b.getLow() > 0 || b.getHigh() < 0) {
+            reciprocal = Interval.outward(1 / b.getHigh(), 1 / b.getLow(), 1);
+        } else if (b.getLow() == 0) {
+            reciprocal = new Interval(Math.nextDown(1 / b.getHigh()), Double.POSITIVE_INFINITY);
+        } else if (b.getHigh() == 0) {
+            reciprocal = new Interval(Double.NEGATIVE_INFINITY, Math.nextUp(1 / b.getLow()));
+        } else {
+            return Interval.ENTIRE; // Denominator crosses zero, so the quotient is unbounded on both sides
+        }
+        return multiply(a, reciprocal);
+    }
+
+    /**
+     * Raises an interval to an interval power.
+     *
+     * @param a base
+     * @param b exponent
+     * @return power
+     */
+    private static Interval power(Interval a, Interval b) {
+        double n = b.getLow(); // Exponent, if it is a single value
+
+        if (n == b.getHigh() && n == Math.rint(n) && Math.abs(n) < 1L << 53) {
+            return integerPower(a, n);
+        }
+        if (a.getHigh() < 0) {
+            return n == b.getHigh() ? Interval.EMPTY : Interval.ENTIRE;
+        } else if (a.getLow() < 0 && n != b.getHigh()) {
+            return Interval.ENTIRE; // Negative bases are defined for the integers in the exponent range
+        }
+
+        // For a non-negative base, the power only changes in one direction along each operand
+        double low = Math.max(a.getLow(), 0); // Defined part of base
+        double p1 = Math.pow(low, b.getLow()); // Powers at corners
+        double p2 = Math.pow(low, b.getHigh());
+        double p3 = Math.pow(a.getHigh(), b.getLow());
+        double p4 = Math.pow(a.getHigh(), b.getHigh());
+
+        Interval result = Interval.outward(Math.min(Math.min(p1, p2), Math.min(p3, p4)),
+                Math.max(Math.max(p1, p2), Math.max(p3, p4)), LIBRARY_ULPS);
+        return new Interval(Math.max(result.getLow(), 0), result.getHigh());
+    }
+
+    /**
+     * Raises an interval to an integer power.
+     *
+     * @param a base
+     * @param n integer exponent
+     * @return power
+     */
+    private static Interval integerPower(Interval a, double n) {
+        if (n == 0) {
+            return Interval.point(1);
+        } else if (n < 0) {
+            return divide(Interval.point(1), integerPower(a, -n));
+        }
+
+        double low = Math.pow(a.getLow(), n); // Power of low end
+        double high = Math.pow(a.getHigh(), n); // Power of high end
+
+        if (n % 2 == 1 || a.getLow() >= 0) {
+            return Interval.outward(low, high, LIBRARY_ULPS); // Increasing
+        } else if (a.getHigh() <= 0) {
+            return Interval.outward(high, low, LIBRARY_ULPS); // Even power of negative values is decreasing
+        } else {
+            return new Interval(0, Interval.outward(0, Math.max(low, high), LIBRARY_ULPS).getHigh());
+        }
+    }
+
+    /**
+     * Finds the range of sine or cosine over an interval.
+     *
+     * @param a operand
+     * @param low function at low end
+     * @param high function at high end
+     * @param peak x value of a maximum
+     * @param trough x value of a minimum
+     * @return range of the function
+     */
+    private static Interval periodic(Interval a, double low, double high, double peak, double trough) {
+        if (a.getHigh() - a.getLow() >= TWO_PI || Math.abs(a.getLow()) > MAX_PERIODIC
+                || Math.abs(a.getHigh()) > MAX_PERIODIC) {
+            return new Interval(-1, 1);
+        }
+
+        Interval result = Interval.outward(Math.min(low, high), Math.max(low, high), LIBRARY_ULPS);
+        double min = containsPeriodic(a, trough, TWO_PI) ? -1 : Math.max(result.getLow(), -1); // Low end
+        double max = containsPeriodic(a, peak, TWO_PI) ? 1 : Math.min(result.getHigh(), 1); // High end
+
+        return new Interval(min, max);
+    }
+
+    /**
+     * Finds the range of tangent over an interval.
+     *
+     * @param a operand
+     * @return range of tangent
+     */
+    private static Interval tan(Interval a) {
+        if (a.getHigh() - a.getLow() >= Math.PI || Math.abs(a.getLow()) > MAX_PERIODIC
+                || Math.abs(a.getHigh()) > MAX_PERIODIC || containsPeriodic(a, Math.PI / 2, Math.PI)) {
+            return Interval.ENTIRE; // Crosses an asymptote
+        }
+        return Interval.outward(Math.tan(a.getLow()), Math.tan(a.getHigh()), LIBRARY_ULPS);
+    }
+
+    /**
+     * Returns whether an interval may contain a point that repeats with a period. Points within rounding error of
+     * the ends are counted as inside, so the answer is never wrongly false.
+     *
+     * @param a interval to check
+     * @param offset position of one point
+     * @param period distance between points
+     * @return whether a point may be in the interval
+     */
+    private static boolean containsPeriodic(Interval a, double offset, double period) {
+        double k = Math.floor((a.getLow() - offset) / period); // Index of point just below interval
+        double tolerance = 1e-14 * Math.max(1, Math.max(Math.abs(a.getLow()), Math.abs(a.getHigh())));
+
+        for (double j = k - 1; j <= k + 2; j++) {
+            double point = offset + j * period; // Position of point
+
+            if (point >= a.getLow() - tolerance && point <= a.getHigh() + tolerance) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
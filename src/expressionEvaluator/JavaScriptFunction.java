@@ -0,0 +1,284 @@
+package expressionEvaluator;
+
+import javax.script.Compilable;
+import javax.script.Invocable;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * JavaScriptFunction class that defines a function once in a script engine and calls it with numeric arguments, so
+ * the script is only parsed when the function changes instead of for every x value.
+ */
+
+public class JavaScriptFunction implements DoubleUnaryOperator {
+
+    private static final String FUNCTION_NAME = "f"; // Name of function for a single x value
+    private static final String BATCH_NAME = "fArray"; // Name of function for an array of x values
+    private static final String[] COMPARISONS =
+            new String[]{"<", "<=", ">", ">=", "==", "!="}; // Javascript comparison operators in type order
+
+    private final Invocable invocable; // Engine holding the defined functions
+
+    /**
+     * Main constructor.
+     *
+     * @param engine script engine to define the function in
+     * @param expression function to define
+     * @param parameters parameter values, written into the script as constants
+     * @throws ScriptException if the engine cannot define the function
+     */
+    public JavaScriptFunction(ScriptEngine engine, Expression expression, double[] parameters)
+            throws ScriptException {
+        if (!(engine instanceof Invocable)) {
+            throw new ScriptException("Script engine cannot call functions");
+        }
+
+        String script = createScript(expression, parameters); // Script defining the functions
+
+        if (engine instanceof Compilable) {
+            ((Compilable) engine).compile(script).eval();
+        } else {
+            engine.eval(script);
+        }
+        this.invocable = (Invocable) engine;
+    }
+
+    /**
+     * Evaluates the function for a x value.
+     *
+     * @param x x value
+     * @return y value at x of function
+     */
+    @Override
+    public double applyAsDouble(double x) {
+        try {
+            return ((Number) invocable.invokeFunction(FUNCTION_NAME, x)).doubleValue();
+        } catch (ScriptException | NoSuchMethodException e) {
+            throw new IllegalStateException("JavaScript function failed", e);
+        }
+    }
+
+    /**
+     * Evaluates the function for an array of x values in a single script call.
+     *
+     * @param xs x values
+     * @param ys array to store y values in
+     * @param from index of first value to evaluate
+     * @param to index after last value to evaluate
+     */
+    public void evaluate(double[] xs, double[] ys, int from, int to) {
+        try {
+            invocable.invokeFunction(BATCH_NAME, xs, ys, from, to);
+        } catch (ScriptException | NoSuchMethodException e) {
+            throw new IllegalStateException("JavaScript function failed", e);
+        }
+    }
+
+    /**
+     * Creates a script defining the function for a single x value and for an array of x values. Shared
+     * subexpressions are kept in variables so they are evaluated once.
+     *
+     * @param expression function to define
+     * @param parameters parameter values
+     * @return script
+     */
+    static String createScript(Expression expression, double[] parameters) {
+        Map<Expression, Integer> slots = ExpressionDag.findSlots(expression); // Slots of shared subexpressions
+        StringBuilder body = new StringBuilder(); // Expression in Javascript
+        StringBuilder script = new StringBuilder(); // Script
+
+        appendExpression(body, expression, parameters, slots,
+                Collections.newSetFromMap(new IdentityHashMap<Expression, Boolean>()));
+
+        script.append("function ").append(FUNCTION_NAME).append("(x) {");
+        for (int i = 0; i < slots.size(); i++) {
+            script.append(i == 0 ? " var s" : ", s").append(i);
+        }
+        script.append(slots.isEmpty() ? "" : ";").append(" return ").append(body).append("; }\n");
+        script.append("function ").append(BATCH_NAME).append("(xs, ys, from, to) {")
+                .append(" for (var i = from; i < to; i++) { ys[i] = ").append(FUNCTION_NAME).append("(xs[i]); } }\n");
+
+        return script.toString();
+    }
+
+    /**
+     * Appends an expression in Javascript, in the same order the expression is evaluated.
+     *
+     * @param js Javascript being built
+     * @param expression expression to append
+     * @param parameters parameter values
+     * @param slots slots of shared subexpressions
+     * @param stored shared subexpressions already assigned to their variable
+     */
+    private static void appendExpression(StringBuilder js, Expression expression, double[] parameters,
+                                         Map<Expression, Integer> slots, Set<Expression> stored) {
+        Integer slot = slots.get(expression); // Slot of shared subexpression
+
+        if (slot != null && stored.contains(expression)) {
+            js.append('s').append(slot);
+            return;
+        }
+        if (slot != null) {
+            js.append("(s").append(slot).append(" = ");
+        }
+
+        Expression left = expression.getLeft(); // Left operand
+        Expression right = expression.getRight(); // Right operand
+
+        switch (expression.getType()) {
+            case Expression.CONSTANT:
+                js.append('(').append(expression.getValue()).append(')');
+                break;
+            case Expression.VARIABLE:
+                js.append('x');
+                break;
+            case Expression.PARAMETER:
+                js.append('(').append(parameters[(int) expression.getValue()]).append(')');
+                break;
+            case Expression.POWER:
+                js.append("Math.pow(");
+                appendExpression(js, left, parameters, slots, stored);
+                js.append(", ");
+                appendExpression(js, right, parameters, slots, stored);
+                js.append(')');
+                break;
+            case Expression.NEGATE:
+                js.append("(-");
+                appendExpression(js, left, parameters, slots, stored);
+                js.append(')');
+                break;
+            case Expression.LOG:
+                js.append("(Math.log(");
+                appendExpression(js, left, parameters, slots, stored);
+                js.append(") / Math.LN10)");
+                break;
+            case Expression.IF:
+                js.append('(');
+                appendExpression(js, left, parameters, slots, stored);
+                js.append(" ? ");
+                appendBranch(js, right, parameters, slots, stored);
+                js.append(" : ");
+                appendBranch(js, expression.getThird(), parameters, slots, stored);
+                js.append(')');
+                break;
+            case Expression.SUM:
+            case Expression.PRODUCT:
+                appendLoop(js, expression, parameters, slots, stored);
+                break;
+            case Expression.INDEX:
+                js.append('k').append((int) expression.getValue());
+                break;
+            case Expression.FUNCTION:
+                StringBuilder a = new StringBuilder(); // First argument
+                appendExpression(a, left, parameters, slots, stored);
+                StringBuilder b = null; // Second argument
+                if (right != null) {
+                    b = new StringBuilder();
+                    appendExpression(b, right, parameters, slots, stored);
+                }
+                js.append(expression.getFunction().toScript(a.toString(), b != null ? b.toString() : null));
+                break;
+            default:
+                if (expression.isComparison()) {
+                    js.append("((");
+                    appendExpression(js, left, parameters, slots, stored);
+                    js.append(' ').append(COMPARISONS[expression.getType() - Expression.LESS]).append(' ');
+                    appendExpression(js, right, parameters, slots, stored);
+                    js.append(") ? 1 : 0)");
+                } else if (expression.isBinary()) {
+                    js.append('(');
+                    appendExpression(js, left, parameters, slots, stored);
+                    js.append(' ').append("+-*/".charAt(expression.getType() - Expression.ADD)).append(' ');
+                    appendExpression(js, right, parameters, slots, stored);
+                    js.append(')');
+                } else {
+                    js.append("Math.").append(scriptFunctionName(expression.getType())).append('(');
+                    appendExpression(js, left, parameters, slots, stored);
+                    js.append(')');
+                }
+                break;
+        }
+
+        if (slot != null) {
+            js.append(')');
+            stored.add(expression);
+        }
+    }
+
+    /**
+     * Appends a branch of a conditional. Shared subexpressions first assigned in the branch are not assigned when
+     * the other branch is taken, so they are assigned again where they are next used.
+     *
+     * @param js Javascript being built
+     * @param expression branch to append
+     * @param parameters parameter values
+     * @param slots slots of shared subexpressions
+     * @param stored shared subexpressions already assigned to their variable
+     */
+    private static void appendBranch(StringBuilder js, Expression expression, double[] parameters,
+                                     Map<Expression, Integer> slots, Set<Expression> stored) {
+        Set<Expression> before = Collections.newSetFromMap(
+                new IdentityHashMap<Expression, Boolean>()); // Subexpressions assigned before the branch
+        before.addAll(stored);
+
+        appendExpression(js, expression, parameters, slots, stored);
+        stored.retainAll(before);
+    }
+
+    /**
+     * Appends a sum or product as a function that loops over its index, called with the rounded bounds. The index of
+     * a loop with level n is named kn, so nested loops can read the indices of enclosing loops.
+     *
+     * @param js Javascript being built
+     * @param expression loop to append
+     * @param parameters parameter values
+     * @param slots slots of shared subexpressions
+     * @param stored shared subexpressions already assigned to their variable
+     */
+    private static void appendLoop(StringBuilder js, Expression expression, double[] parameters,
+                                   Map<Expression, Integer> slots, Set<Expression> stored) {
+        String index = "k" + (int) expression.getValue(); // Name of index
+        boolean sum = expression.getType() == Expression.SUM; // Whether terms are added
+
+        js.append("(function (").append(index).append(", last) { if (!(last - ").append(index).append(" < ")
+                .append(Expression.MAX_TERMS).append(" && Math.abs(").append(index).append(") <= ")
+                .append((long) Expression.MAX_INDEX).append(" && Math.abs(last) <= ")
+                .append((long) Expression.MAX_INDEX).append(")) { return NaN; } var r = ").append(sum ? 0 : 1)
+                .append("; for (; ").append(index).append(" <= last; ").append(index).append("++) { r ")
+                .append(sum ? '+' : '*').append("= ");
+        appendBranch(js, expression.getThird(), parameters, slots, stored);
+        js.append("; } return r; })(Math.ceil(");
+        appendExpression(js, expression.getLeft(), parameters, slots, stored);
+        js.append("), Math.floor(");
+        appendExpression(js, expression.getRight(), parameters, slots, stored);
+        js.append("))");
+    }
+
+    /**
+     * Returns the name of the Javascript Math function for a function type.
+     *
+     * @param type type of function
+     * @return name of Math function
+     */
+    private static String scriptFunctionName(int type) {
+        switch (type) {
+            case Expression.SIN:
+                return "sin";
+            case Expression.COS:
+                return "cos";
+            case Expression.TAN:
+                return "tan";
+            case Expression.SQRT:
+                return "sqrt";
+            case Expression.LN:
+                return "log";
+            default:
+                throw new IllegalStateException("Unknown expression type " + type);
+        }
+    }
+}
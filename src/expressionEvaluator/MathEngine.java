@@ -5,9 +5,23 @@ import graph.GraphModel;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.DoubleUnaryOperator;
 
 /**
- * MathEngine class that provides methods to calculate graph information.
+ * MathEngine class that provides methods to calculate graph information. A math engine is used by the thread that
+ * sets its function; other threads evaluate the CompiledFunction it hands out.
  *
  * @author Kevin Zhou
  * @since 12/11/13
@@ -15,8 +29,23 @@ import javax.script.ScriptException;
 
 public class MathEngine {
 
-    private String function; // User entered function
-    private String functionJS; // Function for use in JS engine
+    private static final int MIN_CHUNK = Expression.BLOCK_SIZE; // Fewest x values evaluated as one parallel task
+    private static final int CHUNKS_PER_THREAD = 4; // Chunks per thread, so threads that finish early take more
+
+    private static final FunctionCache FUNCTION_CACHE =
+            new FunctionCache(FunctionCache.DEFAULT_CAPACITY); // Recently compiled functions, shared by all engines
+
+    private final FunctionWorkspace workspace = new FunctionWorkspace(); // User defined functions
+    private volatile String function; // User entered function
+    private volatile CompiledFunction compiled; // Compiled forms of function, safe to share between threads
+    private Expression expression; // Parsed function
+    private RPNProgram program; // Function as a reverse polish notation program
+    private double[] programStack; // Evaluation stack for program
+    private TieredFunction tieredFunction; // Function that is compiled once it is hot
+    private JavaScriptFunction scriptFunction; // Function defined in JS engine, created when first used
+    private boolean scriptFailed; // Whether the JS engine is missing or could not define the function
+    private ParseException parseError; // Error found while parsing the function
+    private final double[] parameters = new double[Expression.PARAMETER_COUNT]; // Values of parameters
 
     GraphModel model; // Model
 
@@ -33,30 +62,144 @@ public class MathEngine {
 
         scriptManager = new ScriptEngineManager();
         sEngine = scriptManager.getEngineByName("JavaScript");
+
+        Arrays.fill(parameters, 1);
     }
 
     /**
-     * Prepares the user function to be evaluated and sets the active function.
+     * Prepares the user function to be evaluated and sets the active function. A definition such as f(x)=x^2+1 is
+     * added to the workspace and becomes the active function.
      *
-     * @param inFunction user entered function
+     * @param inFunction user entered function or definition
      */
     public void setFunction(String inFunction) {
-        // Check hidden multiplication
-        inFunction = inFunction.replaceAll("([0-9])([a-z])", "$1*$2"); // e.g. 4x -> 4*x
-        inFunction = inFunction.replaceAll("([a-z])([0-9])", "$1*$2"); // e.g. x4 -> x*4
-        inFunction = inFunction.replaceAll("([0-9a-z]\\))\\(", "$1*("); // e.g. 4(x) -> 4*(x) or x(4) -> x*(4) or (x)(4) -> (x)*(4)
-        inFunction = inFunction.replaceAll("\\)([0-9a-z])", ")*$1"); // e.g. (x)4 -> (x)*4 or (4)x -> (4)*x
-
         this.function = inFunction;
 
-        // Convert functions to javascript-readable
-        inFunction = inFunction.replace("sin", "Math.sin");
-        inFunction = inFunction.replace("cos", "Math.cos");
-        inFunction = inFunction.replace("tan", "Math.tan");
-        inFunction = inFunction.replace("ln", "Math.log");
-        inFunction = inFunction.replace("sqrt", "Math.sqrt");
+        try {
+            this.compiled = compileFunction(inFunction).bind(parameters);
+            this.parseError = null;
+        } catch (ParseException e) {
+            this.compiled = null; // Invalid function
+            this.parseError = e;
+        }
+
+        this.expression = (compiled != null) ? compiled.getExpression() : null;
+        this.program = (compiled != null) ? compiled.getProgram() : null;
+        bindParameters();
+    }
+
+    /**
+     * Compiles a user entered function. Functions that do not use the workspace are shared through the cache.
+     *
+     * @param inFunction user entered function or definition
+     * @return compiled function
+     * @throws ParseException if the function is invalid
+     */
+    private CompiledFunction compileFunction(String inFunction) throws ParseException {
+        if (FunctionWorkspace.isDefinition(inFunction)) {
+            return workspace.get(workspace.define(inFunction).iterator().next());
+        } else if (workspace.calls(inFunction)) {
+            return workspace.compile(inFunction);
+        }
+        return FUNCTION_CACHE.get(inFunction);
+    }
+
+    /**
+     * Returns the user defined functions.
+     *
+     * @return function workspace
+     */
+    public FunctionWorkspace getWorkspace() {
+        return workspace;
+    }
+
+    /**
+     * Changes the value of a parameter. The function is bound to the new value without being parsed or compiled
+     * again.
+     *
+     * @param index index of parameter in Expression.PARAMETER_NAMES
+     * @param value new value of parameter
+     */
+    public void setParameter(int index, double value) {
+        parameters[index] = value;
+
+        if (compiled != null) {
+            this.compiled = compiled.bind(parameters);
+        }
+        bindParameters();
+    }
+
+    /**
+     * Returns the value of a parameter.
+     *
+     * @param index index of parameter in Expression.PARAMETER_NAMES
+     * @return value of parameter
+     */
+    public double getParameter(int index) {
+        return parameters[index];
+    }
+
+    /**
+     * Returns the names of the parameters used by the function.
+     *
+     * @return parameter names in alphabetical order, empty if the function is invalid
+     */
+    public char[] getParameterNames() {
+        return (compiled != null) ? compiled.getParameterNames() : new char[0];
+    }
+
+    /**
+     * Updates the forms of the function that hold parameter values after the function or a parameter changes.
+     */
+    private void bindParameters() {
+        this.scriptFunction = null;
+        this.scriptFailed = (sEngine == null);
+        this.programStack = (program != null) ? program.createStack() : null;
+        this.tieredFunction = (compiled != null) ? compiled.getTieredFunction() : null;
+
+        if (programStack != null) {
+            program.bind(programStack, parameters);
+        }
+    }
+
+    /**
+     * Returns the compiled form of the active function. Unlike the math engine, it can be evaluated on any number
+     * of threads, and it is not affected by later calls to setFunction.
+     *
+     * @return compiled function, or null if the function is invalid
+     */
+    public CompiledFunction getCompiledFunction() {
+        return compiled;
+    }
+
+    /**
+     * Compiles a function through the shared cache without changing the active function, for use by background or
+     * headless evaluation.
+     *
+     * @param function user entered function
+     * @return compiled function
+     * @throws ParseException if the function is invalid
+     */
+    public static CompiledFunction compile(String function) throws ParseException {
+        return FUNCTION_CACHE.get(function);
+    }
+
+    /**
+     * Returns the cache of recently compiled functions shared by all math engines.
+     *
+     * @return function cache
+     */
+    public static FunctionCache getFunctionCache() {
+        return FUNCTION_CACHE;
+    }
 
-        this.functionJS = inFunction;
+    /**
+     * Returns the error found while parsing the function.
+     *
+     * @return parse error, or null if the function is valid
+     */
+    public ParseException getParseError() {
+        return parseError;
     }
 
     /**
@@ -75,10 +218,24 @@ public class MathEngine {
      * @return y value at x of function
      */
     public double evalExpression(double x) {
-        if (model.isUseJSEval()) {
-            return evalExpJS(x);
-        } else {
-            return evalExp(x);
+        switch (model.getEngine()) {
+            case GraphModel.ENGINE_JS:
+                return evalExpJS(x);
+            case GraphModel.ENGINE_COMPILED:
+                return evalExpCompiled(x);
+            case GraphModel.ENGINE_RPN:
+                return evalExp(x);
+            default:
+                return tieredFunction.applyAsDouble(x);
+        }
+    }
+
+    /**
+     * Requests the function to be compiled ahead of a bulk evaluation, such as a table or a zoom.
+     */
+    public void promoteFunction() {
+        if (tieredFunction != null && model.getEngine() == GraphModel.ENGINE_TIERED) {
+            tieredFunction.promote();
         }
     }
 
@@ -99,26 +256,296 @@ public class MathEngine {
      * @return y value at x of function
      */
     private double evalExp(double x) {
-        return EquationParser.evalExpression(function, x);
+        return program.eval(x, programStack);
+    }
+
+    /**
+     * Evaluates the function using the bytecode compiled function.
+     *
+     * @param x x value to evaluate for
+     * @return y value at x of function
+     */
+    private double evalExpCompiled(double x) {
+        return compiled.getCompiledFunction().applyAsDouble(x);
     }
 
     /**
-     * Evaluates the function using the Javascript engine.
+     * Evaluates the function using the Javascript engine, or the native engine if no Javascript engine is available.
      *
      * @param x x value to evaluate for
      * @return y value at x of function
      */
     private double evalExpJS(double x) {
-        String expression = functionJS.replaceAll("x", x + "");
-        Double result = null; // Result of evaluation
+        JavaScriptFunction function = getScriptFunction(); // Function defined in JS engine
+
+        if (function != null) {
+            try {
+                return function.applyAsDouble(x);
+            } catch (IllegalStateException e) {
+                scriptFailed = true;
+            }
+        }
+        return tieredFunction.applyAsDouble(x);
+    }
+
+    /**
+     * Defines the function in the Javascript engine the first time it is used.
+     *
+     * @return function defined in JS engine, or null if the JS engine is missing or failed
+     */
+    private JavaScriptFunction getScriptFunction() {
+        if (scriptFunction == null && !scriptFailed && expression != null) {
+            try {
+                scriptFunction = new JavaScriptFunction(sEngine, expression, parameters);
+            } catch (ScriptException e) {
+                scriptFailed = true;
+            }
+        }
+        return scriptFailed ? null : scriptFunction;
+    }
+
+    /**
+     * Returns whether functions can be evaluated with a Javascript engine.
+     *
+     * @return whether a JS engine is installed
+     */
+    public boolean isJSAvailable() {
+        return sEngine != null;
+    }
+
+    /**
+     * Evaluates the function for an array of x values.
+     *
+     * @param xs x values
+     * @param ys array to store y values in
+     * @param from index of first value to evaluate
+     * @param to index after last value to evaluate
+     */
+    public void evaluate(double[] xs, double[] ys, int from, int to) {
+        switch (model.getEngine()) {
+            case GraphModel.ENGINE_RPN:
+                for (int i = from; i < to; i++) {
+                    ys[i] = program.eval(xs[i], programStack);
+                }
+                break;
+            case GraphModel.ENGINE_TIERED:
+                tieredFunction.evaluate(xs, ys, from, to);
+                break;
+            case GraphModel.ENGINE_COMPILED:
+                DoubleUnaryOperator function = compiled.getCompiledFunction(); // Compiled function
+
+                for (int i = from; i < to; i++) {
+                    ys[i] = function.applyAsDouble(xs[i]);
+                }
+                break;
+            case GraphModel.ENGINE_JS:
+                JavaScriptFunction script = getScriptFunction(); // Function defined in JS engine
+
+                if (script != null) {
+                    try {
+                        script.evaluate(xs, ys, from, to);
+                        break;
+                    } catch (IllegalStateException e) {
+                        scriptFailed = true;
+                    }
+                }
+                tieredFunction.evaluate(xs, ys, from, to);
+                break;
+            default:
+                for (int i = from; i < to; i++) {
+                    ys[i] = evalExpression(xs[i]);
+                }
+                break;
+        }
+    }
+
+    /**
+     * Evaluates a compiled function for an array of x values on an executor, without using a math engine, so it may
+     * be called from any thread. The values are split into chunks that are evaluated at once, each by its own thread
+     * safe form of the function for the engine. The Javascript engine evaluates every chunk on the calling thread,
+     * since a script engine cannot be shared between threads, and is replaced by the tiered function on newer Java
+     * versions, which have no script engine. If the thread is interrupted, chunks not yet started are skipped and the
+     * threads running chunks are interrupted, which stops functions with sums or products early. The running chunks
+     * are waited for, so ys is no longer written to once this returns.
+     *
+     * @param function function to evaluate
+     * @param engine engine to evaluate with, as in GraphModel
+     * @param xs x values
+     * @param ys array to store y values in
+     * @param from index of first value to evaluate
+     * @param to index after last value to evaluate
+     * @param executor executor to evaluate the chunks on
+     * @throws InterruptedException if the thread is interrupted while waiting for the chunks
+     */
+    public static void evaluate(CompiledFunction function, int engine, double[] xs, double[] ys, int from, int to,
+                                ExecutorService executor) throws InterruptedException {
+        int threads = (executor instanceof ForkJoinPool) ? ((ForkJoinPool) executor).getParallelism()
+                : Runtime.getRuntime().availableProcessors(); // Threads the executor is expected to run
+        int blocks = (to - from + MIN_CHUNK - 1) / MIN_CHUNK; // Number of smallest chunks
+        int chunks = (engine == GraphModel.ENGINE_JS) ? 1
+                : Math.min(threads * CHUNKS_PER_THREAD, blocks); // Number of chunks, some to spare for balance
+
+        if (chunks <= 1) {
+            for (int start = from; start < to; start += MIN_CHUNK) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                createChunk(function, engine, xs, ys, start, Math.min(start + MIN_CHUNK, to)).run();
+            }
+            return;
+        }
+
+        final AtomicBoolean cancelled = new AtomicBoolean(); // Whether chunks not yet started are skipped
+        final Set<Thread> running = new HashSet<Thread>(); // Threads running chunks, interrupted when cancelled
+        final CountDownLatch finished = new CountDownLatch(chunks); // Chunks that have finished or been skipped
+        List<Future<?>> results = new ArrayList<Future<?>>(chunks); // Results of chunks
+
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            int start = from + (int) ((long) blocks * chunk / chunks) * MIN_CHUNK; // First value in chunk
+            int end = Math.min(from + (int) ((long) blocks * (chunk + 1) / chunks) * MIN_CHUNK, to);
+            final Runnable task = createChunk(function, engine, xs, ys, start, end); // Chunk to evaluate
+
+            results.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    Thread thread = Thread.currentThread(); // Thread running the chunk
+
+                    try {
+                        synchronized (running) {
+                            if (cancelled.get()) {
+                                return;
+                            }
+                            running.add(thread);
+                        }
+                        try {
+                            task.run();
+                        } finally {
+                            synchronized (running) {
+                                running.remove(thread);
+                                if (cancelled.get()) {
+                                    Thread.interrupted(); // Clears the interrupt meant for this chunk only
+                                }
+                            }
+                        }
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            }));
+        }
 
         try {
-            result = (Double) sEngine.eval(expression);
-        } catch (ScriptException e) {
+            finished.await();
+        } catch (InterruptedException e) {
+            synchronized (running) {
+                cancelled.set(true);
+                for (Thread thread : running) {
+                    thread.interrupt();
+                }
+            }
+            while (finished.getCount() > 0) {
+                try {
+                    finished.await();
+                } catch (InterruptedException again) {
+                    // Still interrupted; the first interrupt is thrown once the running chunks finish
+                }
+            }
+            throw e;
+        }
 
+        try {
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
         }
+    }
 
-        return result;
+    /**
+     * Creates a task that evaluates a chunk of x values with an engine. The interpreter gets its own stack, while the
+     * compiled and tiered forms are already safe to share. The Javascript form is called by one chunk at a time, and
+     * the tiered form is used instead if there is no script engine or the script fails. A function with sums or
+     * products stops early if the thread is interrupted, leaving the values not yet found as NaN.
+     *
+     * @param function function to evaluate
+     * @param engine engine to evaluate with
+     * @param xs x values
+     * @param ys array to store y values in
+     * @param from index of first value to evaluate
+     * @param to index after last value to evaluate
+     * @return task evaluating the chunk
+     */
+    private static Runnable createChunk(CompiledFunction function, int engine, final double[] xs,
+                                        final double[] ys, final int from, final int to) {
+        final boolean loops = function.getExpression().getIndexCount() > 0; // Whether values may take long
+
+        switch (engine) {
+            case GraphModel.ENGINE_RPN:
+                final RPNProgram rpn = function.getProgram(); // Program of function
+                final double[] stack = function.createStack(); // Stack used only by this chunk
+
+                return new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = from; i < to; i++) {
+                            if (loops && Thread.currentThread().isInterrupted()) {
+                                Arrays.fill(ys, i, to, Double.NaN);
+                                return;
+                            }
+                            ys[i] = rpn.eval(xs[i], stack);
+                        }
+                    }
+                };
+            case GraphModel.ENGINE_COMPILED:
+                final DoubleUnaryOperator compiledFunction = function.getCompiledFunction(); // Compiled function
+
+                return new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = from; i < to; i++) {
+                            if (loops && Thread.currentThread().isInterrupted()) {
+                                Arrays.fill(ys, i, to, Double.NaN);
+                                return;
+                            }
+                            ys[i] = compiledFunction.applyAsDouble(xs[i]);
+                        }
+                    }
+                };
+            case GraphModel.ENGINE_JS:
+                final JavaScriptFunction script = function.getScriptFunction(); // Function defined in JS engine
+                final TieredFunction fallback = function.getTieredFunction(); // Function used if the script fails
+
+                if (script != null) {
+                    return new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                synchronized (script) {
+                                    script.evaluate(xs, ys, from, to);
+                                }
+                            } catch (IllegalStateException e) {
+                                fallback.evaluate(xs, ys, from, to);
+                            }
+                        }
+                    };
+                }
+                // Falls through to the tiered function, since there is no script engine
+            default:
+                final TieredFunction tiered = function.getTieredFunction(); // Tiered form of function
+
+                return new Runnable() {
+                    @Override
+                    public void run() {
+                        tiered.evaluate(xs, ys, from, to);
+                    }
+                };
+        }
     }
 
     /**
@@ -127,50 +554,74 @@ public class MathEngine {
      * @param minX  minimum x value
      * @param maxX  maximum x value
      * @param scale how much the x values step by
-     * @return array of values for function
+     * @return x values followed by the y values of function, as two arrays
      */
-    public Double[][] evalExpression(double minX, double maxX, double scale) {
-        Double[][] values; // X and y values calculated for function
+    public double[][] evalExpression(double minX, double maxX, double scale) {
         int numValues = 0; // The number of values to calculate
 
         for (double i = minX; i <= maxX; i += scale) {
             numValues++;
         }
 
-        values = new Double[numValues][2];
+        promoteFunction();
+
+        double[] xs = new double[numValues]; // X values
+        double[] ys = new double[numValues]; // Y values
 
         int count = 0; // Keeps track of iterations in array
 
         for (double i = minX; i <= maxX; i += scale) {
-            values[count][0] = i;
-            values[count][1] = evalExpression(i);
-
+            xs[count] = i;
             count++;
         }
 
-        return values;
+        evaluate(xs, ys, 0, numValues);
+
+        return new double[][]{xs, ys};
+    }
+
+    /**
+     * Finds bounds on the function over a range of x values.
+     *
+     * @param minX minimum x value
+     * @param maxX maximum x value
+     * @return interval guaranteed to contain every y value of the function in the range
+     */
+    public Interval evalInterval(double minX, double maxX) {
+        return compiled.evalInterval(minX, maxX);
+    }
+
+    /**
+     * Evaluates the function at x in double-double precision. The selected engine is not used, since only the
+     * expression tree can be evaluated in double-double.
+     *
+     * @param x x value
+     * @return y value at x of function
+     */
+    public DoubleDouble evalExtended(DoubleDouble x) {
+        return compiled.evalExtended(x);
     }
 
     /**
-     * Finds first derivative of function at x.
+     * Finds a derivative of function at x. Derivatives are found symbolically the first time they are used, then
+     * compiled and kept with the function.
      *
+     * @param order order of derivative, from 1 to 3
      * @param x x value
-     * @return first derivative
+     * @return derivative at x
      */
-    private double deriv(double x) {
-        double h = 1e-6; // A really small number for use in calculation
-        return (f(x + h) - f(x)) / h;
+    private double deriv(int order, double x) {
+        return compiled.getDerivative(order).applyAsDouble(x);
     }
 
     /**
-     * Find second derivative of function at x.
+     * Evaluates the function and its first and second derivatives at x in a single pass.
      *
      * @param x x value
-     * @return second derivative
+     * @param result array to store f(x), f'(x) and, if it has room, f''(x) in
      */
-    private double deriv2(double x) {
-        double h = 1e-6; // A really small number for use in calculation
-        return (f(x + h) - 2.0 * f(x) + f(x - h)) / (h * h);
+    public void evalDerivatives(double x, double[] result) {
+        compiled.evalDerivatives(x, result);
     }
 
     /**
@@ -181,15 +632,17 @@ public class MathEngine {
      */
     public float[] calcExtreme(double x) {
         double tolerance = 1E-8; // Stop if  close enough
-        int max_count = 500; // Maximum number of Newton's method iterations
+        int max_count = 500; // Maximum number of iterations
         float[] result = new float[2]; // Result of calculation
+        double d1 = deriv(1, x); // First derivative at x
 
-        for (int count = 1; (java.lang.Math.abs(deriv(x)) > tolerance) && (count < max_count); count++) {
-            x = x - deriv(x) / deriv2(x);  //Newtons method.
+        for (int count = 1; (Math.abs(d1) > tolerance) && (count < max_count); count++) {
+            x = x - halleyStep(d1, deriv(2, x), deriv(3, x));
+            d1 = deriv(1, x);
         }
 
         // Results
-        if (Math.abs(deriv(x)) <= tolerance) {
+        if (Math.abs(d1) <= tolerance) {
             result[0] = (float) x;
             result[1] = (float) f(x);
         } else {
@@ -207,15 +660,18 @@ public class MathEngine {
      */
     public float[] calcZero(double x) {
         double tolerance = 1E-8; // Stop if close enough
-        int max_count = 500; // Maximum number of Newton's method iterations
+        int max_count = 500; // Maximum number of iterations
         float[] result = new float[1]; // Result of calculation
+        double[] y = new double[3]; // Function and its first and second derivatives at x
 
-        for (int count = 1; (Math.abs(f(x)) > tolerance) && (count < max_count); count++) {
-            x = x - f(x) / deriv(x);  //Newtons method.
+        evalDerivatives(x, y);
+        for (int count = 1; (Math.abs(y[0]) > tolerance) && (count < max_count); count++) {
+            x = x - halleyStep(y[0], y[1], y[2]);
+            evalDerivatives(x, y);
         }
 
         // Results
-        if (Math.abs(f(x)) <= tolerance) {
+        if (Math.abs(y[0]) <= tolerance) {
             result[0] = (float) x;
         } else {
             result = null; // Failed to find a zero
@@ -224,6 +680,24 @@ public class MathEngine {
         return result;
     }
 
+    /**
+     * Finds the step of Halley's method towards a zero of g, falling back to Newton's method if Halley's step
+     * cannot be taken.
+     *
+     * @param g value of g
+     * @param d1 first derivative of g
+     * @param d2 second derivative of g
+     * @return amount to subtract from x
+     */
+    private static double halleyStep(double g, double d1, double d2) {
+        double denominator = 2 * d1 * d1 - g * d2; // Denominator of Halley's step
+
+        if (denominator == 0 || Double.isNaN(denominator) || Double.isInfinite(denominator)) {
+            return g / d1; // Newton's method
+        }
+        return 2 * g * d1 / denominator;
+    }
+
     /**
      * Finds the greatest common denominator of a fraction.
      *
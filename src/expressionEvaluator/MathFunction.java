@@ -0,0 +1,114 @@
+package expressionEvaluator;
+
+/**
+ * MathFunction class that defines a named function of one or two arguments that can be used in equations, such as
+ * abs(x) or max(x, 2). A function supplies its value, its partial derivatives as expressions and its range over
+ * intervals, so it works with every evaluator. Functions are found through the FunctionRegistry, and are resolved
+ * when an equation is parsed, so calling one costs no lookup when the function is evaluated.
+ *
+ * Additional functions can be added without changing the parser by listing their classes in
+ * META-INF/services/expressionEvaluator.MathFunction. A function must always give the same result for the same
+ * arguments.
+ */
+
+public abstract class MathFunction {
+
+    private final String name; // Name used in equations
+    private final int arity; // Number of arguments
+
+    /**
+     * Main constructor.
+     *
+     * @param name name used in equations, made of letters only
+     * @param arity number of arguments, 1 or 2
+     */
+    protected MathFunction(String name, int arity) {
+        if (arity < 1 || arity > 2) {
+            throw new IllegalArgumentException("Functions take one or two arguments");
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (!Character.isLetter(name.charAt(i))) {
+                throw new IllegalArgumentException("Invalid function name '" + name + "'");
+            }
+        }
+        this.name = name;
+        this.arity = arity;
+    }
+
+    /**
+     * Evaluates the function.
+     *
+     * @param a first argument
+     * @param b second argument, or 0 for a function of one argument
+     * @return value of function
+     */
+    public abstract double apply(double a, double b);
+
+    /**
+     * Creates the partial derivative of the function with respect to one of its arguments. The chain rule is
+     * applied by the caller.
+     *
+     * @param argument index of argument, 0 or 1
+     * @param a first argument
+     * @param b second argument, or null for a function of one argument
+     * @return partial derivative in terms of the arguments
+     */
+    public abstract Expression derivative(int argument, Expression a, Expression b);
+
+    /**
+     * Finds the range of the function over intervals of its arguments. The result must contain every value of the
+     * function for arguments in the intervals.
+     *
+     * @param a range of first argument
+     * @param b range of second argument, or null for a function of one argument
+     * @return range of function
+     */
+    public abstract Interval apply(Interval a, Interval b);
+
+    /**
+     * Evaluates the function in double-double precision, for graphs zoomed in further than doubles can resolve. By
+     * default the arguments are rounded and the function is evaluated in double precision, so functions that can be
+     * found more precisely should override this.
+     *
+     * @param a first argument
+     * @param b second argument, or null for a function of one argument
+     * @return value of function
+     */
+    public DoubleDouble apply(DoubleDouble a, DoubleDouble b) {
+        return DoubleDouble.valueOf(apply(a.doubleValue(), b != null ? b.doubleValue() : 0));
+    }
+
+    /**
+     * Writes a call of the function in Javascript.
+     *
+     * @param a first argument in Javascript
+     * @param b second argument in Javascript, or null for a function of one argument
+     * @return call in Javascript
+     */
+    public String toScript(String a, String b) {
+        return "Math." + name + "(" + a + (b != null ? ", " + b : "") + ")";
+    }
+
+    /**
+     * Returns the name used in equations.
+     *
+     * @return function name
+     */
+    public final String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of arguments.
+     *
+     * @return number of arguments
+     */
+    public final int getArity() {
+        return arity;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,783 @@
+package expressionEvaluator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * RPNProgram class that holds a function as a flat reverse polish notation program of integer opcodes. The program
+ * is evaluated on a preallocated primitive stack, so evaluation does not allocate any objects. Shared subexpressions
+ * are evaluated once and kept in slots after the end of the stack, followed by the parameter values bound to the
+ * stack and the indices of sums and products. A sum or product runs as a loop over its body, so it takes the same
+ * space however many terms it has.
+ */
+
+public final class RPNProgram {
+
+    private static final int STORE = -1; // Copies top of stack into the slot that follows
+    private static final int LOAD = -2; // Pushes the slot that follows
+    private static final int JUMP_IF_FALSE = -3; // Pops a condition, jumping to the index that follows if false
+    private static final int JUMP = -4; // Jumps to the index that follows
+    private static final int LOOP_START = -5; // Starts a loop with the level that follows, or jumps to its end
+    private static final int LOOP_NEXT = -6; // Advances a loop with the level that follows, jumping to its body
+    private static final int LOOP_END = -7; // Replaces the bounds and result of a loop with its result
+
+    private final int[] code; // Opcodes, where constant, parameter, function, slot, jump and loop opcodes take an index
+    private final double[] constants; // Constant values
+    private final MathFunction[] functions; // Registered functions called
+    private final int maxDepth; // Maximum depth of the evaluation stack
+    private final int slotCount; // Number of slots for shared subexpressions
+    private final int parameterCount; // Number of parameter values kept after the slots
+    private final int indexCount; // Number of loop indices kept after the parameters
+    private volatile Expression[][] functionDerivatives; // First and second derivatives of each function call
+
+    /**
+     * Compiles an expression tree into a program.
+     *
+     * @param expression expression to compile
+     */
+    public RPNProgram(Expression expression) {
+        Map<Expression, Integer> slots = ExpressionDag.findSlots(expression); // Slots of shared subexpressions
+
+        Emitter emitter = new Emitter(countNodes(expression, Collections.newSetFromMap(
+                new IdentityHashMap<Expression, Boolean>())), slots); // Program being compiled
+        emitter.emit(expression);
+
+        code = Arrays.copyOf(emitter.code, emitter.codeLength);
+        constants = Arrays.copyOf(emitter.constants, emitter.constantCount);
+        functions = emitter.functions.toArray(new MathFunction[0]);
+        maxDepth = emitter.maxDepth;
+        slotCount = slots.size();
+        parameterCount = emitter.parameterCount;
+        indexCount = emitter.indexCount;
+    }
+
+    /**
+     * Creates a stack large enough to evaluate the program.
+     *
+     * @return evaluation stack
+     */
+    public double[] createStack() {
+        return new double[maxDepth + slotCount + parameterCount + indexCount];
+    }
+
+    /**
+     * Binds parameter values to a stack from createStack or createDerivativeStack.
+     *
+     * @param stack evaluation stack
+     * @param parameters parameter values, indexed as in Expression.PARAMETER_NAMES
+     */
+    public void bind(double[] stack, double[] parameters) {
+        System.arraycopy(parameters, 0, stack, maxDepth + slotCount, parameterCount);
+    }
+
+    /**
+     * Evaluates the program at a x value.
+     *
+     * @param x x value
+     * @param stack evaluation stack from createStack
+     * @return solution to evaluation
+     */
+    public double eval(double x, double[] stack) {
+        int indices = maxDepth + slotCount + parameterCount; // Index of loop indices in stack
+        int top = -1; // Index of top of stack
+
+        for (int pc = 0; pc < code.length; pc++) {
+            switch (code[pc]) {
+                case Expression.CONSTANT:
+                    stack[++top] = constants[code[++pc]];
+                    break;
+                case Expression.VARIABLE:
+                    stack[++top] = x;
+                    break;
+                case STORE:
+                    stack[maxDepth + code[++pc]] = stack[top];
+                    break;
+                case LOAD:
+                    stack[++top] = stack[maxDepth + code[++pc]];
+                    break;
+                case Expression.PARAMETER:
+                    stack[++top] = stack[maxDepth + slotCount + code[++pc]];
+                    break;
+                case JUMP_IF_FALSE:
+                    pc = Expression.isTrue(stack[top--]) ? pc + 1 : code[pc + 1] - 1;
+                    break;
+                case JUMP:
+                    pc = code[pc + 1] - 1;
+                    break;
+                case Expression.INDEX:
+                    stack[++top] = stack[indices + code[++pc]];
+                    break;
+                case LOOP_START:
+                    pc = startLoop(stack, top, indices + code[pc + 1]) ? pc + 2 : code[pc + 2] - 1;
+                    break;
+                case LOOP_NEXT:
+                    pc = nextLoop(stack, top, indices + code[pc + 1]) ? code[pc + 2] - 1 : pc + 2;
+                    break;
+                case LOOP_END:
+                    top -= 2;
+                    stack[top] = stack[top + 2];
+                    break;
+                case Expression.ADD:
+                    top--;
+                    stack[top] = stack[top] + stack[top + 1];
+                    break;
+                case Expression.SUBTRACT:
+                    top--;
+                    stack[top] = stack[top] - stack[top + 1];
+                    break;
+                case Expression.MULTIPLY:
+                    top--;
+                    stack[top] = stack[top] * stack[top + 1];
+                    break;
+                case Expression.DIVIDE:
+                    top--;
+                    stack[top] = stack[top] / stack[top + 1];
+                    break;
+                case Expression.POWER:
+                    top--;
+                    stack[top] = Math.pow(stack[top], stack[top + 1]);
+                    break;
+                case Expression.NEGATE:
+                    stack[top] = -stack[top];
+                    break;
+                case Expression.SIN:
+                    stack[top] = Math.sin(stack[top]);
+                    break;
+                case Expression.COS:
+                    stack[top] = Math.cos(stack[top]);
+                    break;
+                case Expression.TAN:
+                    stack[top] = Math.tan(stack[top]);
+                    break;
+                case Expression.SQRT:
+                    stack[top] = Math.sqrt(stack[top]);
+                    break;
+                case Expression.LOG:
+                    stack[top] = Math.log10(stack[top]);
+                    break;
+                case Expression.LN:
+                    stack[top] = Math.log(stack[top]);
+                    break;
+                case Expression.LESS:
+                case Expression.LESS_EQUAL:
+                case Expression.GREATER:
+                case Expression.GREATER_EQUAL:
+                case Expression.EQUAL:
+                case Expression.NOT_EQUAL:
+                    top--;
+                    stack[top] = compare(code[pc], stack[top], stack[top + 1]);
+                    break;
+                case Expression.FUNCTION:
+                    MathFunction function = functions[code[++pc]]; // Function applied
+                    if (function.getArity() == 2) {
+                        top--;
+                        stack[top] = function.apply(stack[top], stack[top + 1]);
+                    } else {
+                        stack[top] = function.apply(stack[top], 0);
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown opcode " + code[pc]);
+            }
+        }
+
+        return stack[0];
+    }
+
+    /**
+     * Creates a stack large enough to evaluate the program with its derivatives. Six more values follow the stack,
+     * which hold the arguments of a registered function while its derivatives are found.
+     *
+     * @return evaluation stack for evalDerivatives
+     */
+    public double[] createDerivativeStack() {
+        int n = maxDepth + slotCount + parameterCount + indexCount; // Offset between values and derivatives
+
+        if (functionDerivatives == null) {
+            functionDerivatives = createFunctionDerivatives(3 * n);
+        }
+        return new double[3 * n + (functions.length > 0 ? 6 : 0)];
+    }
+
+    /**
+     * Creates the first and second derivatives of each registered function, in terms of its arguments. Each
+     * argument is written as u + u'x + u''x^2/2, with u, u' and u'' read as parameters from the stack, so the
+     * derivatives at x = 0 are the derivatives of the function call by the chain rule.
+     *
+     * @param offset index of the arguments in the stack
+     * @return first and second derivatives of each function
+     */
+    private Expression[][] createFunctionDerivatives(int offset) {
+        Expression[][] derivatives = new Expression[functions.length][]; // Derivatives of each function
+
+        for (int i = 0; i < functions.length; i++) {
+            Expression b = functions[i].getArity() == 2 ? series(offset + 3) : null; // Second argument
+            Expression call = Expression.function(functions[i], series(offset), b); // Function of the arguments
+            Expression d1 = ExpressionDifferentiator.differentiate(call); // First derivative
+
+            derivatives[i] = new Expression[]{d1, ExpressionDifferentiator.differentiate(d1)};
+        }
+        return derivatives;
+    }
+
+    /**
+     * Creates u + u'x + u''x^2/2, whose value and derivatives at x = 0 are u, u' and u''.
+     *
+     * @param index index of u in the stack, followed by u' and u''
+     * @return series in x
+     */
+    private static Expression series(int index) {
+        Expression x = Expression.variable(); // Variable x
+        Expression half = Expression.binary(Expression.MULTIPLY, Expression.constant(0.5),
+                Expression.binary(Expression.MULTIPLY, x, x)); // x^2/2
+
+        return Expression.binary(Expression.ADD, Expression.parameter(index), Expression.binary(Expression.ADD,
+                Expression.binary(Expression.MULTIPLY, Expression.parameter(index + 1), x),
+                Expression.binary(Expression.MULTIPLY, Expression.parameter(index + 2), half)));
+    }
+
+    /**
+     * Evaluates the program and its first and second derivatives at a x value in a single pass. Each value on the
+     * stack carries its first and second derivatives (a hyper-dual number), which are updated by the rules of
+     * differentiation as each opcode is applied.
+     *
+     * @param x x value
+     * @param stack evaluation stack from createDerivativeStack
+     * @param result array to store f(x), f'(x) and f''(x) in
+     */
+    public void evalDerivatives(double x, double[] stack, double[] result) {
+        int n = maxDepth + slotCount + parameterCount + indexCount; // Offset between values and derivatives
+        int indices = maxDepth + slotCount + parameterCount; // Index of loop indices in stack
+        int top = -1; // Index of top of stack
+
+        for (int pc = 0; pc < code.length; pc++) {
+            int a = top - 1; // Left operand of binary opcode
+            int b = top; // Right operand of binary opcode
+
+            switch (code[pc]) {
+                case Expression.CONSTANT:
+                    top++;
+                    stack[top] = constants[code[++pc]];
+                    stack[n + top] = 0;
+                    stack[2 * n + top] = 0;
+                    break;
+                case Expression.VARIABLE:
+                    top++;
+                    stack[top] = x;
+                    stack[n + top] = 1;
+                    stack[2 * n + top] = 0;
+                    break;
+                case Expression.PARAMETER:
+                    top++;
+                    stack[top] = stack[maxDepth + slotCount + code[++pc]];
+                    stack[n + top] = 0;
+                    stack[2 * n + top] = 0;
+                    break;
+                case JUMP_IF_FALSE:
+                    pc = Expression.isTrue(stack[top--]) ? pc + 1 : code[pc + 1] - 1;
+                    break;
+                case JUMP:
+                    pc = code[pc + 1] - 1;
+                    break;
+                case Expression.INDEX:
+                    top++;
+                    stack[top] = stack[indices + code[++pc]];
+                    stack[n + top] = 0;
+                    stack[2 * n + top] = 0;
+                    break;
+                case LOOP_START:
+                    pc = startLoop(stack, top, indices + code[pc + 1]) ? pc + 2 : code[pc + 2] - 1;
+                    break;
+                case LOOP_NEXT:
+                    pc = nextLoop(stack, top, indices + code[pc + 1]) ? code[pc + 2] - 1 : pc + 2;
+                    break;
+                case LOOP_END:
+                    top -= 2;
+                    stack[top] = stack[top + 2];
+                    stack[n + top] = stack[n + top + 2];
+                    stack[2 * n + top] = stack[2 * n + top + 2];
+                    break;
+                case STORE:
+                    int slot = maxDepth + code[++pc]; // Index of slot
+                    stack[slot] = stack[top];
+                    stack[n + slot] = stack[n + top];
+                    stack[2 * n + slot] = stack[2 * n + top];
+                    break;
+                case LOAD:
+                    int from = maxDepth + code[++pc]; // Index of slot
+                    top++;
+                    stack[top] = stack[from];
+                    stack[n + top] = stack[n + from];
+                    stack[2 * n + top] = stack[2 * n + from];
+                    break;
+                case Expression.ADD:
+                    top--;
+                    stack[a] += stack[b];
+                    stack[n + a] += stack[n + b];
+                    stack[2 * n + a] += stack[2 * n + b];
+                    break;
+                case Expression.SUBTRACT:
+                    top--;
+                    stack[a] -= stack[b];
+                    stack[n + a] -= stack[n + b];
+                    stack[2 * n + a] -= stack[2 * n + b];
+                    break;
+                case Expression.MULTIPLY:
+                    top--;
+                    stack[2 * n + a] = stack[2 * n + a] * stack[b] + 2 * stack[n + a] * stack[n + b]
+                            + stack[a] * stack[2 * n + b]; // (uv)'' = u''v + 2u'v' + uv''
+                    stack[n + a] = stack[n + a] * stack[b] + stack[a] * stack[n + b];
+                    stack[a] = stack[a] * stack[b];
+                    break;
+                case Expression.DIVIDE:
+                    top--;
+                    double q = stack[a] / stack[b]; // Quotient
+                    double dq = (stack[n + a] - q * stack[n + b]) / stack[b]; // First derivative of quotient
+                    stack[2 * n + a] = (stack[2 * n + a] - 2 * dq * stack[n + b] - q * stack[2 * n + b]) / stack[b];
+                    stack[n + a] = dq;
+                    stack[a] = q;
+                    break;
+                case Expression.POWER:
+                    top--;
+                    power(stack, n, a, b);
+                    break;
+                case Expression.NEGATE:
+                    stack[top] = -stack[top];
+                    stack[n + top] = -stack[n + top];
+                    stack[2 * n + top] = -stack[2 * n + top];
+                    break;
+                case Expression.SIN:
+                    double sin = Math.sin(stack[top]); // Sine of operand
+                    double cos = Math.cos(stack[top]); // Cosine of operand
+                    chain(stack, n, top, sin, cos, -sin);
+                    break;
+                case Expression.COS:
+                    sin = Math.sin(stack[top]);
+                    cos = Math.cos(stack[top]);
+                    chain(stack, n, top, cos, -sin, -cos);
+                    break;
+                case Expression.TAN:
+                    double tan = Math.tan(stack[top]); // Tangent of operand
+                    chain(stack, n, top, tan, 1 + tan * tan, 2 * tan * (1 + tan * tan));
+                    break;
+                case Expression.SQRT:
+                    double sqrt = Math.sqrt(stack[top]); // Square root of operand
+                    chain(stack, n, top, sqrt, 0.5 / sqrt, -0.25 / (sqrt * stack[top]));
+                    break;
+                case Expression.LOG:
+                    double d = 1 / (stack[top] * Math.log(10)); // Derivative of log10 at operand
+                    chain(stack, n, top, Math.log10(stack[top]), d, -d / stack[top]);
+                    break;
+                case Expression.LN:
+                    chain(stack, n, top, Math.log(stack[top]), 1 / stack[top], -1 / (stack[top] * stack[top]));
+                    break;
+                case Expression.LESS:
+                case Expression.LESS_EQUAL:
+                case Expression.GREATER:
+                case Expression.GREATER_EQUAL:
+                case Expression.EQUAL:
+                case Expression.NOT_EQUAL:
+                    top--;
+                    stack[a] = compare(code[pc], stack[a], stack[b]);
+                    stack[n + a] = 0;
+                    stack[2 * n + a] = 0;
+                    break;
+                case Expression.FUNCTION:
+                    int index = code[++pc]; // Index of function
+                    if (functions[index].getArity() == 2) {
+                        top--;
+                        function(stack, n, a, b, functions[index], functionDerivatives[index]);
+                    } else {
+                        function(stack, n, top, -1, functions[index], functionDerivatives[index]);
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown opcode " + code[pc]);
+            }
+        }
+
+        result[0] = stack[0];
+        result[1] = stack[n];
+        if (result.length > 2) {
+            result[2] = stack[2 * n];
+        }
+    }
+
+    /**
+     * Applies a function to the value on top of the stack by the chain rule.
+     *
+     * @param stack evaluation stack
+     * @param n offset between values, first derivatives and second derivatives
+     * @param top index of top of stack
+     * @param value function at operand
+     * @param d1 first derivative of function at operand
+     * @param d2 second derivative of function at operand
+     */
+    private static void chain(double[] stack, int n, int top, double value, double d1, double d2) {
+        double du = stack[n + top]; // First derivative of operand
+
+        stack[2 * n + top] = d2 * du * du + d1 * stack[2 * n + top]; // f(u)'' = f''(u)u'^2 + f'(u)u''
+        stack[n + top] = d1 * du;
+        stack[top] = value;
+    }
+
+    /**
+     * Starts a loop whose bounds and starting result are on top of the stack. The bounds are rounded to the first
+     * and last index, and the first index is stored.
+     *
+     * @param stack evaluation stack
+     * @param top index of top of stack, which holds the result
+     * @param index index of the loop index in the stack
+     * @return whether the body should be evaluated, or false if there are no terms or the bounds are invalid
+     */
+    private static boolean startLoop(double[] stack, int top, int index) {
+        double first = Math.ceil(stack[top - 2]); // First index
+        double last = Math.floor(stack[top - 1]); // Last index
+
+        if (!Expression.isValidLoop(first, last)) {
+            stack[top] = Double.NaN;
+            return false;
+        }
+        stack[top - 2] = first;
+        stack[top - 1] = last;
+        stack[index] = first;
+        return first <= last;
+    }
+
+    /**
+     * Advances a loop to its next index.
+     *
+     * @param stack evaluation stack
+     * @param top index of top of stack, which holds the result
+     * @param index index of the loop index in the stack
+     * @return whether the body should be evaluated again
+     */
+    private static boolean nextLoop(double[] stack, int top, int index) {
+        double k = stack[top - 2] + 1; // Next index
+
+        stack[top - 2] = k;
+        stack[index] = k;
+        return k <= stack[top - 1];
+    }
+
+    /**
+     * Compares two values.
+     *
+     * @param type type of comparison
+     * @param a left operand
+     * @param b right operand
+     * @return 1 if the comparison holds, otherwise 0
+     */
+    private static double compare(int type, double a, double b) {
+        switch (type) {
+            case Expression.LESS:
+                return a < b ? 1 : 0;
+            case Expression.LESS_EQUAL:
+                return a <= b ? 1 : 0;
+            case Expression.GREATER:
+                return a > b ? 1 : 0;
+            case Expression.GREATER_EQUAL:
+                return a >= b ? 1 : 0;
+            case Expression.EQUAL:
+                return a == b ? 1 : 0;
+            default:
+                return a != b ? 1 : 0;
+        }
+    }
+
+    /**
+     * Applies a registered function to values on the stack, where each carries its derivatives.
+     *
+     * @param stack evaluation stack
+     * @param n offset between values, first derivatives and second derivatives
+     * @param a index of first argument
+     * @param b index of second argument, or -1 for a function of one argument
+     * @param function function to apply
+     * @param derivatives first and second derivatives of the function call from createFunctionDerivatives
+     */
+    private static void function(double[] stack, int n, int a, int b, MathFunction function,
+                                 Expression[] derivatives) {
+        int arguments = 3 * n; // Index of arguments read by the derivatives
+
+        for (int i = 0; i < 3; i++) {
+            stack[arguments + i] = stack[i * n + a];
+            if (b >= 0) {
+                stack[arguments + 3 + i] = stack[i * n + b];
+            }
+        }
+        stack[2 * n + a] = derivatives[1].eval(0, stack);
+        stack[n + a] = derivatives[0].eval(0, stack);
+        stack[a] = function.apply(stack[a], b >= 0 ? stack[b] : 0);
+    }
+
+    /**
+     * Raises the left operand to the right operand, where both carry their derivatives.
+     *
+     * @param stack evaluation stack
+     * @param n offset between values, first derivatives and second derivatives
+     * @param a index of base
+     * @param b index of exponent
+     */
+    private static void power(double[] stack, int n, int a, int b) {
+        double u = stack[a]; // Base
+        double du = stack[n + a]; // First derivative of base
+        double ddu = stack[2 * n + a]; // Second derivative of base
+        double v = stack[b]; // Exponent
+        double dv = stack[n + b]; // First derivative of exponent
+        double ddv = stack[2 * n + b]; // Second derivative of exponent
+        double value = Math.pow(u, v); // Power
+
+        if (dv == 0 && ddv == 0) {
+            // Constant exponent, also valid for negative bases
+            double d1 = v * Math.pow(u, v - 1); // Derivative of u^v with respect to u
+            double d2 = v * (v - 1) * Math.pow(u, v - 2); // Second derivative of u^v with respect to u
+
+            stack[2 * n + a] = d2 * du * du + d1 * ddu;
+            stack[n + a] = d1 * du;
+        } else {
+            // u^v = e^g with g = v ln(u)
+            double ln = Math.log(u); // Natural log of base
+            double dg = dv * ln + v * du / u; // First derivative of g
+            double ddg = ddv * ln + 2 * dv * du / u + v * (ddu * u - du * du) / (u * u); // Second derivative of g
+
+            stack[2 * n + a] = value * (dg * dg + ddg);
+            stack[n + a] = value * dg;
+        }
+        stack[a] = value;
+    }
+
+    /**
+     * Returns the maximum depth of the evaluation stack.
+     *
+     * @return maximum stack depth
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Counts the distinct nodes in an expression, counting shared nodes once.
+     *
+     * @param expression expression to count
+     * @param counted nodes already counted
+     * @return number of nodes
+     */
+    private static int countNodes(Expression expression, Set<Expression> counted) {
+        if (expression == null || !counted.add(expression)) {
+            return 0;
+        }
+        return 1 + countNodes(expression.getLeft(), counted) + countNodes(expression.getRight(), counted)
+                + countNodes(expression.getThird(), counted);
+    }
+
+    /**
+     * Emitter class that holds the state of a program while it is compiled.
+     */
+    private static class Emitter {
+
+        private int[] code; // Opcodes
+        private double[] constants; // Constant values
+        private List<MathFunction> functions = new ArrayList<MathFunction>(); // Registered functions called
+        private Map<Expression, Integer> slots; // Slots of shared subexpressions
+        private Set<Expression> stored = Collections.newSetFromMap(
+                new IdentityHashMap<Expression, Boolean>()); // Shared subexpressions already in a slot
+        private int codeLength; // Number of opcodes emitted
+        private int constantCount; // Number of constants emitted
+        private int depth; // Current stack depth
+        private int maxDepth; // Maximum stack depth
+        private int parameterCount; // One more than the highest parameter index used
+        private int indexCount; // One more than the highest loop level used
+
+        /**
+         * Main constructor.
+         *
+         * @param nodes number of distinct nodes in the expression, used as a first guess of the program size
+         * @param slots slots of shared subexpressions
+         */
+        private Emitter(int nodes, Map<Expression, Integer> slots) {
+            this.code = new int[nodes * 4];
+            this.constants = new double[nodes];
+            this.slots = slots;
+        }
+
+        /**
+         * Emits the opcodes for an expression in postfix order.
+         *
+         * @param expression expression to emit
+         */
+        private void emit(Expression expression) {
+            Integer slot = slots.get(expression); // Slot of shared subexpression
+
+            if (slot != null && stored.contains(expression)) {
+                put(LOAD);
+                put(slot);
+                push();
+                return;
+            }
+
+            if (expression.getType() == Expression.CONSTANT) {
+                put(Expression.CONSTANT);
+                put(addConstant(expression.getValue()));
+                push();
+            } else if (expression.getType() == Expression.VARIABLE) {
+                put(Expression.VARIABLE);
+                push();
+            } else if (expression.getType() == Expression.PARAMETER) {
+                put(Expression.PARAMETER);
+                put((int) expression.getValue());
+                parameterCount = Math.max(parameterCount, (int) expression.getValue() + 1);
+                push();
+            } else if (expression.getType() == Expression.INDEX) {
+                put(Expression.INDEX);
+                put((int) expression.getValue());
+                push();
+            } else if (expression.isConditional()) {
+                emitConditional(expression);
+            } else if (expression.isLoop()) {
+                emitLoop(expression);
+            } else if (expression.isBinary()) {
+                emit(expression.getLeft());
+                emit(expression.getRight());
+                emitOperation(expression);
+                depth--;
+            } else {
+                emit(expression.getLeft());
+                emitOperation(expression);
+            }
+
+            if (slot != null) {
+                put(STORE);
+                put(slot);
+                stored.add(expression);
+            }
+        }
+
+        /**
+         * Emits a conditional as a jump over the branch that is not taken, so only one branch is evaluated.
+         * Shared subexpressions first stored in a branch are stored again where they are next used, since the
+         * other branch may have been taken.
+         *
+         * @param expression conditional expression
+         */
+        private void emitConditional(Expression expression) {
+            emit(expression.getLeft());
+            put(JUMP_IF_FALSE);
+            int toOtherwise = put(0); // Index of jump target to patch
+            depth--;
+
+            Set<Expression> before = Collections.newSetFromMap(
+                    new IdentityHashMap<Expression, Boolean>()); // Subexpressions stored before the branches
+            before.addAll(stored);
+
+            emit(expression.getRight());
+            stored.retainAll(before);
+            put(JUMP);
+            int toEnd = put(0); // Index of jump target to patch
+            depth--;
+
+            code[toOtherwise] = codeLength;
+            emit(expression.getThird());
+            stored.retainAll(before);
+            code[toEnd] = codeLength;
+        }
+
+        /**
+         * Emits a sum or product as a loop that adds or multiplies its body into the result on the stack, below
+         * which the bounds are kept. Shared subexpressions first stored in the body are stored again where they are
+         * next used, since they may depend on the index.
+         *
+         * @param expression loop expression
+         */
+        private void emitLoop(Expression expression) {
+            int level = (int) expression.getValue(); // Level of loop
+
+            emit(expression.getLeft());
+            emit(expression.getRight());
+            put(Expression.CONSTANT);
+            put(addConstant(expression.getType() == Expression.SUM ? 0 : 1));
+            push();
+
+            put(LOOP_START);
+            put(level);
+            int toEnd = put(0); // Index of jump target to patch
+            int body = codeLength; // Index of first opcode of body
+
+            Set<Expression> before = Collections.newSetFromMap(
+                    new IdentityHashMap<Expression, Boolean>()); // Subexpressions stored before the body
+            before.addAll(stored);
+
+            emit(expression.getThird());
+            stored.retainAll(before);
+            put(expression.getType() == Expression.SUM ? Expression.ADD : Expression.MULTIPLY);
+            depth--;
+            put(LOOP_NEXT);
+            put(level);
+            put(body);
+
+            code[toEnd] = codeLength;
+            put(LOOP_END);
+            depth -= 2;
+            indexCount = Math.max(indexCount, level + 1);
+        }
+
+        /**
+         * Emits the opcode of an operation, followed by the index of the function for a function call.
+         *
+         * @param expression unary or binary expression
+         */
+        private void emitOperation(Expression expression) {
+            put(expression.getType());
+            if (expression.getType() == Expression.FUNCTION) {
+                int index = functions.indexOf(expression.getFunction()); // Index of function
+
+                if (index < 0) {
+                    index = functions.size();
+                    functions.add(expression.getFunction());
+                }
+                put(index);
+            }
+        }
+
+        /**
+         * Appends an opcode or its operand to the program, making room if the program is full. Shared
+         * subexpressions re-emitted after a branch or loop can make the program longer than its first guess.
+         *
+         * @param word opcode or operand
+         * @return index of the word in the program
+         */
+        private int put(int word) {
+            if (codeLength == code.length) {
+                code = Arrays.copyOf(code, code.length * 2);
+            }
+            code[codeLength] = word;
+            return codeLength++;
+        }
+
+        /**
+         * Adds a constant to the program, making room if the constants are full.
+         *
+         * @param value constant value
+         * @return index of the constant
+         */
+        private int addConstant(double value) {
+            if (constantCount == constants.length) {
+                constants = Arrays.copyOf(constants, constants.length * 2);
+            }
+            constants[constantCount] = value;
+            return constantCount++;
+        }
+
+        /**
+         * Records a value pushed onto the stack.
+         */
+        private void push() {
+            depth++;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+    }
+}
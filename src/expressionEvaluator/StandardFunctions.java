@@ -0,0 +1,382 @@
+package expressionEvaluator;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * StandardFunctions class that holds the functions registered by default, in addition to the functions built into
+ * the parser.
+ */
+
+final class StandardFunctions {
+
+    private static final int LIBRARY_ULPS = 2; // Error allowed for Math library functions
+
+    static final MathFunction SIGN = new Increasing("sign", Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY) {
+        @Override
+        public double apply(double a, double b) {
+            return Math.signum(a);
+        }
+
+        @Override
+        public Expression derivative(int argument, Expression a, Expression b) {
+            return Expression.constant(0);
+        }
+
+        @Override
+        public String toScript(String a, String b) {
+            return "(" + a + " > 0 ? 1 : " + a + " < 0 ? -1 : " + a + ")"; // Math.sign is missing from older engines
+        }
+    };
+
+    static final MathFunction ABS = new MathFunction("abs", 1) {
+        @Override
+        public double apply(double a, double b) {
+            return Math.abs(a);
+        }
+
+        @Override
+        public Expression derivative(int argument, Expression a, Expression b) {
+            return Expression.function(SIGN, a, null); // abs(a)' = sign(a)
+        }
+
+        @Override
+        public Interval apply(Interval a, Interval b) {
+            if (a.getLow() >= 0) {
+                return a;
+            } else if (a.getHigh() <= 0) {
+                return new Interval(-a.getHigh(), -a.getLow());
+            }
+            return new Interval(0, Math.max(-a.getLow(), a.getHigh()));
+        }
+
+        @Override
+        public DoubleDouble apply(DoubleDouble a, DoubleDouble b) {
+            return a.abs();
+        }
+    };
+
+    static final MathFunction EXP = new Increasing("exp", Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY) {
+        @Override
+        public double apply(double a, double b) {
+            return Math.exp(a);
+        }
+
+        @Override
+        public Expression derivative(int argument, Expression a, Expression b) {
+            return Expression.function(this, a, null); // exp(a)' = exp(a)
+        }
+
+        @Override
+        public Interval apply(Interval a, Interval b) {
+            Interval result = super.apply(a, b); // Range, which may round below zero
+
+            return new Interval(Math.max(result.getLow(), 0), result.getHigh());
+        }
+
+        @Override
+        public DoubleDouble apply(DoubleDouble a, DoubleDouble b) {
+            return a.exp();
+        }
+    };
+
+    static final MathFunction ASIN = new Increasing("asin", -1, 1) {
+        @Override
+        public double apply(double a, double b) {
+            return Math.asin(a);
+        }
+
+        @Override
+        public Expression derivative(int argument, Expression a, Expression b) {
+            return Expression.binary(Expression.DIVIDE, Expression.constant(1),
+                    Expression.unary(Expression.SQRT, oneMinusSquare(a))); // asin(a)' = 1/sqrt(1-a^2)
+        }
+
+        @Override
+        public DoubleDouble apply(DoubleDouble a, DoubleDouble b) {
+            return a.divide(DoubleDouble.ONE.subtract(a.multiply(a)).sqrt()).atan(); // asin(a) = atan(a/sqrt(1-a^2))
+        }
+    };
+
+    static final MathFunction ACOS = new MathFunction("acos", 1) {
+        @Override
+        public double apply(double a, double b) {
+            return Math.acos(a);
+        }
+
+        @Override
+        public Expression derivative(int argument, Expression a, Expression b) {
+            return Expression.binary(Expression.DIVIDE, Expression.constant(-1),
+                    Expression.unary(Expression.SQRT, oneMinusSquare(a))); // acos(a)' = -1/sqrt(1-a^2)
+        }
+
+        @Override
+        public Interval apply(Interval a, Interval b) {
+            double low = Math.max(a.getLow(), -1); // Defined part of argument
+            double high = Math.min(a.getHigh(), 1);
+
+            if (low > high) {
+                return Interval.EMPTY;
+            }
+            return Interval.outward(Math.acos(high), Math.acos(low), LIBRARY_ULPS); // Decreasing
+        }
+
+        @Override
+        public DoubleDouble apply(DoubleDouble a, DoubleDouble b) {
+            return DoubleDouble.HALF_PI.subtract(ASIN.apply(a, null)); // acos(a) = pi/2 - asin(a)
+        }
+    };
+
+    static final MathFunction ATAN = new Increasing("atan", Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY) {
+        @Override
+        public double apply(double a, double b) {
+            return Math.atan(a);
+        }
+
+        @Override
+        public Expression derivative(int argument, Expression a, Expression b) {
+            return Expression.binary(Expression.DIVIDE, Expression.constant(1), Expression.binary(Expression.ADD,
+                    Expression.constant(1), Expression.binary(Expression.MULTIPLY, a, a))); // atan(a)' = 1/(1+a^2)
+        }
+
+        @Override
+        public DoubleDouble apply(DoubleDouble a, DoubleDouble b) {
+            return a.atan();
+        }
+    };
+
+    static final MathFunction SINH = new Increasing("sinh", Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY) {
+        @Override
+        public double apply(double a, double b) {
+            return Math.sinh(a);
+        }
+
+        @Override
+        public Expression derivative(int argument, Expression a, Expression b) {
+            return Expression.function(COSH, a, null);
+        }
+
+        @Override
+        public String toScript(String a, String b) {
+            return "((Math.exp(" + a + ") - Math.exp(-" + a + ")) / 2)";
+        }
+
+        @Override
+        public DoubleDouble apply(DoubleDouble a, DoubleDouble b) {
+            DoubleDouble exp = a.exp(); // e^a
+
+            return exp.subtract(DoubleDouble.ONE.divide(exp)).multiply(0.5);
+        }
+    };
+
+    static final MathFunction COSH = new MathFunction("cosh", 1) {
+        @Override
+        public double apply(double a, double b) {
+            return Math.cosh(a);
+        }
+
+        @Override
+        public Expression derivative(int argument, Expression a, Expression b) {
+            return Expression.function(SINH, a, null);
+        }
+
+        @Override
+        public Interval apply(Interval a, Interval b) {
+            Interval distance = ABS.apply(a, null); // Distance of argument from zero, where cosh is smallest
+            Interval result = Interval.outward(Math.cosh(distance.getLow()), Math.cosh(distance.getHigh()),
+                    LIBRARY_ULPS);
+
+            return new Interval(Math.max(result.getLow(), 1), result.getHigh());
+        }
+
+        @Override
+        public String toScript(String a, String b) {
+            return "((Math.exp(" + a + ") + Math.exp(-" + a + ")) / 2)";
+        }
+
+        @Override
+        public DoubleDouble apply(DoubleDouble a, DoubleDouble b) {
+            DoubleDouble exp = a.exp(); // e^a
+
+            return exp.add(DoubleDouble.ONE.divide(exp)).multiply(0.5);
+        }
+    };
+
+    static final MathFunction TANH = new Increasing("tanh", Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY) {
+        @Override
+        public double apply(double a, double b) {
+            return Math.tanh(a);
+        }
+
+        @Override
+        public Expression derivative(int argument, Expression a, Expression b) {
+            return oneMinusSquare(Expression.function(this, a, null)); // tanh(a)' = 1 - tanh(a)^2
+        }
+
+        @Override
+        public Interval apply(Interval a, Interval b) {
+            Interval result = super.apply(a, b); // Range, which may round past -1 or 1
+
+            return new Interval(Math.max(result.getLow(), -1), Math.min(result.getHigh(), 1));
+        }
+
+        @Override
+        public String toScript(String a, String b) {
+            return "(1 - 2 / (Math.exp(2 * " + a + ") + 1))";
+        }
+
+        @Override
+        public DoubleDouble apply(DoubleDouble a, DoubleDouble b) {
+            return DoubleDouble.ONE.subtract(DoubleDouble.valueOf(2).divide(a.multiply(2).exp().add(DoubleDouble.ONE)));
+        }
+    };
+
+    static final MathFunction FLOOR = new Increasing("floor", Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY) {
+        @Override
+        public double apply(double a, double b) {
+            return Math.floor(a);
+        }
+
+        @Override
+        public Expression derivative(int argument, Expression a, Expression b) {
+            return Expression.constant(0);
+        }
+
+        @Override
+        public DoubleDouble apply(DoubleDouble a, DoubleDouble b) {
+            return a.floor();
+        }
+    };
+
+    static final MathFunction CEIL = new Increasing("ceil", Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY) {
+        @Override
+        public double apply(double a, double b) {
+            return Math.ceil(a);
+        }
+
+        @Override
+        public Expression derivative(int argument, Expression a, Expression b) {
+            return Expression.constant(0);
+        }
+
+        @Override
+        public DoubleDouble apply(DoubleDouble a, DoubleDouble b) {
+            return a.ceil();
+        }
+    };
+
+    static final MathFunction MIN = new MathFunction("min", 2) {
+        @Override
+        public double apply(double a, double b) {
+            return Math.min(a, b);
+        }
+
+        @Override
+        public Expression derivative(int argument, Expression a, Expression b) {
+            return argument == 0 ? step(b, a) : step(a, b);
+        }
+
+        @Override
+        public Interval apply(Interval a, Interval b) {
+            return new Interval(Math.min(a.getLow(), b.getLow()), Math.min(a.getHigh(), b.getHigh()));
+        }
+
+        @Override
+        public DoubleDouble apply(DoubleDouble a, DoubleDouble b) {
+            double order = a.compare(b); // Order of arguments
+
+            return Double.isNaN(order) ? DoubleDouble.NaN : order <= 0 ? a : b;
+        }
+    };
+
+    static final MathFunction MAX = new MathFunction("max", 2) {
+        @Override
+        public double apply(double a, double b) {
+            return Math.max(a, b);
+        }
+
+        @Override
+        public Expression derivative(int argument, Expression a, Expression b) {
+            return argument == 0 ? step(a, b) : step(b, a);
+        }
+
+        @Override
+        public Interval apply(Interval a, Interval b) {
+            return new Interval(Math.max(a.getLow(), b.getLow()), Math.max(a.getHigh(), b.getHigh()));
+        }
+
+        @Override
+        public DoubleDouble apply(DoubleDouble a, DoubleDouble b) {
+            double order = a.compare(b); // Order of arguments
+
+            return Double.isNaN(order) ? DoubleDouble.NaN : order >= 0 ? a : b;
+        }
+    };
+
+    static final List<MathFunction> ALL = Arrays.asList(SIGN, ABS, EXP, ASIN, ACOS, ATAN, SINH, COSH, TANH,
+            FLOOR, CEIL, MIN, MAX); // Functions registered by default
+
+    /**
+     * Private constructor; the functions are constants.
+     */
+    private StandardFunctions() {
+    }
+
+    /**
+     * Creates 1 - a^2.
+     *
+     * @param a operand
+     * @return expression of 1 - a^2
+     */
+    private static Expression oneMinusSquare(Expression a) {
+        return Expression.binary(Expression.SUBTRACT, Expression.constant(1),
+                Expression.binary(Expression.MULTIPLY, a, a));
+    }
+
+    /**
+     * Creates a step that is 1 where a is greater than b, 0 where it is less and 1/2 where they are equal.
+     *
+     * @param a first operand
+     * @param b second operand
+     * @return expression of (1 + sign(a - b)) / 2
+     */
+    private static Expression step(Expression a, Expression b) {
+        return Expression.binary(Expression.DIVIDE, Expression.binary(Expression.ADD, Expression.constant(1),
+                Expression.function(SIGN, Expression.binary(Expression.SUBTRACT, a, b), null)),
+                Expression.constant(2));
+    }
+
+    /**
+     * Increasing class for functions of one argument that never decrease over their domain, whose range over an
+     * interval is found from the ends of the interval.
+     */
+    private abstract static class Increasing extends MathFunction {
+
+        private final double min; // Lowest argument in domain
+        private final double max; // Highest argument in domain
+
+        /**
+         * Main constructor.
+         *
+         * @param name name used in equations
+         * @param min lowest argument in domain
+         * @param max highest argument in domain
+         */
+        private Increasing(String name, double min, double max) {
+            super(name, 1);
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public Interval apply(Interval a, Interval b) {
+            double low = Math.max(a.getLow(), min); // Defined part of argument
+            double high = Math.min(a.getHigh(), max);
+
+            if (low > high) {
+                return Interval.EMPTY;
+            }
+            return Interval.outward(apply(low, 0), apply(high, 0), LIBRARY_ULPS);
+        }
+    }
+}
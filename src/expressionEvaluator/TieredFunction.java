@@ -0,0 +1,203 @@
+package expressionEvaluator;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.Function;
+
+/**
+ * TieredFunction class that evaluates a function with the RPN interpreter first, then compiles it to bytecode in
+ * the background once it is hot and swaps to the compiled form. A tiered function may be evaluated by several
+ * threads at once. Binding new parameter values reuses the compiled class, so it is only compiled once. Arrays of
+ * x values are evaluated on the calling thread, so callers such as MathEngine.evaluate split them across their own
+ * executor. Functions with sums or products stop early if the thread is interrupted, since each value may take
+ * thousands of terms.
+ */
+
+public class TieredFunction implements DoubleUnaryOperator {
+
+    public static final int COMPILE_THRESHOLD = 4096; // Number of evaluations before the function is compiled
+
+    private static final ExecutorService COMPILER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Function compiler");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }); // Background thread that compiles hot functions
+
+    private final Expression expression; // Function to evaluate
+    private final RPNProgram program; // Interpreted form of function
+    private final double[] parameters; // Parameter values bound to function
+    private final boolean loops; // Whether the function has sums or products, which stop if interrupted
+    private final AtomicReference<Function<double[], DoubleUnaryOperator>> compiledClass; // Compiled class, shared
+                                                                                          // with other bindings
+    private volatile DoubleUnaryOperator current; // Current tier of function
+    private volatile boolean compiled; // Whether the current tier is compiled
+    private volatile boolean compileRequested; // Whether the function has been queued for compilation
+    private int evaluations; // Number of evaluations in the interpreter, approximate across threads
+
+    /**
+     * Main constructor.
+     *
+     * @param expression function to evaluate
+     */
+    public TieredFunction(Expression expression) {
+        this(expression, null, new double[Expression.PARAMETER_COUNT],
+                new AtomicReference<Function<double[], DoubleUnaryOperator>>());
+    }
+
+    /**
+     * Creates a tiered function bound to parameter values. Starts in the compiled tier if the class is already
+     * compiled.
+     *
+     * @param expression function to evaluate
+     * @param program interpreted form of function, or null to create it
+     * @param parameters parameter values
+     * @param compiledClass compiled class shared with other bindings
+     */
+    private TieredFunction(Expression expression, RPNProgram program, final double[] parameters,
+                           AtomicReference<Function<double[], DoubleUnaryOperator>> compiledClass) {
+        if (expression == null) {
+            throw new NullPointerException("Invalid function");
+        }
+
+        this.expression = expression;
+        this.program = (program != null) ? program : new RPNProgram(expression);
+        this.parameters = parameters;
+        this.compiledClass = compiledClass;
+        this.loops = expression.getIndexCount() > 0;
+
+        if (compiledClass.get() != null) {
+            this.current = compiledClass.get().apply(parameters);
+            this.compiled = true;
+            this.compileRequested = true;
+        } else {
+            final RPNProgram interpreted = this.program; // Interpreted form of function
+            final ThreadLocal<double[]> stacks = new ThreadLocal<double[]>() {
+                @Override
+                protected double[] initialValue() {
+                    double[] stack = interpreted.createStack(); // Evaluation stack
+
+                    interpreted.bind(stack, parameters);
+                    return stack;
+                }
+            }; // Evaluation stack for program on each thread
+
+            this.current = new DoubleUnaryOperator() {
+                @Override
+                public double applyAsDouble(double x) {
+                    return interpreted.eval(x, stacks.get());
+                }
+            };
+        }
+    }
+
+    /**
+     * Creates a copy of the function bound to new parameter values, without parsing or compiling it again.
+     *
+     * @param parameters parameter values, indexed as in Expression.PARAMETER_NAMES
+     * @return function bound to the values
+     */
+    public TieredFunction bind(double[] parameters) {
+        return new TieredFunction(expression, program, parameters.clone(), compiledClass);
+    }
+
+    /**
+     * Evaluates the function at x, counting evaluations until the function is compiled.
+     *
+     * @param x x value
+     * @return y value at x of function
+     */
+    @Override
+    public double applyAsDouble(double x) {
+        if (!compileRequested && ++evaluations >= COMPILE_THRESHOLD) {
+            promote();
+        }
+        return current.applyAsDouble(x);
+    }
+
+    /**
+     * Evaluates the function for an array of x values on the calling thread. A function with sums or products stops
+     * early if the thread is interrupted, leaving the values not yet found as NaN.
+     *
+     * @param xs x values
+     * @param ys array to store y values in
+     * @param from index of first value to evaluate
+     * @param to index after last value to evaluate
+     */
+    public void evaluate(double[] xs, double[] ys, int from, int to) {
+        if (compiled) {
+            DoubleUnaryOperator function = current; // Compiled function
+
+            for (int i = from; i < to; i++) {
+                if (loops && Thread.currentThread().isInterrupted()) {
+                    Arrays.fill(ys, i, to, Double.NaN);
+                    return;
+                }
+                ys[i] = function.applyAsDouble(xs[i]);
+            }
+        } else {
+            evaluations += to - from;
+            if (!compileRequested && evaluations >= COMPILE_THRESHOLD) {
+                promote();
+            }
+            expression.eval(xs, ys, from, to, parameters);
+        }
+    }
+
+    /**
+     * Queues the function to be compiled in the background. Used when a bulk evaluation is about to start.
+     */
+    public synchronized void promote() {
+        if (compileRequested) {
+            return;
+        }
+        compileRequested = true;
+
+        COMPILER.execute(new Runnable() {
+            @Override
+            public void run() {
+                current = compileBound();
+                compiled = true;
+            }
+        });
+    }
+
+    /**
+     * Returns the function compiled to bytecode, compiling it now if it is not compiled yet.
+     *
+     * @return compiled function
+     */
+    public DoubleUnaryOperator getCompiledFunction() {
+        if (!compiled) {
+            synchronized (this) {
+                compileRequested = true;
+                if (!compiled) {
+                    current = compileBound();
+                    compiled = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Creates the compiled function bound to the parameter values, compiling the class if no binding has yet.
+     *
+     * @return compiled function
+     */
+    private DoubleUnaryOperator compileBound() {
+        Function<double[], DoubleUnaryOperator> factory = compiledClass.get(); // Compiled class
+
+        if (factory == null) {
+            compiledClass.compareAndSet(null, ExpressionCompiler.compileFactory(expression));
+            factory = compiledClass.get();
+        }
+        return factory.apply(parameters);
+    }
+}
@@ -0,0 +1,46 @@
+package expressionEvaluator;
+
+/**
+ * Token class that holds one token of an equation produced by the lexer.
+ */
+
+final class Token {
+
+    static final int NUMBER = 0; // Number
+    static final int IDENTIFIER = 1; // Variable or function name
+    static final int OPERATOR = 2; // Operator
+    static final int LEFT_PAREN = 3; // Left parenthesis
+    static final int RIGHT_PAREN = 4; // Right parenthesis
+    static final int CALL = 5; // Call of a user defined function
+    static final int SEPARATOR = 6; // Comma between function arguments
+
+    final int type; // Type of token
+    final String text; // Text of token
+    final double value; // Value of number token
+    final int position; // Position of token in equation
+
+    /**
+     * Main constructor.
+     *
+     * @param type type of token
+     * @param text text of token
+     * @param value value of number token
+     * @param position position of token in equation
+     */
+    Token(int type, String text, double value, int position) {
+        this.type = type;
+        this.text = text;
+        this.value = value;
+        this.position = position;
+    }
+
+    /**
+     * Returns the text of the token.
+     *
+     * @return text of token
+     */
+    @Override
+    public String toString() {
+        return text;
+    }
+}
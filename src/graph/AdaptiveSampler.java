@@ -0,0 +1,333 @@
+package graph;
+
+import expressionEvaluator.CompiledFunction;
+import expressionEvaluator.MathEngine;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * AdaptiveSampler class that samples a function more densely where its graph bends. The window starts as a coarse
+ * grid, and every interval whose midpoint lies more than TOLERANCE pixels off the chord between its ends is halved,
+ * until the graph is straight to within a pixel, MAX_DEPTH is reached or the BUDGET runs out. Midpoints are found a
+ * round at a time, so each round is a single batch that can be evaluated in parallel. Intervals whose ends are both
+ * off screen are only split if interval arithmetic cannot rule out the graph crossing the window between them. Such
+ * intervals are marked coarse, so samples kept after a pan can be refined again where they come into view.
+ */
+
+final class AdaptiveSampler {
+
+    static final int INITIAL_SPACING = 4; // Pixels between samples of the initial grid
+    static final double TOLERANCE = 0.5; // Pixels the graph may stray from a chord before the chord is split
+    static final int MAX_DEPTH = 10; // Most times an interval of the initial grid is halved
+    static final int BUDGET = 8; // Most samples per pixel across the window
+
+    private static Scratch spare; // Scratch arrays of a finished job, kept for the next one
+
+    /**
+     * Private constructor; the sampler is static.
+     */
+    private AdaptiveSampler() {
+    }
+
+    /**
+     * Samples a function across part of a window. Both ends of the part are sampled.
+     *
+     * @param compiled function to sample
+     * @param engine engine used to evaluate function
+     * @param bounds bounds of window
+     * @param from location on screen of the left end of the part
+     * @param to location on screen of the right end of the part
+     * @param scaleX number of pixels per 1 unit along X-axis
+     * @param scaleY number of pixels per 1 unit along Y-axis
+     * @param executor executor to evaluate each round on
+     * @return samples in order of x, with their locations on screen
+     * @throws InterruptedException if the job was cancelled
+     */
+    static SampleBuffer sample(CompiledFunction compiled, int engine, Bounds bounds, double from, double to,
+                               double scaleX, double scaleY, ExecutorService executor) throws InterruptedException {
+        int pixels = (int) Math.ceil(to - from); // Number of pixels across the part
+        int budget = BUDGET * pixels + 2; // Most samples
+        int intervals = Math.max((pixels + INITIAL_SPACING - 1) / INITIAL_SPACING, 1); // Intervals of initial grid
+        SampleBuffer grid = SampleBuffer.acquire(budget); // Initial grid, every interval of which is refined
+        boolean complete = false; // Whether the grid was sampled
+
+        try {
+            for (int i = 0; i <= intervals; i++) {
+                grid.getWindowX()[i] = (i < intervals) ? from + (to - from) * i / intervals : to;
+                grid.getGraphX()[i] = bounds.getMinX() + grid.getWindowX()[i] / scaleX;
+                grid.getCoarse()[i] = i < intervals;
+            }
+            grid.setSize(intervals + 1);
+            MathEngine.evaluate(compiled, engine, grid.getGraphX(), grid.getGraphY(), 0, intervals + 1, executor);
+            complete = true;
+        } finally {
+            if (!complete) {
+                grid.release();
+            }
+        }
+        return refine(compiled, engine, bounds, grid, budget, scaleX, scaleY, executor);
+    }
+
+    /**
+     * Refines samples kept from an earlier window after a pan. Only the intervals left coarse, because they were off
+     * screen or the budget ran out, are split again, so the graph is as fine as if the window had been sampled anew.
+     *
+     * @param compiled function to sample
+     * @param engine engine used to evaluate function
+     * @param bounds bounds of window
+     * @param samples samples in order of x, with their locations on screen and coarse intervals, which are released
+     * @param scaleX number of pixels per 1 unit along X-axis
+     * @param scaleY number of pixels per 1 unit along Y-axis
+     * @param executor executor to evaluate each round on
+     * @return refined samples, with their locations on screen
+     * @throws InterruptedException if the job was cancelled
+     */
+    static SampleBuffer refine(CompiledFunction compiled, int engine, Bounds bounds, SampleBuffer samples,
+                               double scaleX, double scaleY, ExecutorService executor) throws InterruptedException {
+        int count = samples.getSize(); // Number of samples
+        int pixels = (int) Math.ceil(samples.getWindowX()[count - 1] - samples.getWindowX()[0]); // Pixels across
+        int budget = Math.max(BUDGET * pixels + 2, count); // Most samples
+        SampleBuffer copy = SampleBuffer.acquire(budget); // Samples, with room for the midpoints
+
+        try {
+            System.arraycopy(samples.getGraphX(), 0, copy.getGraphX(), 0, count);
+            System.arraycopy(samples.getGraphY(), 0, copy.getGraphY(), 0, count);
+            System.arraycopy(samples.getWindowX(), 0, copy.getWindowX(), 0, count);
+            System.arraycopy(samples.getCoarse(), 0, copy.getCoarse(), 0, count);
+            copy.getCoarse()[count - 1] = false;
+            copy.setSize(count);
+        } finally {
+            samples.release();
+        }
+        return refine(compiled, engine, bounds, copy, budget, scaleX, scaleY, executor);
+    }
+
+    /**
+     * Halves the coarse intervals of samples a round at a time, until the graph is straight to within TOLERANCE
+     * pixels, MAX_DEPTH rounds have passed or the budget runs out. Intervals that are hidden or that the budget had
+     * no room for are marked coarse afterwards.
+     *
+     * @param compiled function to sample
+     * @param engine engine used to evaluate function
+     * @param bounds bounds of window
+     * @param samples samples whose coarse intervals are to be split, with room for budget samples, which are released
+     * @param budget most samples
+     * @param scaleX number of pixels per 1 unit along X-axis
+     * @param scaleY number of pixels per 1 unit along Y-axis
+     * @param executor executor to evaluate each round on
+     * @return refined samples, with their locations on screen
+     * @throws InterruptedException if the job was cancelled
+     */
+    private static SampleBuffer refine(CompiledFunction compiled, int engine, Bounds bounds, SampleBuffer samples,
+                                       int budget, double scaleX, double scaleY, ExecutorService executor)
+            throws InterruptedException {
+        SampleBuffer current = samples; // Samples so far
+        SampleBuffer next = SampleBuffer.acquire(budget); // Samples after the current round
+        Scratch scratch = Scratch.acquire(budget); // Flags and midpoints of each round
+        boolean[] active = scratch.active; // Whether each interval is still to be split
+        boolean[] nextActive = scratch.nextActive;
+        double[] midX = scratch.midX; // X values of midpoints of the current round
+        double[] midY = scratch.midY;
+        boolean complete = false; // Whether sampling finished
+
+        try {
+            for (int i = 0; i < current.getSize(); i++) {
+                active[i] = current.getCoarse()[i];
+                current.getCoarse()[i] = false;
+            }
+
+            for (int depth = 0; depth < MAX_DEPTH; depth++) {
+                int count = current.getSize(); // Number of samples
+                int splits = 0; // Number of intervals to split this round
+
+                for (int i = 0; i < count - 1; i++) {
+                    if (active[i] && isHidden(compiled, current, i, bounds)) {
+                        active[i] = false;
+                        current.getCoarse()[i] = true;
+                    }
+                    if (active[i]) {
+                        midX[splits++] = bounds.getMinX()
+                                + (current.getWindowX()[i] + current.getWindowX()[i + 1]) / 2 / scaleX;
+                    }
+                }
+                if (splits == 0) {
+                    break;
+                } else if (count + splits > budget) {
+                    for (int i = 0; i < count - 1; i++) {
+                        if (active[i]) {
+                            current.getCoarse()[i] = true;
+                        }
+                    }
+                    break;
+                }
+
+                MathEngine.evaluate(compiled, engine, midX, midY, 0, splits, executor);
+                merge(current, active, midX, midY, next, nextActive, depth < MAX_DEPTH - 1, scaleY);
+
+                SampleBuffer buffer = current; // Swap buffers
+                current = next;
+                next = buffer;
+                boolean[] flags = active;
+                active = nextActive;
+                nextActive = flags;
+            }
+
+            for (int i = 0; i < current.getSize(); i++) {
+                current.getWindowY()[i] = (-current.getGraphY()[i] + bounds.getMaxY()) * scaleY;
+            }
+            complete = true;
+        } finally {
+            scratch.release();
+            next.release();
+            if (!complete) {
+                current.release();
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Returns whether the graph stays above or below the window across an interval, so splitting it would add only
+     * points that are never seen. The bounds of the function over the interval are only found when both ends are off
+     * screen.
+     *
+     * @param compiled function being sampled
+     * @param samples samples so far
+     * @param i index of sample at left end of interval
+     * @param bounds bounds of window
+     * @return whether the graph is hidden across the interval
+     */
+    private static boolean isHidden(CompiledFunction compiled, SampleBuffer samples, int i, Bounds bounds) {
+        if (isVisible(samples.getGraphY()[i], bounds) || isVisible(samples.getGraphY()[i + 1], bounds)) {
+            return false;
+        }
+        return !compiled.evalInterval(samples.getGraphX()[i], samples.getGraphX()[i + 1])
+                .intersects(bounds.getMinY(), bounds.getMaxY());
+    }
+
+    /**
+     * Returns whether a y value is within the window.
+     *
+     * @param y y value
+     * @param bounds bounds of window
+     * @return whether the value is on screen
+     */
+    private static boolean isVisible(double y, Bounds bounds) {
+        return y >= bounds.getMinY() && y <= bounds.getMaxY();
+    }
+
+    /**
+     * Inserts the midpoints of a round between the samples, marking the halves of each interval that strayed from
+     * its chord to be split again.
+     *
+     * @param samples samples before the round
+     * @param active whether each interval was split this round
+     * @param midX x values of the midpoints, in order
+     * @param midY y values of the midpoints
+     * @param merged buffer to store the samples with their midpoints in
+     * @param mergedActive array to store whether each new interval is to be split in
+     * @param deeper whether intervals may be split again
+     * @param scaleY number of pixels per 1 unit along Y-axis
+     */
+    private static void merge(SampleBuffer samples, boolean[] active, double[] midX, double[] midY,
+                              SampleBuffer merged, boolean[] mergedActive, boolean deeper, double scaleY) {
+        int count = samples.getSize(); // Number of samples before the round
+        int j = 0; // Index of next merged sample
+        int k = 0; // Index of next midpoint
+
+        for (int i = 0; i < count; i++) {
+            merged.getGraphX()[j] = samples.getGraphX()[i];
+            merged.getGraphY()[j] = samples.getGraphY()[i];
+            merged.getWindowX()[j] = samples.getWindowX()[i];
+            merged.getCoarse()[j] = samples.getCoarse()[i];
+            mergedActive[j] = false;
+            j++;
+
+            if (i < count - 1 && active[i]) {
+                double left = samples.getGraphY()[i]; // Y values at ends of interval
+                double right = samples.getGraphY()[i + 1];
+                boolean split = deeper && strays(left, midY[k], right, scaleY); // Whether to split halves again
+
+                merged.getGraphX()[j] = midX[k];
+                merged.getGraphY()[j] = midY[k];
+                merged.getWindowX()[j] = (samples.getWindowX()[i] + samples.getWindowX()[i + 1]) / 2;
+                merged.getCoarse()[j] = false;
+                mergedActive[j - 1] = split;
+                mergedActive[j] = split;
+                j++;
+                k++;
+            }
+        }
+        merged.setSize(j);
+    }
+
+    /**
+     * Returns whether the graph strays from the chord of an interval by more than TOLERANCE pixels at its midpoint.
+     * Intervals with an undefined or infinite value are split, so the edges of the domain and asymptotes are found,
+     * unless the function is undefined throughout.
+     *
+     * @param left y value at left end
+     * @param middle y value at midpoint
+     * @param right y value at right end
+     * @param scaleY number of pixels per 1 unit along Y-axis
+     * @return whether the interval should be split
+     */
+    private static boolean strays(double left, double middle, double right, double scaleY) {
+        if (Double.isNaN(left) && Double.isNaN(middle) && Double.isNaN(right)) {
+            return false;
+        }
+        return !(Math.abs(middle - (left + right) / 2) * scaleY <= TOLERANCE);
+    }
+
+    /**
+     * Scratch class that holds the arrays a job uses between rounds. The arrays of a finished job are kept, so
+     * sampling the window again does not allocate them anew. Like a SampleBuffer, they only grow, with room to spare.
+     */
+    private static final class Scratch {
+
+        private final boolean[] active; // Whether each interval is still to be split
+        private final boolean[] nextActive; // Whether each interval is to be split after the round
+        private final double[] midX; // X values of midpoints of a round
+        private final double[] midY; // Y values of midpoints of a round
+
+        /**
+         * Main constructor.
+         *
+         * @param capacity number of samples the arrays have room for
+         */
+        private Scratch(int capacity) {
+            this.active = new boolean[capacity];
+            this.nextActive = new boolean[capacity];
+            this.midX = new double[capacity];
+            this.midY = new double[capacity];
+        }
+
+        /**
+         * Takes the kept arrays if they have room for a number of samples, creating new ones otherwise.
+         *
+         * @param size number of samples
+         * @return scratch arrays, whose values are left from their last use
+         */
+        private static Scratch acquire(int size) {
+            synchronized (Scratch.class) {
+                if (spare != null && spare.midX.length >= size) {
+                    Scratch scratch = spare; // Kept arrays
+                    spare = null;
+                    return scratch;
+                }
+            }
+            return new Scratch(size + size / 2);
+        }
+
+        /**
+         * Keeps the arrays for the next job, unless larger ones are kept already.
+         */
+        private void release() {
+            synchronized (Scratch.class) {
+                if (spare == null || spare.midX.length < midX.length) {
+                    spare = this;
+                }
+            }
+        }
+    }
+}
@@ -23,6 +23,18 @@ public class Alert {
                 JOptionPane.ERROR_MESSAGE);
     }
 
+    /**
+     * Show alert for invalid function with details of the problem.
+     *
+     * @param message details of the problem
+     */
+    public static void showGraphError(String message) {
+        JOptionPane.showMessageDialog(null,
+                "Something went wrong while trying to graph this function.\n" + message,
+                "Error",
+                JOptionPane.ERROR_MESSAGE);
+    }
+
     /**
      * Show alert for invalid settings.
      *
@@ -317,24 +317,27 @@ public class GraphArea extends JPanel {
                 g2.setStroke(dashed);
             }
 
-            double[][] windowPoints = model.getWindowPoints(); // Points of graph
+            SampleBuffer samples = model.getSamples(); // Points of graph
 
-            if (windowPoints != null) {
-                for (int i = 0; i < windowPoints.length; i++) {
+            if (samples != null) {
+                double[] windowX = samples.getWindowX(); // Locations of points on screen
+                double[] windowY = samples.getWindowY();
+
+                for (int i = 0; i < samples.getSize(); i++) {
                     if (i == 0) {
-                        path.moveTo(windowPoints[i][0], windowPoints[i][1]);
+                        path.moveTo(windowX[i], windowY[i]);
                     }
 
                     if (draw) {
-                        path.lineTo(windowPoints[i][0], windowPoints[i][1]);
+                        path.lineTo(windowX[i], windowY[i]);
 
-                        if (windowPoints[i][1] < 0 || windowPoints[i][1] > height) {
+                        if (windowY[i] < 0 || windowY[i] > height) {
                             draw = false;
                         }
-                    } else if (windowPoints[i][1] < height && windowPoints[i][1] > 0) {
+                    } else if (windowY[i] < height && windowY[i] > 0) {
                         draw = true;
-                        path.moveTo(windowPoints[i-1][0], windowPoints[i-1][1]);
-                        path.lineTo(windowPoints[i][0], windowPoints[i][1]);
+                        path.moveTo(windowX[i-1], windowY[i-1]);
+                        path.lineTo(windowX[i], windowY[i]);
                     }
                 }
             }
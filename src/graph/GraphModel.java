@@ -1,10 +1,21 @@
 package graph;
 
+import expressionEvaluator.CompiledFunction;
+import expressionEvaluator.DoubleDouble;
 import expressionEvaluator.InputValidator;
 import expressionEvaluator.MathEngine;
 
+import javax.swing.*;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
+import java.text.ParseException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * GraphModel class that holds the methods and values used in the program.
@@ -29,7 +40,14 @@ public class GraphModel {
 
     private MathEngine mEngine; // Math engine
 
-    private boolean useJSEval; // Whether or not to use Javascript engine to evaluate function
+    private int engine; // Engine used to evaluate function
+
+    public static final int ENGINE_RPN = 0; // Native equation parser engine
+    public static final int ENGINE_JS = 1; // Javascript engine
+    public static final int ENGINE_COMPILED = 2; // Bytecode compiled engine
+    public static final int ENGINE_TIERED = 3; // Interpreted engine that compiles hot functions
+
+    public static final int EXTENDED_PRECISION_ULPS = 64; // Fewest doubles per pixel before double-double is used
 
     boolean tableValuesVisible; // Whether the table of values is visible
 
@@ -38,7 +56,24 @@ public class GraphModel {
     public static final int UNIT_DEGREES = 0; // Degrees unit
     public static final int UNIT_RADIANS = 1; // Radians unit
 
-    private double[][] windowPoints; // Pixel locations to plot graph
+    private SampleBuffer samples; // Points of graph and pixel locations to plot them at
+    private SampleWindow sampledWindow; // Window the points of graph were sampled in
+    private ExecutorService samplingExecutor = ForkJoinPool.commonPool(); // Executor the window is sampled on
+
+    public static final int BUSY_DELAY = 150; // Milliseconds a job runs before the busy overlay is shown
+
+    private final ExecutorService computeExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "Graph sampler");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }); // Background thread that samples the window
+    private Future<?> computeJob; // Sampling job in progress, cancelled when a newer one is started
+    private int computeGeneration; // Number of sampling jobs started
+    private final Timer busyTimer; // Shows the busy overlay once a job has run for BUSY_DELAY
+    private int stateBeforeBusy; // State restored once the busy overlay is hidden
 
     private int unitsX; // Units of X-axis
     private int unitsY; // Units of Y-axis
@@ -78,10 +113,19 @@ public class GraphModel {
      * Main constructor.
      */
     public GraphModel() {
+        busyTimer = new Timer(BUSY_DELAY, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                stateBeforeBusy = state;
+                setState(GraphInfo.STATE_BUSY);
+            }
+        });
+        busyTimer.setRepeats(false);
+
         mEngine = new MathEngine(this);
         mEngine.setFunction(function);
 
-        useJSEval = false;
+        engine = ENGINE_TIERED;
 
         tableValuesVisible = true;
 
@@ -125,6 +169,43 @@ public class GraphModel {
         updateAllViews();
     }
 
+    /**
+     * Sets the value of a parameter of the function and redraws the graph. The function is not parsed again, so
+     * this is fast enough to call while a slider is being dragged. While the value is still adjusting, only the graph
+     * is sampled again, and the table and other views are updated once the value is settled.
+     *
+     * @param index index of parameter in Expression.PARAMETER_NAMES
+     * @param value new value of parameter
+     * @param adjusting whether the value is still being adjusted, as while a slider is dragged
+     */
+    public void setParameter(int index, double value, boolean adjusting) {
+        mEngine.setParameter(index, value);
+
+        createWindowPoints();
+        if (!adjusting) {
+            updateAllViews();
+        }
+    }
+
+    /**
+     * Returns the value of a parameter of the function.
+     *
+     * @param index index of parameter in Expression.PARAMETER_NAMES
+     * @return value of parameter
+     */
+    public double getParameter(int index) {
+        return mEngine.getParameter(index);
+    }
+
+    /**
+     * Returns the names of the parameters used by the function.
+     *
+     * @return parameter names in alphabetical order
+     */
+    public char[] getParameterNames() {
+        return mEngine.getParameterNames();
+    }
+
     /**
      * Sets the graph line color.
      *
@@ -156,12 +237,12 @@ public class GraphModel {
     }
 
     /**
-     * Sets whether to use JS to evaluate function.
+     * Sets the engine used to evaluate the function.
      *
-     * @param useJSEval whether to use JS for function evaluation
+     * @param engine engine used for function evaluation
      */
-    public void setUseJSEval(boolean useJSEval) {
-        this.useJSEval = useJSEval;
+    public void setEngine(int engine) {
+        this.engine = engine;
     }
 
     /**
@@ -306,6 +387,21 @@ public class GraphModel {
         recalculateGraphData();
     }
 
+    /**
+     * Pans the graph by a number of pixels, as when it is dragged. The scale is unchanged, so only the strip that
+     * comes into view and the parts of the graph that were off screen are sampled.
+     *
+     * @param dx pixels to move the graph right
+     * @param dy pixels to move the graph down
+     */
+    public void pan(int dx, int dy) {
+        double shiftX = dx / scaleX; // Distance to move bounds
+        double shiftY = dy / scaleY;
+
+        setAreaBounds(new Bounds(areaBounds.getMinX() - shiftX, areaBounds.getMaxX() - shiftX,
+                areaBounds.getMinY() + shiftY, areaBounds.getMaxY() + shiftY));
+    }
+
     /**
      * Calculates the X and Y scale.
      */
@@ -372,47 +468,288 @@ public class GraphModel {
     }
 
     /**
-     * Creates points of graph to be plotted.
+     * Starts sampling the points of graph to be plotted on the background thread. Any job still running is cancelled,
+     * so only the latest window is finished, and the busy overlay is shown if the job takes more than BUSY_DELAY.
+     * The points are published to the view on the event thread once they are complete. When the window has only
+     * been panned since the last points were published, the points still in view are kept and only the strip that
+     * came into view and the intervals left coarse are sampled.
      */
     private void createWindowPoints() {
-        int range = width; // Number of points to plot
-
-        double[][] newWindowPoints;
+        final int range = width; // Number of points to plot
 
         if (range > 0) {
-            newWindowPoints = new double[range + 1][range + 1]; // Points to plot
+            final CompiledFunction compiled = mEngine.getCompiledFunction(); // Function, safe to use on any thread
 
-            double graphPointX; // X value of point on graph
-            double graphPointY; // Y value of point on graph
+            if (compiled == null) {
+                ParseException error = mEngine.getParseError(); // Reason function could not be parsed
 
-            double windowPointX; // X value of point on screen
-            double windowPointY; // Y value of point on screen
+                if (error != null) {
+                    Alert.showGraphError(error.getMessage() + " (position " + (error.getErrorOffset() + 1) + ")");
+                } else {
+                    Alert.showGraphError();
+                }
+                function = functionRestore;
+                mEngine.setFunction(functionRestore);
+                return;
+            }
 
-            int point = 0; // Point number
+            functionRestore = function;
 
-            for (int i = 0; i <= range; i++) {
-                graphPointX = getGraphRelativeX(i);
+            final int generation = ++computeGeneration; // Number of job, so results of older jobs are discarded
+            final SampleWindow window = new SampleWindow(compiled, engine, isExtendedPrecision(), new Bounds(
+                    areaBounds.getMinX(), areaBounds.getMaxX(), areaBounds.getMinY(), areaBounds.getMaxY()), range,
+                    scaleX, scaleY); // Window the job samples, which may change while it runs
+            final SampleBuffer retained = (samples != null && window.isPanOf(sampledWindow))
+                    ? retainSamples(window) : null; // Samples still in the window after a pan
+            final ExecutorService executor = samplingExecutor;
 
-                try {
-                    graphPointY = mEngine.evalExpression(graphPointX);
-                } catch (NullPointerException e) {
-                    Alert.showGraphError();
-                    function = functionRestore;
-                    mEngine.setFunction(functionRestore);
-                    return;
+            if (computeJob != null) {
+                computeJob.cancel(true);
+            }
+            if (state != GraphInfo.STATE_BUSY && !busyTimer.isRunning()) {
+                busyTimer.start();
+            }
+
+            computeJob = computeExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    SampleBuffer buffer = null; // Points sampled, or null if the job was cancelled or failed
+
+                    try {
+                        buffer = (retained != null) ? sampleExposed(window, retained, executor)
+                                : sampleWindow(window, executor);
+                    } catch (InterruptedException e) {
+                        return; // Replaced by a newer job, which publishes its own points
+                    } finally {
+                        final SampleBuffer samples = buffer; // Points to publish
+
+                        SwingUtilities.invokeLater(new Runnable() {
+                            @Override
+                            public void run() {
+                                publishWindowPoints(samples, window, generation);
+                            }
+                        });
+                    }
                 }
+            });
+        }
+    }
 
-                windowPointX = getRelativeX(graphPointX);
-                windowPointY = getRelativeY(graphPointY);
+    /**
+     * Samples the points of graph for a window, more densely where the graph bends. Deeply zoomed windows are sampled
+     * once per pixel in double-double precision instead. Only the window is used, so the model may change while the
+     * points are sampled.
+     *
+     * @param window window to sample
+     * @param executor executor to evaluate chunks of the window on
+     * @return sampled points
+     * @throws InterruptedException if the job was cancelled
+     */
+    private static SampleBuffer sampleWindow(SampleWindow window, ExecutorService executor)
+            throws InterruptedException {
+        if (!window.extended) {
+            return AdaptiveSampler.sample(window.compiled, window.engine, window.bounds, 0, window.range,
+                    window.scaleX, window.scaleY, executor);
+        }
 
-                newWindowPoints[point][0] = windowPointX;
-                newWindowPoints[point][1] = windowPointY;
+        SampleBuffer buffer = SampleBuffer.acquire(window.range + 1); // Pooled buffer to fill
+        boolean complete = false; // Whether every point was sampled
 
-                point++;
+        try {
+            createExtendedWindowPoints(window.compiled, buffer, window.bounds, window.scaleY);
+            complete = true;
+        } finally {
+            if (!complete) {
+                buffer.release();
             }
+        }
+        return buffer;
+    }
 
-            windowPoints = newWindowPoints;
-            functionRestore = function;
+    /**
+     * Copies the published points that are still in view after a pan, moved to where they are now on screen.
+     *
+     * @param window window after the pan
+     * @return points still in view, or null if too few are left to be worth keeping
+     */
+    private SampleBuffer retainSamples(SampleWindow window) {
+        double shiftX = (sampledWindow.bounds.getMinX() - window.bounds.getMinX()) * window.scaleX; // Pixels right
+        double shiftY = (window.bounds.getMaxY() - sampledWindow.bounds.getMaxY()) * window.scaleY; // Pixels down
+        SampleBuffer retained = SampleBuffer.acquire(samples.getSize()); // Points still in view
+        int count = 0; // Number of points still in view
+
+        for (int i = 0; i < samples.getSize(); i++) {
+            double x = samples.getWindowX()[i] + shiftX; // New location of point on screen
+
+            if (x >= 0 && x <= window.range) {
+                retained.getGraphX()[count] = samples.getGraphX()[i];
+                retained.getGraphY()[count] = samples.getGraphY()[i];
+                retained.getWindowX()[count] = x;
+                retained.getWindowY()[count] = samples.getWindowY()[i] + shiftY;
+                retained.getCoarse()[count] = samples.getCoarse()[i];
+                count++;
+            }
+        }
+
+        if (count < 2) {
+            retained.release();
+            return null;
+        }
+        retained.setSize(count);
+        return retained;
+    }
+
+    /**
+     * Samples the strips at the edges of a panned window that are not covered by the points kept from before the
+     * pan, and joins them with the kept points. The kept points were only refined for the earlier window, so the
+     * intervals between them that were left coarse are refined again for this window.
+     *
+     * @param window window to sample
+     * @param retained points kept from before the pan, which are released
+     * @param executor executor to evaluate chunks of the strips on
+     * @return sampled points across the whole window
+     * @throws InterruptedException if the job was cancelled
+     */
+    private static SampleBuffer sampleExposed(SampleWindow window, SampleBuffer retained, ExecutorService executor)
+            throws InterruptedException {
+        SampleBuffer left = null; // Points left of the kept points
+        SampleBuffer right = null; // Points right of the kept points
+        SampleBuffer buffer; // Joined points
+
+        try {
+            double first = retained.getWindowX()[0]; // Location of first kept point
+            double last = retained.getWindowX()[retained.getSize() - 1]; // Location of last kept point
+
+            if (first > 0) {
+                left = AdaptiveSampler.sample(window.compiled, window.engine, window.bounds, 0, first, window.scaleX,
+                        window.scaleY, executor);
+            }
+            if (last < window.range) {
+                right = AdaptiveSampler.sample(window.compiled, window.engine, window.bounds, last, window.range,
+                        window.scaleX, window.scaleY, executor);
+            }
+
+            int leftCount = (left != null) ? left.getSize() - 1 : 0; // Points taken from each part, dropping the
+            int rightCount = (right != null) ? right.getSize() - 1 : 0; // ends that repeat a kept point
+            int end = leftCount + retained.getSize() - 1; // Index of last kept point in joined points
+
+            buffer = SampleBuffer.acquire(end + 1 + rightCount);
+            copy(left, 0, buffer, 0, leftCount);
+            copy(retained, 0, buffer, leftCount, retained.getSize());
+            copy(right, 1, buffer, end + 1, rightCount);
+            buffer.getCoarse()[end] = right != null && right.getCoarse()[0]; // Interval after last kept point
+        } finally {
+            retained.release();
+            if (left != null) {
+                left.release();
+            }
+            if (right != null) {
+                right.release();
+            }
+        }
+        return AdaptiveSampler.refine(window.compiled, window.engine, window.bounds, buffer, window.scaleX,
+                window.scaleY, executor);
+    }
+
+    /**
+     * Copies points between sample buffers.
+     *
+     * @param source buffer to copy from, or null if there are no points to copy
+     * @param from index of first point to copy
+     * @param target buffer to copy to
+     * @param to index to copy the first point to
+     * @param count number of points to copy
+     */
+    private static void copy(SampleBuffer source, int from, SampleBuffer target, int to, int count) {
+        if (source != null) {
+            System.arraycopy(source.getGraphX(), from, target.getGraphX(), to, count);
+            System.arraycopy(source.getGraphY(), from, target.getGraphY(), to, count);
+            System.arraycopy(source.getWindowX(), from, target.getWindowX(), to, count);
+            System.arraycopy(source.getWindowY(), from, target.getWindowY(), to, count);
+            System.arraycopy(source.getCoarse(), from, target.getCoarse(), to, count);
+        }
+    }
+
+    /**
+     * Publishes sampled points to the view on the event thread, unless a newer job has been started since.
+     *
+     * @param buffer sampled points, or null if sampling failed
+     * @param window window the points were sampled in
+     * @param generation number of job that sampled the points
+     */
+    private void publishWindowPoints(SampleBuffer buffer, SampleWindow window, int generation) {
+        if (generation != computeGeneration) {
+            if (buffer != null) {
+                buffer.release();
+            }
+            return;
+        }
+
+        computeJob = null;
+        busyTimer.stop();
+
+        if (buffer == null) {
+            Alert.showGraphError();
+        } else {
+            SampleBuffer previous = samples; // Buffer replaced, which can be reused
+            samples = buffer;
+            sampledWindow = window;
+            if (previous != null) {
+                previous.release();
+            }
+        }
+
+        if (state == GraphInfo.STATE_BUSY) {
+            setState(stateBeforeBusy);
+        }
+        updateGraphView();
+    }
+
+    /**
+     * Returns whether the window is so small that the x or y values of neighbouring pixels are fewer than
+     * EXTENDED_PRECISION_ULPS doubles apart.
+     *
+     * @return whether the graph must be sampled in double-double precision
+     */
+    public boolean isExtendedPrecision() {
+        double stepX = (areaBounds.getMaxX() - areaBounds.getMinX()) / width; // Graph units per pixel
+        double stepY = (areaBounds.getMaxY() - areaBounds.getMinY()) / height;
+        double ulpX = Math.ulp(Math.max(Math.abs(areaBounds.getMinX()), Math.abs(areaBounds.getMaxX())));
+        double ulpY = Math.ulp(Math.max(Math.abs(areaBounds.getMinY()), Math.abs(areaBounds.getMaxY())));
+
+        return stepX < EXTENDED_PRECISION_ULPS * ulpX || stepY < EXTENDED_PRECISION_ULPS * ulpY;
+    }
+
+    /**
+     * Creates points of graph in double-double precision. The x value of each pixel and its y value are found to
+     * about 32 digits and only rounded to doubles once they are measured from the edge of the window.
+     *
+     * @param compiled function to plot
+     * @param buffer buffer to store points in, with one point per pixel
+     * @param bounds bounds of window
+     * @param scaleY number of pixels per 1 unit along Y-axis
+     * @throws InterruptedException if the job was cancelled
+     */
+    private static void createExtendedWindowPoints(CompiledFunction compiled, SampleBuffer buffer, Bounds bounds,
+                                                   double scaleY) throws InterruptedException {
+        int range = buffer.getSize() - 1; // Number of pixels across the window
+        DoubleDouble minX = DoubleDouble.valueOf(bounds.getMinX()); // Left edge of window
+        DoubleDouble maxY = DoubleDouble.valueOf(bounds.getMaxY()); // Top edge of window
+        DoubleDouble step = DoubleDouble.valueOf(bounds.getMaxX()).subtract(minX).divide(
+                DoubleDouble.valueOf(range)); // Graph units per pixel
+
+        for (int i = 0; i <= range; i++) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            DoubleDouble x = minX.add(step.multiply(i)); // X value of pixel
+            DoubleDouble y = compiled.evalExtended(x); // Y value of pixel
+
+            buffer.getGraphX()[i] = x.doubleValue();
+            buffer.getGraphY()[i] = y.doubleValue();
+            buffer.getWindowX()[i] = i;
+            buffer.getWindowY()[i] = maxY.subtract(y).multiply(scaleY).doubleValue();
         }
     }
 
@@ -761,12 +1098,30 @@ public class GraphModel {
     }
 
     /**
-     * Returns function points to plot on window.
+     * Sets the executor the visible window is sampled on, such as a pool sized for a dedicated machine.
+     *
+     * @param samplingExecutor executor to evaluate chunks of the window on
+     */
+    public void setSamplingExecutor(ExecutorService samplingExecutor) {
+        this.samplingExecutor = samplingExecutor;
+    }
+
+    /**
+     * Returns the executor the visible window is sampled on.
+     *
+     * @return sampling executor, the common fork/join pool by default
+     */
+    public ExecutorService getSamplingExecutor() {
+        return samplingExecutor;
+    }
+
+    /**
+     * Returns function points to plot on window. The buffer is replaced, not changed, when the graph is redrawn.
      *
-     * @return function points to plot on window
+     * @return function points to plot on window, or null if none have been created
      */
-    public double[][] getWindowPoints() {
-        return windowPoints;
+    public SampleBuffer getSamples() {
+        return samples;
     }
 
     /**
@@ -813,18 +1168,19 @@ public class GraphModel {
     }
 
     /**
-     * Returns whether to use Javascript evaluation engine.
+     * Returns the engine used to evaluate the function.
      *
-     * @return whether to use Javascript evaluation engine
+     * @return engine used for function evaluation
      */
-    public boolean isUseJSEval() {
-        return useJSEval;
+    public int getEngine() {
+        return engine;
     }
 
     /**
      * Updates the graph values.
      */
     private void recalculateGraphData() {
+        mEngine.promoteFunction(); // Function is being resampled, so it is worth compiling
         updateWindowScale();
         createWindowPoints();
         updateAllViews();
@@ -841,6 +1197,13 @@ public class GraphModel {
         view.updateInfo();
     }
 
+    /**
+     * Updates the graph layer.
+     */
+    private void updateGraphView() {
+        view.updateGraph();
+    }
+
     /**
      * Updates visibility of table of values
      */
@@ -855,4 +1218,57 @@ public class GraphModel {
         view.updateAll();
     }
 
+
+    /**
+     * SampleWindow class that holds the settings a window is sampled with, so a sampling job is not affected by
+     * later changes to the model.
+     */
+    private static final class SampleWindow {
+
+        private static final double SCALE_TOLERANCE = 1e-9; // Relative change in scale still counted as a pan
+
+        private final CompiledFunction compiled; // Function to plot
+        private final int engine; // Engine used to evaluate function
+        private final boolean extended; // Whether to sample in double-double precision
+        private final Bounds bounds; // Bounds of window
+        private final int range; // Number of pixels across the window
+        private final double scaleX; // Number of pixels per 1 unit along X-axis
+        private final double scaleY; // Number of pixels per 1 unit along Y-axis
+
+        /**
+         * Main constructor.
+         *
+         * @param compiled function to plot
+         * @param engine engine used to evaluate function
+         * @param extended whether to sample in double-double precision
+         * @param bounds bounds of window, which must not be changed afterwards
+         * @param range number of pixels across the window
+         * @param scaleX number of pixels per 1 unit along X-axis
+         * @param scaleY number of pixels per 1 unit along Y-axis
+         */
+        private SampleWindow(CompiledFunction compiled, int engine, boolean extended, Bounds bounds, int range,
+                             double scaleX, double scaleY) {
+            this.compiled = compiled;
+            this.engine = engine;
+            this.extended = extended;
+            this.bounds = bounds;
+            this.range = range;
+            this.scaleX = scaleX;
+            this.scaleY = scaleY;
+        }
+
+        /**
+         * Returns whether this window shows the same function at the same scale as another window, so it differs
+         * only by a pan and the points of the other window can be reused.
+         *
+         * @param other earlier window, or null if there is none
+         * @return whether this window is a pan of the other window
+         */
+        private boolean isPanOf(SampleWindow other) {
+            return other != null && compiled == other.compiled && engine == other.engine && !extended
+                    && !other.extended && range == other.range
+                    && Math.abs(scaleX - other.scaleX) <= SCALE_TOLERANCE * Math.abs(scaleX)
+                    && Math.abs(scaleY - other.scaleY) <= SCALE_TOLERANCE * Math.abs(scaleY);
+        }
+    }
 }
@@ -1,6 +1,7 @@
 package graph;
 
 import expressionEvaluator.EngineOptionsController;
+import expressionEvaluator.Expression;
 import tableOfValues.TableOfValues;
 import tableOfValues.TableOfValuesModel;
 import tableOfValues.TableVisibilityController;
@@ -27,6 +28,8 @@ public class GraphView extends JPanel {
 
     private JPanel toolsPanel = new JPanel(); // Panel to hold graph tools
     private JPanel equationPanel = new JPanel(); // Panel to hold equation tools
+    private JPanel parameterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT)); // Panel to hold parameter sliders
+    private String parameterNames = ""; // Names of parameters that have sliders
 
     private JLayeredPane layeredPane = new JLayeredPane(); // Layered pane for layers that makeup the graph
 
@@ -64,6 +67,8 @@ public class GraphView extends JPanel {
     ButtonGroup engineGroup = new ButtonGroup(); // Button group for engine options
     private JRadioButton engineJS = new JRadioButton("JavaScript"); // Option to select JS engine
     private JRadioButton engineNative = new JRadioButton("RPN"); // Option to select native engine
+    private JRadioButton engineCompiled = new JRadioButton("Compiled"); // Option to select compiled engine
+    private JRadioButton engineTiered = new JRadioButton("Automatic"); // Option to select tiered engine
 
     private JLabel scaleLabelX = new JLabel("Scale: "); // Scale label for x-axis
     private JLabel scaleLabelY = new JLabel("Scale: "); // Scale label for y-axis
@@ -142,15 +147,20 @@ public class GraphView extends JPanel {
 
         // Add components to engine options panel
         engineOptions.setLayout(engineLayout);
+        engineOptions.add(engineTiered);
         engineOptions.add(engineNative);
         engineOptions.add(engineJS);
+        engineOptions.add(engineCompiled);
 
         engineOptions.setBorder(BorderFactory.createTitledBorder("Engine"));
 
         // Group engine options
         engineGroup.add(engineNative);
         engineGroup.add(engineJS);
-        engineNative.setSelected(true);
+        engineGroup.add(engineCompiled);
+        engineGroup.add(engineTiered);
+        engineTiered.setSelected(true);
+        engineJS.setEnabled(model.getMathEngine().isJSAvailable()); // Newer Java versions have no script engine
 
         // Add listener to manually resize layers on window size change, since LayeredPane does not offer this feature
         layeredPane.addComponentListener(new ComponentListener() {
@@ -187,6 +197,10 @@ public class GraphView extends JPanel {
         // Adds graph layers and tools panel
         mainPanel.add(toolsPanel, BorderLayout.NORTH);
         mainPanel.add(layeredPane, BorderLayout.CENTER);
+        mainPanel.add(parameterPanel, BorderLayout.SOUTH);
+
+        parameterPanel.setBorder(BorderFactory.createMatteBorder(1, 0, 0, 0, new Color(171, 173, 179)));
+        parameterPanel.setVisible(false);
 
         this.add(mainPanel, BorderLayout.CENTER);
         this.add(tableOfValues, BorderLayout.EAST);
@@ -354,10 +368,7 @@ public class GraphView extends JPanel {
         // Set default text
         equationField.setText(model.getFunction());
 
-        boundMinX.setText(String.valueOf(model.getAreaBounds().getMinX()));
-        boundMaxX.setText(String.valueOf(model.getAreaBounds().getMaxX()));
-        boundMinY.setText(String.valueOf(model.getAreaBounds().getMinY()));
-        boundMaxY.setText(String.valueOf(model.getAreaBounds().getMaxY()));
+        updateBounds();
 
         xAxisScale.setText(String.valueOf(model.getAxisScaleX()));
         yAxisScale.setText(String.valueOf(model.getAxisScaleY()));
@@ -382,6 +393,12 @@ public class GraphView extends JPanel {
         EngineOptionsController eoController = new EngineOptionsController(model);
         engineNative.addActionListener(eoController);
         engineJS.addActionListener(eoController);
+        engineCompiled.addActionListener(eoController);
+        engineTiered.addActionListener(eoController);
+
+        PanController panController = new PanController(this, model);
+        layeredPane.addMouseListener(panController);
+        layeredPane.addMouseMotionListener(panController);
 
         SaveImageController saveImgController = new SaveImageController(this, model);
         saveAsImageButton.addActionListener(saveImgController);
@@ -432,7 +449,9 @@ public class GraphView extends JPanel {
      */
     private void removeSelectionListener() {
         for (MouseMotionListener listener : layeredPane.getMouseMotionListeners()) {
-            layeredPane.removeMouseMotionListener(listener);
+            if (!(listener instanceof PanController)) {
+                layeredPane.removeMouseMotionListener(listener);
+            }
         }
     }
 
@@ -523,7 +542,9 @@ public class GraphView extends JPanel {
      */
     private void removeMouseListeners() {
         for (MouseListener listener : layeredPane.getMouseListeners()) {
-            layeredPane.removeMouseListener(listener);
+            if (!(listener instanceof PanController)) {
+                layeredPane.removeMouseListener(listener);
+            }
         }
     }
 
@@ -561,6 +582,16 @@ public class GraphView extends JPanel {
         graphInfo.update();
     }
 
+    /**
+     * Updates the bounds fields to the bounds of the graph, such as after the graph is dragged.
+     */
+    public void updateBounds() {
+        boundMinX.setText(String.valueOf(model.getAreaBounds().getMinX()));
+        boundMaxX.setText(String.valueOf(model.getAreaBounds().getMaxX()));
+        boundMinY.setText(String.valueOf(model.getAreaBounds().getMinY()));
+        boundMaxY.setText(String.valueOf(model.getAreaBounds().getMaxY()));
+    }
+
     /**
      * Updates visibility of table of values
      */
@@ -572,6 +603,13 @@ public class GraphView extends JPanel {
         }
     }
 
+    /**
+     * Updates the graph layer only, such as when new points of the graph are published.
+     */
+    public void updateGraph() {
+        graphArea.update();
+    }
+
     /**
      * Updates all graph layers
      */
@@ -579,5 +617,37 @@ public class GraphView extends JPanel {
         graphArea.update();
         graphInfo.update();
         tableModel.update();
+        updateParameters();
+    }
+
+    /**
+     * Updates the parameter sliders. The sliders are only rebuilt when the function uses different parameters, so
+     * a slider being dragged is left alone.
+     */
+    private void updateParameters() {
+        String names = new String(model.getParameterNames()); // Names of parameters used by function
+
+        if (names.equals(parameterNames)) {
+            return;
+        }
+        parameterNames = names;
+        parameterPanel.removeAll();
+
+        for (char name : names.toCharArray()) {
+            int index = Expression.PARAMETER_NAMES.indexOf(name); // Index of parameter
+            double value = model.getParameter(index); // Current parameter value
+            JLabel label = new JLabel(name + " = " + value); // Label showing parameter value
+            JSlider slider = new JSlider(ParameterSliderController.SLIDER_MIN, ParameterSliderController.SLIDER_MAX,
+                    (int) Math.round(value * ParameterSliderController.SLIDER_SCALE)); // Slider to change parameter
+
+            slider.addChangeListener(new ParameterSliderController(model, label, index, name));
+
+            parameterPanel.add(label);
+            parameterPanel.add(slider);
+        }
+
+        parameterPanel.setVisible(!names.isEmpty());
+        parameterPanel.revalidate();
+        parameterPanel.repaint();
     }
 }
@@ -0,0 +1,91 @@
+package graph;
+
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseListener;
+import java.awt.event.MouseMotionListener;
+
+/**
+ * PanController that moves the graph with the mouse while it is dragged. Each drag event pans the window by the
+ * pixels moved since the last one, so only the newly exposed strip of the graph is sampled. Dragging does nothing
+ * while a tool is selected.
+ */
+
+public class PanController implements MouseListener, MouseMotionListener {
+
+    private GraphModel model; // Model linked to the controller
+    private GraphView view; // View linked to the controller
+
+    private int lastX; // X value of cursor at last drag event
+    private int lastY; // Y value of cursor at last drag event
+    private boolean dragging; // Whether the graph is being dragged
+
+    /**
+     * Main Constructor. Links model view to this controller.
+     *
+     * @param view the view linked to the controller
+     * @param model the model linked to the controller
+     */
+    public PanController(GraphView view, GraphModel model) {
+        this.model = model;
+        this.view = view;
+    }
+
+    /**
+     * Starts a drag.
+     *
+     * @param e mouse event
+     */
+    @Override
+    public void mousePressed(MouseEvent e) {
+        dragging = !model.isToolSelected();
+        lastX = e.getX();
+        lastY = e.getY();
+    }
+
+    /**
+     * Pans the graph by the distance the cursor moved.
+     *
+     * @param e mouse event
+     */
+    @Override
+    public void mouseDragged(MouseEvent e) {
+        if (dragging && (e.getX() != lastX || e.getY() != lastY)) {
+            model.pan(e.getX() - lastX, e.getY() - lastY);
+            lastX = e.getX();
+            lastY = e.getY();
+        }
+    }
+
+    /**
+     * Ends a drag and shows the new bounds.
+     *
+     * @param e mouse event
+     */
+    @Override
+    public void mouseReleased(MouseEvent e) {
+        if (dragging) {
+            dragging = false;
+            view.updateBounds();
+        }
+    }
+
+    @Override
+    public void mouseClicked(MouseEvent e) {
+
+    }
+
+    @Override
+    public void mouseEntered(MouseEvent e) {
+
+    }
+
+    @Override
+    public void mouseExited(MouseEvent e) {
+
+    }
+
+    @Override
+    public void mouseMoved(MouseEvent e) {
+
+    }
+}
@@ -0,0 +1,52 @@
+package graph;
+
+import javax.swing.*;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+
+/**
+ * ParameterSliderController that controls the action for a parameter slider.
+ */
+
+public class ParameterSliderController implements ChangeListener {
+
+    public static final int SLIDER_MIN = -100; // Minimum slider position
+    public static final int SLIDER_MAX = 100; // Maximum slider position
+    public static final double SLIDER_SCALE = 10; // Slider positions per unit of parameter value
+
+    private GraphModel model; // Model linked to the controller
+    private JLabel label; // Label showing the parameter value
+    private int index; // Index of parameter
+    private char name; // Name of parameter
+
+    /**
+     * Main Constructor. Links model and label to this controller.
+     *
+     * @param model the model linked to the controller
+     * @param label label showing the parameter value
+     * @param index index of parameter in Expression.PARAMETER_NAMES
+     * @param name name of parameter
+     */
+    public ParameterSliderController(GraphModel model, JLabel label, int index, char name) {
+        this.model = model;
+        this.label = label;
+        this.index = index;
+        this.name = name;
+    }
+
+    /**
+     * Updates the parameter value as the slider moves. Only the graph is redrawn while the slider is dragged, and the
+     * rest of the views once it is released.
+     *
+     * @param e the slider change event
+     */
+    @Override
+    public void stateChanged(ChangeEvent e) {
+        JSlider slider = (JSlider) e.getSource(); // Slider that moved
+        double value = slider.getValue() / SLIDER_SCALE; // New parameter value
+
+        label.setText(name + " = " + value);
+        model.setParameter(index, value, slider.getValueIsAdjusting());
+    }
+
+}
@@ -0,0 +1,157 @@
+package graph;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * SampleBuffer class that holds the sampled points of a graph in flat arrays: the x and y values of each point on the
+ * graph and the pixel location it is plotted at. Buffers are pooled, so redrawing or resizing the window reuses the
+ * arrays of earlier samples instead of allocating new ones. A buffer only grows, with room to spare, so a window that
+ * is resized a pixel at a time does not allocate on every resize event.
+ */
+
+public final class SampleBuffer {
+
+    private static final int POOL_SIZE = 4; // Most released buffers kept for reuse
+    private static final int MIN_CAPACITY = 256; // Fewest points a buffer has room for
+
+    private static final Deque<SampleBuffer> POOL = new ArrayDeque<SampleBuffer>(); // Released buffers
+
+    private final double[] graphX; // X values of points on graph
+    private final double[] graphY; // Y values of points on graph
+    private final double[] windowX; // X locations of points on screen
+    private final double[] windowY; // Y locations of points on screen
+    private final boolean[] coarse; // Whether the interval after each point was left unrefined
+    private int size; // Number of points in buffer
+
+    /**
+     * Main constructor.
+     *
+     * @param capacity number of points the buffer has room for
+     */
+    private SampleBuffer(int capacity) {
+        this.graphX = new double[capacity];
+        this.graphY = new double[capacity];
+        this.windowX = new double[capacity];
+        this.windowY = new double[capacity];
+        this.coarse = new boolean[capacity];
+    }
+
+    /**
+     * Takes a buffer with room for a number of points from the pool, creating one if none is large enough.
+     *
+     * @param size number of points
+     * @return buffer holding size points, whose values are left from its last use
+     */
+    public static SampleBuffer acquire(int size) {
+        SampleBuffer buffer = null; // Pooled buffer large enough
+
+        synchronized (POOL) {
+            for (SampleBuffer pooled : POOL) {
+                if (pooled.getCapacity() >= size) {
+                    buffer = pooled;
+                    break;
+                }
+            }
+            if (buffer != null) {
+                POOL.remove(buffer);
+            } else if (!POOL.isEmpty()) {
+                POOL.removeFirst(); // Too small, so it is dropped in favour of the larger buffer
+            }
+        }
+
+        if (buffer == null) {
+            buffer = new SampleBuffer(Math.max(size + size / 2, MIN_CAPACITY));
+        }
+        buffer.size = size;
+        return buffer;
+    }
+
+    /**
+     * Returns the buffer to the pool once nothing reads it anymore.
+     */
+    public void release() {
+        synchronized (POOL) {
+            if (POOL.size() < POOL_SIZE && !POOL.contains(this)) {
+                POOL.addLast(this);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of points in the buffer.
+     *
+     * @return number of points
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Sets the number of points in the buffer, for samplers that find the number as they go.
+     *
+     * @param size number of points, at most the capacity
+     */
+    void setSize(int size) {
+        if (size > getCapacity()) {
+            throw new IllegalArgumentException("Buffer has room for " + getCapacity() + " points");
+        }
+        this.size = size;
+    }
+
+    /**
+     * Returns the number of points the buffer has room for.
+     *
+     * @return capacity of buffer
+     */
+    public int getCapacity() {
+        return graphX.length;
+    }
+
+    /**
+     * Returns the x values of the points on the graph. The array may be longer than the number of points.
+     *
+     * @return x values
+     */
+    public double[] getGraphX() {
+        return graphX;
+    }
+
+    /**
+     * Returns the y values of the points on the graph. The array may be longer than the number of points.
+     *
+     * @return y values
+     */
+    public double[] getGraphY() {
+        return graphY;
+    }
+
+    /**
+     * Returns the x locations of the points on screen. The array may be longer than the number of points.
+     *
+     * @return x locations
+     */
+    public double[] getWindowX() {
+        return windowX;
+    }
+
+    /**
+     * Returns the y locations of the points on screen. The array may be longer than the number of points.
+     *
+     * @return y locations
+     */
+    public double[] getWindowY() {
+        return windowY;
+    }
+
+    /**
+     * Returns whether the interval from each point to the next was left unrefined, because it was off screen or the
+     * sampling budget ran out, so it must be refined again if it comes into view. The array may be longer than the
+     * number of points.
+     *
+     * @return whether each interval is coarse
+     */
+    public boolean[] getCoarse() {
+        return coarse;
+    }
+}
@@ -6,7 +6,7 @@ import java.awt.*;
 import java.io.IOException;
 import java.text.NumberFormat;
 import javax.swing.border.EmptyBorder;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.table.AbstractTableModel;
 
 public class TableOfValues extends JPanel {
     private TableOfValuesModel model; // The model of the table
@@ -19,8 +19,8 @@ public class TableOfValues extends JPanel {
     private JLabel scaleLabel = new JLabel();// Label for the Scale Text Field
     private JButton applyBound = new JButton("Apply"); // Create the apply button
     private String[] columnNames = {" X ", " Y "};// The Column Name
-    private Double[][] data; // The table data
-    private DefaultTableModel tableModel; // Model for table
+    private double[][] data; // The table data, x values followed by y values
+    private AbstractTableModel tableModel; // Model for table, which boxes only the values shown
     private JTable table = new JTable();// creates the default data
 
     /* Constructor
@@ -28,10 +28,25 @@ public class TableOfValues extends JPanel {
      */
     public TableOfValues(TableOfValuesModel newModel) {
 
-        tableModel = new DefaultTableModel(data, columnNames) {
+        tableModel = new AbstractTableModel() {
             @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
+            public int getRowCount() {
+                return (data != null) ? data[0].length : 0;
+            }
+
+            @Override
+            public int getColumnCount() {
+                return columnNames.length;
+            }
+
+            @Override
+            public String getColumnName(int column) {
+                return columnNames[column];
+            }
+
+            @Override
+            public Object getValueAt(int row, int column) {
+                return data[column][row];
             }
         };
 
@@ -132,7 +147,6 @@ public class TableOfValues extends JPanel {
     /*  Updates the table data */
     public void update() {
         data = model.getTableData();
-        tableModel.setDataVector(data, columnNames);
         tableModel.fireTableDataChanged();
     }
 
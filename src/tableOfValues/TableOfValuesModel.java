@@ -11,7 +11,7 @@ import graph.Bounds;
 
 public class TableOfValuesModel extends Object
 { 
-  private Double [][] data;// Table data
+  private double [][] data;// Table data, x values followed by y values
   private double maxX = 25; // X Max Table value
   private double minX = -25;// X Min table Value
   private double scale = 1;// X scale of the table 
@@ -33,7 +33,7 @@ public class TableOfValuesModel extends Object
    * */ 
   public void setValueAt(double tableNumber,int row,int col)
   {
-    data [row][col] = tableNumber;
+    data [col][row] = tableNumber;
   }
   
   /* Set the bounds
@@ -59,8 +59,8 @@ public class TableOfValuesModel extends Object
     return tableBounds;
   }
   
-  /*returns the new data for the new table */ 
-  public Double [][] getTableData()
+  /*returns the new data for the new table, x values followed by y values */ 
+  public double [][] getTableData()
   {
     data = math.evalExpression(minX,maxX,scale);
     return data; 
@@ -0,0 +1,212 @@
+package expressionEvaluator;
+
+import graph.GraphModel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * EngineAgreementTest class that checks every way of evaluating a function gives the same y values as the scalar
+ * interpreter, which all other engines are compared against.
+ */
+
+public class EngineAgreementTest {
+
+    private static final String[] FUNCTIONS = {
+            "x^3 - 2x + 1",
+            "sin(x)*cos(2x) + tan(x/4)",
+            "sqrt(x) + ln(x) - log(x)",
+            "exp(-x^2) + abs(x) - floor(x)",
+            "if(x < 0, -x, x^2)",
+            "if(x < -1, 1/x, if(x < 1, x, 2 - x))",
+            "sum(k, 1, 5, k*x^k)",
+            "prod(k, 1, 3, x + k)",
+            "2pi x + min(x, 1)"
+    }; // Functions evaluated by every engine
+    private static final int[] ENGINES = {GraphModel.ENGINE_RPN, GraphModel.ENGINE_JS, GraphModel.ENGINE_COMPILED,
+            GraphModel.ENGINE_TIERED}; // Engines MathEngine can evaluate with
+    private static final int COUNT = 1000; // Number of x values, enough for several blocks and chunks
+    private static final double TOLERANCE = 1e-9; // Largest relative difference allowed between engines
+
+    private ExecutorService executor; // Executor for MathEngine.evaluate
+    private double[] xs; // x values, spanning negative and positive values
+
+    /**
+     * Creates the executor and x values.
+     */
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(2);
+        xs = new double[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            xs[i] = -10 + 20.0 * i / (COUNT - 1);
+        }
+    }
+
+    /**
+     * Shuts down the executor.
+     */
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Checks the block interpreter, RPN program, compiled function and tiered function agree with the scalar
+     * interpreter.
+     *
+     * @throws ParseException if a function is invalid
+     */
+    @Test
+    public void testDirectEngines() throws ParseException {
+        for (String function : FUNCTIONS) {
+            checkDirectEngines(MathEngine.compile(function));
+        }
+    }
+
+    /**
+     * Checks the engines agree when the function has parameters bound to it.
+     *
+     * @throws ParseException if the function is invalid
+     */
+    @Test
+    public void testParameters() throws ParseException {
+        double[] values = new double[Expression.PARAMETER_COUNT]; // Parameter values
+        values[Expression.PARAMETER_NAMES.indexOf('a')] = 2.5;
+        values[Expression.PARAMETER_NAMES.indexOf('b')] = -3;
+        CompiledFunction function = MathEngine.compile("a*x^2 + b*sin(x) + if(x < a, b, a)").bind(values);
+
+        checkDirectEngines(function);
+        assertEquals("a*x^2 + b*sin(x) + if(x < a, b, a) at 1", 2.5 - 3 * Math.sin(1) - 3,
+                function.applyAsDouble(1), TOLERANCE);
+    }
+
+    /**
+     * Checks MathEngine.evaluate agrees with the scalar interpreter for every engine.
+     *
+     * @throws ParseException if a function is invalid
+     * @throws InterruptedException if the test is interrupted
+     */
+    @Test
+    public void testMathEngineEvaluate() throws ParseException, InterruptedException {
+        for (String function : FUNCTIONS) {
+            CompiledFunction compiled = MathEngine.compile(function); // Function to evaluate
+            double[] expected = expected(compiled); // y values from scalar interpreter
+            for (int engine : ENGINES) {
+                double[] ys = new double[COUNT]; // y values from engine
+                MathEngine.evaluate(compiled, engine, xs, ys, 0, COUNT, executor);
+                assertAgree(function + " on engine " + engine, expected, ys);
+            }
+        }
+    }
+
+    /**
+     * Checks the first and second derivatives found in one pass agree with the symbolic derivatives.
+     *
+     * @throws ParseException if a function is invalid
+     */
+    @Test
+    public void testDerivatives() throws ParseException {
+        String[] functions = {"x^3 - 2x + 1", "sin(x)*cos(2x)", "exp(-x^2)", "x/(1 + x^2)"}; // Smooth functions
+        double[] result = new double[3]; // f(x), f'(x) and f''(x)
+        for (String function : functions) {
+            CompiledFunction compiled = MathEngine.compile(function); // Function to differentiate
+            for (double x : xs) {
+                compiled.evalDerivatives(x, result);
+                assertClose(function + " at " + x, compiled.applyAsDouble(x), result[0]);
+                assertClose(function + "' at " + x, compiled.getDerivative(1).applyAsDouble(x), result[1]);
+                assertClose(function + "'' at " + x, compiled.getDerivative(2).applyAsDouble(x), result[2]);
+            }
+        }
+    }
+
+    /**
+     * Checks double-double evaluation agrees with double evaluation to double precision.
+     *
+     * @throws ParseException if a function is invalid
+     */
+    @Test
+    public void testExtendedPrecision() throws ParseException {
+        for (String function : FUNCTIONS) {
+            CompiledFunction compiled = MathEngine.compile(function); // Function to evaluate
+            for (double x : xs) {
+                assertClose(function + " at " + x, compiled.applyAsDouble(x),
+                        compiled.evalExtended(DoubleDouble.valueOf(x)).doubleValue());
+            }
+        }
+    }
+
+    /**
+     * Checks the engines MathEngine does not dispatch to agree with the scalar interpreter.
+     *
+     * @param function function to check
+     */
+    private void checkDirectEngines(CompiledFunction function) {
+        String name = function.getFunction(); // Function text, for messages
+        double[] expected = expected(function); // y values from scalar interpreter
+        double[] ys = new double[COUNT]; // y values from engine being checked
+
+        function.getExpression().eval(xs, ys, 0, COUNT, function.getParameters());
+        assertAgree(name + " block", expected, ys);
+
+        double[] stack = function.createStack(); // Stack bound to parameters
+        for (int i = 0; i < COUNT; i++) {
+            ys[i] = function.getProgram().eval(xs[i], stack);
+        }
+        assertAgree(name + " RPN", expected, ys);
+
+        for (int i = 0; i < COUNT; i++) {
+            ys[i] = function.getCompiledFunction().applyAsDouble(xs[i]);
+        }
+        assertAgree(name + " compiled", expected, ys);
+
+        ys = new double[COUNT];
+        function.getTieredFunction().evaluate(xs, ys, 0, COUNT);
+        assertAgree(name + " tiered", expected, ys);
+    }
+
+    /**
+     * Evaluates a function with the scalar interpreter.
+     *
+     * @param function function to evaluate
+     * @return y values at each x value
+     */
+    private double[] expected(CompiledFunction function) {
+        double[] parameters = function.getParameters(); // Parameter values
+        double[] ys = new double[COUNT]; // y values
+        for (int i = 0; i < COUNT; i++) {
+            ys[i] = function.getExpression().eval(xs[i], parameters);
+        }
+        return ys;
+    }
+
+    /**
+     * Checks two arrays of y values agree.
+     *
+     * @param message message describing the values
+     * @param expected expected y values
+     * @param actual actual y values
+     */
+    private void assertAgree(String message, double[] expected, double[] actual) {
+        for (int i = 0; i < COUNT; i++) {
+            assertClose(message + " at " + xs[i], expected[i], actual[i]);
+        }
+    }
+
+    /**
+     * Checks two y values agree to a relative tolerance. NaN agrees only with NaN.
+     *
+     * @param message message describing the value
+     * @param expected expected y value
+     * @param actual actual y value
+     */
+    private static void assertClose(String message, double expected, double actual) {
+        assertEquals(message, expected, actual, TOLERANCE * Math.max(1, Math.abs(expected)));
+    }
+}
@@ -0,0 +1,96 @@
+package expressionEvaluator;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * IntervalSoundnessTest class that checks the bounds found by interval evaluation contain every y value the function
+ * takes in the range, since the grapher skips sampling ranges the bounds rule out.
+ */
+
+public class IntervalSoundnessTest {
+
+    private static final String[] FUNCTIONS = {
+            "x^3 - 2x + 1",
+            "x^2 - x^2",
+            "sin(x)*cos(2x)",
+            "tan(x)",
+            "1/x",
+            "1/(x^2 - 1)",
+            "sqrt(x) + ln(x)",
+            "log(abs(x))",
+            "exp(-x^2) + floor(x) + ceil(x)",
+            "if(x < 0, -x, x^2)",
+            "sum(k, 1, 4, sin(k*x))",
+            "prod(k, 1, 3, x - k)",
+            "min(x, 1/x) + max(x, 2)",
+            "sinh(x) - cosh(x) + tanh(x) + atan(x) + asin(x) + acos(x)"
+    }; // Functions whose bounds are checked
+    private static final double[][] RANGES = {
+            {-10, 10}, {-1, 1}, {0, 0.5}, {-0.001, 0.001}, {1, 1.01}, {-3.5, -2.25}, {3, 7}
+    }; // Ranges of x values, including ones that contain or are next to singularities
+    private static final int SAMPLES = 2001; // Number of x values sampled in each range
+
+    /**
+     * Checks every sampled y value lies within the bounds of its range.
+     *
+     * @throws ParseException if a function is invalid
+     */
+    @Test
+    public void testBoundsContainSamples() throws ParseException {
+        for (String function : FUNCTIONS) {
+            CompiledFunction compiled = MathEngine.compile(function); // Function to bound
+            for (double[] range : RANGES) {
+                checkBounds(compiled, range[0], range[1]);
+            }
+        }
+    }
+
+    /**
+     * Checks bounds of narrow ranges, which the grapher uses when refining, also contain their samples.
+     *
+     * @throws ParseException if a function is invalid
+     */
+    @Test
+    public void testNarrowRanges() throws ParseException {
+        for (String function : FUNCTIONS) {
+            CompiledFunction compiled = MathEngine.compile(function); // Function to bound
+            for (double minX = -5; minX < 5; minX += 0.37) {
+                checkBounds(compiled, minX, minX + 1e-3);
+            }
+        }
+    }
+
+    /**
+     * Checks a range where the function is undefined everywhere has no values in common with any y values.
+     *
+     * @throws ParseException if the function is invalid
+     */
+    @Test
+    public void testUndefinedRange() throws ParseException {
+        Interval bounds = MathEngine.compile("sqrt(x)").evalInterval(-5, -1); // Bounds where sqrt is undefined
+        assertTrue("sqrt(x) on [-5, -1] gave " + bounds, bounds.isEmpty());
+    }
+
+    /**
+     * Checks the bounds of a function over a range contain its y values at evenly spaced x values in the range.
+     *
+     * @param function function to bound
+     * @param minX minimum x value
+     * @param maxX maximum x value
+     */
+    private static void checkBounds(CompiledFunction function, double minX, double maxX) {
+        Interval bounds = function.evalInterval(minX, maxX); // Bounds on y values
+        for (int i = 0; i < SAMPLES; i++) {
+            double x = minX + (maxX - minX) * i / (SAMPLES - 1); // x value
+            double y = function.applyAsDouble(x); // y value
+            if (!Double.isNaN(y)) {
+                assertTrue(function.getFunction() + " at " + x + " gave " + y + " outside " + bounds + " on ["
+                        + minX + ", " + maxX + "]", bounds.contains(y));
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package expressionEvaluator;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * ParserErrorTest class that checks invalid functions are rejected with a ParseException and valid ones, including
+ * implicit multiplication, are accepted.
+ */
+
+public class ParserErrorTest {
+
+    private static final String[] INVALID = {
+            "2 3",
+            "3.5.2",
+            "cot(x)",
+            "sec(x)",
+            "ax",
+            "kx",
+            "si n(x)",
+            "x +",
+            "(x",
+            "sin()",
+            ""
+    }; // Functions that must be rejected
+    private static final double TOLERANCE = 1e-12; // Largest difference allowed in y values
+
+    /**
+     * Checks invalid functions throw a ParseException.
+     */
+    @Test
+    public void testInvalidFunctions() {
+        for (String function : INVALID) {
+            try {
+                MathEngine.compile(function);
+                fail("Accepted invalid function \"" + function + "\"");
+            } catch (ParseException e) {
+                // Expected
+            }
+        }
+    }
+
+    /**
+     * Checks implicit multiplication between numbers, constants, variables and functions.
+     *
+     * @throws ParseException if a function is rejected
+     */
+    @Test
+    public void testImplicitMultiplication() throws ParseException {
+        double x = 1.5; // x value to evaluate at
+        assertValue("pi2", 2 * Math.PI, x);
+        assertValue("2pi", 2 * Math.PI, x);
+        assertValue("x2", 2 * x, x);
+        assertValue("2x", 2 * x, x);
+        assertValue("2pi x", 2 * Math.PI * x, x);
+        assertValue("3sin(x)", 3 * Math.sin(x), x);
+        assertValue("2(x + 1)", 2 * (x + 1), x);
+    }
+
+    /**
+     * Checks sums, products and conditionals parse and evaluate.
+     *
+     * @throws ParseException if a function is rejected
+     */
+    @Test
+    public void testSpecialForms() throws ParseException {
+        double x = 0.5; // x value to evaluate at
+        assertValue("sum(k, 1, 3, k*x)", 6 * x, x);
+        assertValue("prod(k, 1, 3, k)", 6, x);
+        assertValue("if(x < 1, 1, 2)", 1, x);
+        assertValue("if(x > 1, 1, 2)", 2, x);
+    }
+
+    /**
+     * Checks a function parses and has the expected value.
+     *
+     * @param function function to parse
+     * @param expected expected y value
+     * @param x x value to evaluate at
+     * @throws ParseException if the function is rejected
+     */
+    private static void assertValue(String function, double expected, double x) throws ParseException {
+        assertEquals(function, expected, MathEngine.compile(function).applyAsDouble(x), TOLERANCE);
+    }
+}